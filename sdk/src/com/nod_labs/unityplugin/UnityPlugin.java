@@ -26,11 +26,7 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.util.Log;
 import android.app.Activity;
-import android.util.SparseArray;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-import com.google.common.primitives.Ints;
 import com.unity3d.player.UnityPlayerNativeActivity;
 
 import net.openspatial.AccelerometerData;
@@ -59,9 +55,8 @@ import net.openspatial.RelativeXYData;
 import net.openspatial.ResponseCode;
 import net.openspatial.TranslationData;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class UnityPlugin {
@@ -73,21 +68,55 @@ public class UnityPlugin {
 
     private static Activity mActivity;
 
-    private static int mNextId = 0;
-    private static BiMap<Integer, BluetoothDevice> mDeviceIdMap = HashBiMap.create();
-
-    private static Map<Integer, Boolean> mConnectedMap = new HashMap<Integer, Boolean>();
-    private static Map<Integer, float[]> mRotationMap = new HashMap<Integer, float[]>();
-    private static Map<Integer, float[]> mGyroMap = new HashMap<Integer, float[]>();
-    private static Map<Integer, float[]> mAccelMap = new HashMap<Integer, float[]>();
-    private static Map<Integer, int[]> mPointerMap = new HashMap<Integer, int[]>();
-    private static Map<Integer, Map<Integer, Integer>> mButtonMap
-            = new HashMap<Integer, Map<Integer, Integer>>();
-    private static Map<Integer, Integer> mGestureMap = new HashMap<Integer, Integer>();
-    private static Map<Integer, int[]> mAnalogDataMap = new HashMap<Integer, int[]>();
-    private static Map<Integer, Integer> mExtendedMap = new HashMap<Integer, Integer>();
-    private static Map<Integer, Integer> mBatteryMap = new HashMap<Integer, Integer>();
-    private static SparseArray<float[]> mTranslationMap = new SparseArray<float[]>();
+    private static final int NUM_BUTTONS = 10;
+
+    // The latest values reported by one device
+    private static class DeviceState {
+        final BluetoothDevice device;
+        boolean connected;
+        float[] rotation;
+        float[] gyro;
+        float[] accel;
+        float[] translation;
+        int[] pointer;
+        int[] buttons;
+        int gesture;
+        int[] analogData;
+        int extended;
+        int battery;
+
+        DeviceState(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        void reset(boolean connected, int gesture) {
+            this.connected = connected;
+            rotation = new float[3];
+            gyro = new float[3];
+            accel = new float[3];
+            translation = new float[3];
+            pointer = new int[2];
+            buttons = new int[NUM_BUTTONS];
+            this.gesture = gesture;
+            analogData = new int[]{128, 128, 255};
+            extended = 0;
+            battery = 0;
+        }
+    }
+
+    // Indexed by the device handles of the OpenSpatialService, which are also the device ids
+    // used by Unity
+    private static volatile DeviceState[] mDeviceStates = new DeviceState[0];
+
+    private static DeviceState getDeviceState(int deviceId) {
+        DeviceState[] states = mDeviceStates;
+        return deviceId >= 0 && deviceId < states.length ? states[deviceId] : null;
+    }
+
+    private static BluetoothDevice getDevice(int deviceId) {
+        DeviceState state = getDeviceState(deviceId);
+        return state != null ? state.device : null;
+    }
 
     protected UnityPlugin() {}
 
@@ -104,43 +133,33 @@ public class UnityPlugin {
         public void onDeviceConnected(BluetoothDevice device) {
             Log.d(TAG, "Connected to device: " + device.getAddress());
 
-            int deviceId;
-            if (mDeviceIdMap.containsValue(device)) {
-                deviceId = mDeviceIdMap.inverse().get(device);
-            } else {
-                // FIXME: not ideal for generating id, use hash of address
-                deviceId = mNextId++;
-                mDeviceIdMap.put(deviceId, device);
+            // The service keeps the handle of a device across reconnects
+            int deviceId = mOpenSpatialService.getDeviceHandle(device);
+            if (deviceId == OpenSpatialConstants.NO_DEVICE_HANDLE) {
+                Log.e(TAG, "Connected device has no handle!");
+                return;
+            }
+
+            DeviceState state = getDeviceState(deviceId);
+            if (state == null) {
+                state = new DeviceState(device);
+
+                DeviceState[] states = mDeviceStates;
+                if (deviceId >= states.length) {
+                    states = Arrays.copyOf(states, deviceId + 1);
+                }
+                states[deviceId] = state;
+                mDeviceStates = states;
             }
 
-            mConnectedMap.put(deviceId, true);
-            mRotationMap.put(deviceId, new float[3]);
-            mGyroMap.put(deviceId, new float[3]);
-            mAccelMap.put(deviceId, new float[3]);
-            mTranslationMap.put(deviceId, new float[3]);
-            mPointerMap.put(deviceId, new int[2]);
-            mButtonMap.put(deviceId, new HashMap<Integer, Integer>());
-            mGestureMap.put(deviceId, new Integer(-1));
-            mAnalogDataMap.put(deviceId, new int[]{128, 128, 255});
-            mExtendedMap.put(deviceId, 0);
-            mBatteryMap.put(deviceId, new Integer(0));
+            state.reset(true, -1);
         }
 
         @Override
         public void onDeviceDisconnected(BluetoothDevice device) {
-            Integer deviceId = mDeviceIdMap.inverse().get(device);
-            if (deviceId != null) {
-                mConnectedMap.put(deviceId, false);
-                mRotationMap.put(deviceId, new float[]{0.0f, 0.0f, 0.0f});
-                mGyroMap.put(deviceId, new float[]{0.0f, 0.0f, 0.0f});
-                mAccelMap.put(deviceId, new float[]{0.0f, 0.0f, 0.0f});
-                mTranslationMap.put(deviceId, new float[]{0.0f, 0.0f, 0.0f});
-                mPointerMap.put(deviceId, new int[]{0, 0});
-                mButtonMap.put(deviceId, new HashMap<Integer, Integer>());
-                mGestureMap.put(deviceId, 0);
-                mAnalogDataMap.put(deviceId, new int[]{128, 128, 255});
-                mExtendedMap.put(deviceId, 0);
-                mBatteryMap.put(deviceId, 0);
+            DeviceState state = getDeviceState(mOpenSpatialService.getDeviceHandle(device));
+            if (state != null) {
+                state.reset(false, 0);
             }
         }
 
@@ -196,37 +215,36 @@ public class UnityPlugin {
 
         @Override
         public void onDataReceived(OpenSpatialData openSpatialData) {
-            BluetoothDevice device = openSpatialData.device;
-            Integer deviceId = mDeviceIdMap.inverse().get(device);
-            if (deviceId == null) {
+            DeviceState state = getDeviceState(openSpatialData.getDeviceHandle());
+            if (state == null) {
                 Log.e(TAG, "Received data from an unknown source!");
                 return;
             }
 
             switch (openSpatialData.dataType) {
                 case BUTTON:
-                    handleButtonReceipt(deviceId, openSpatialData);
+                    handleButtonReceipt(state, openSpatialData);
                     break;
                 case RAW_ACCELEROMETER:
-                    handleAccelReceipt(deviceId, openSpatialData);
+                    handleAccelReceipt(state, openSpatialData);
                     break;
                 case RAW_GYRO:
-                    handleGyroReceipt(deviceId, openSpatialData);
+                    handleGyroReceipt(state, openSpatialData);
                     break;
                 case RELATIVE_XY:
-                    handleRelativeXYReceipt(deviceId, openSpatialData);
+                    handleRelativeXYReceipt(state, openSpatialData);
                     break;
                 case GESTURE:
-                    handleGestureReceipt(deviceId, openSpatialData);
+                    handleGestureReceipt(state, openSpatialData);
                     break;
                 case EULER_ANGLES:
-                    handleEulerReceipt(deviceId, openSpatialData);
+                    handleEulerReceipt(state, openSpatialData);
                     break;
                 case ANALOG:
-                    handleAnalogReceipt(deviceId, openSpatialData);
+                    handleAnalogReceipt(state, openSpatialData);
                     break;
                 case TRANSLATIONS:
-                    handleTranslationReceipt(deviceId, openSpatialData);
+                    handleTranslationReceipt(state, openSpatialData);
                     break;
                 case RAW_COMPASS:
                 case GENERAL_DEVICE_INFORMATION:
@@ -244,19 +262,17 @@ public class UnityPlugin {
             mOpenSpatialService = ((OpenSpatialService.OpenSpatialServiceBinder)service).getService();
             mOpenSpatialService.initialize(TAG, mOpenSpatialInterface);
             mOpenSpatialService.getConnectedDevices();
-            mNextId = 0;
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             mOpenSpatialInterface = null;
             mOpenSpatialService = null;
-            mNextId = 0;
         }
     };
 
     public static String nodGetName(int deviceId) {
-        BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        BluetoothDevice device = getDevice(deviceId);
         if(device == null) {
             Log.e(TAG, "Requested the name of an unknown device!");
             return "";
@@ -266,25 +282,33 @@ public class UnityPlugin {
     }
 
     public static int[] getDeviceIds() {
-        return Ints.toArray(mDeviceIdMap.keySet());
+        DeviceState[] states = mDeviceStates;
+
+        int count = 0;
+        int[] ids = new int[states.length];
+        for (int deviceId = 0; deviceId < states.length; deviceId++) {
+            if (states[deviceId] != null) {
+                ids[count++] = deviceId;
+            }
+        }
+
+        return Arrays.copyOf(ids, count);
     }
 
     public static int getNumDevices() {
-        Collection<Boolean> connected = mConnectedMap.values();
-
         int result = 0;
 
-        for (Boolean connState : connected) {
-            result += connState ? 1 : 0;
+        for (DeviceState state : mDeviceStates) {
+            result += state != null && state.connected ? 1 : 0;
         }
 
         return result;
     }
 
-    public static int getNumButtons() { return 10;}
+    public static int getNumButtons() { return NUM_BUTTONS;}
 
     public static String getDeviceAddress(int deviceId) {
-        final BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        final BluetoothDevice device = getDevice(deviceId);
         if (device == null) {
             Log.e(TAG, "No device with id=" + deviceId + " found");
             return null;
@@ -293,90 +317,105 @@ public class UnityPlugin {
     }
 
     private static boolean enableData(int deviceId, DataType dataType) {
-        final BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        return enableData(deviceId, EnumSet.of(dataType));
+    }
+
+    private static boolean enableData(int deviceId, EnumSet<DataType> dataTypes) {
+        final BluetoothDevice device = getDevice(deviceId);
         if (device == null) {
-            Log.e(TAG, "Enabling " + dataType.name() + " data failed: No device with id="
+            Log.e(TAG, "Enabling " + dataTypes + " data failed: No device with id="
                     + deviceId);
             return false;
         }
 
-        mOpenSpatialService.enableData(device, dataType);
+        mOpenSpatialService.enableData(device, dataTypes);
         return true;
     }
 
     private static boolean disableData(int deviceId, DataType dataType) {
-        final BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        return disableData(deviceId, EnumSet.of(dataType));
+    }
+
+    private static boolean disableData(int deviceId, EnumSet<DataType> dataTypes) {
+        final BluetoothDevice device = getDevice(deviceId);
         if (device == null) {
-            Log.e(TAG, "Disabling " + dataType.name() + " data failed: No device with id="
+            Log.e(TAG, "Disabling " + dataTypes + " data failed: No device with id="
                     + deviceId);
             return false;
         }
 
-        mOpenSpatialService.disableData(device, dataType);
+        mOpenSpatialService.disableData(device, dataTypes);
         return true;
     }
 
-    private static void handleButtonReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleButtonReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         ButtonData data = (ButtonData) openSpatialData;
         int id = data.getButtonId();
-        ButtonState state = data.getButtonState();
+        ButtonState buttonState = data.getButtonState();
 
-        Map<Integer, Integer> buttonMap = mButtonMap.get(deviceId);
-        buttonMap.put(id, state.equals(ButtonState.UP) ? 0 : 1);
+        if (id < 0) {
+            return;
+        }
+        if (id >= state.buttons.length) {
+            state.buttons = Arrays.copyOf(state.buttons, id + 1);
+        }
+        state.buttons[id] = buttonState.equals(ButtonState.UP) ? 0 : 1;
     }
 
-    private static void handleAccelReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleAccelReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         AccelerometerData data = (AccelerometerData) openSpatialData;
-        float[] accelData = mAccelMap.get(deviceId);
+        float[] accelData = state.accel;
 
-        accelData[0] = data.getX();
-        accelData[1] = data.getY();
-        accelData[2] = data.getZ();
+        accelData[0] = data.getXInG();
+        accelData[1] = data.getYInG();
+        accelData[2] = data.getZInG();
     }
 
-    private static void handleGyroReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleGyroReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         GyroscopeData data = (GyroscopeData) openSpatialData;
-        float[] gyroData = mGyroMap.get(deviceId);
+        float[] gyroData = state.gyro;
 
-        gyroData[0] = data.getX();
-        gyroData[1] = data.getY();
-        gyroData[2] = data.getZ();
+        gyroData[0] = data.getXInRadiansPerSecond();
+        gyroData[1] = data.getYInRadiansPerSecond();
+        gyroData[2] = data.getZInRadiansPerSecond();
     }
 
-    private static void handleRelativeXYReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleRelativeXYReceipt(DeviceState state,
+                                                OpenSpatialData openSpatialData) {
         RelativeXYData data = (RelativeXYData) openSpatialData;
-        int[] xyData = mPointerMap.get(deviceId);
+        int[] xyData = state.pointer;
 
         xyData[0] = data.getX();
         xyData[1] = data.getY();
     }
 
-    private static void handleGestureReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleGestureReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         GestureData data = (GestureData) openSpatialData;
-        mGestureMap.put(deviceId, data.getGestureType().ordinal());
+        state.gesture = data.getGestureType().ordinal();
     }
 
-    private static void handleEulerReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleEulerReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         EulerData data = (EulerData) openSpatialData;
-        float[] eulerData = mRotationMap.get(deviceId);
+        float[] eulerData = state.rotation;
 
         eulerData[0] = data.getRoll();
         eulerData[1] = data.getPitch();
         eulerData[2] = data.getYaw();
     }
 
-    private static void handleTranslationReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleTranslationReceipt(DeviceState state,
+                                                 OpenSpatialData openSpatialData) {
         TranslationData data = (TranslationData) openSpatialData;
-        float[] translationData = mTranslationMap.get(deviceId);
+        float[] translationData = state.translation;
 
         translationData[0] = data.getX();
         translationData[1] = data.getY();
         translationData[2] = data.getZ();
     }
 
-    private static void handleAnalogReceipt(int deviceId, OpenSpatialData openSpatialData) {
+    private static void handleAnalogReceipt(DeviceState state, OpenSpatialData openSpatialData) {
         AnalogData data = (AnalogData) openSpatialData;
-        int[] analogData = mAnalogDataMap.get(deviceId);
+        int[] analogData = state.analogData;
 
         analogData[0] = data.getAnalogValue(0);
         analogData[1] = data.getAnalogValue(1);
@@ -388,7 +427,7 @@ public class UnityPlugin {
     }
 
     public static boolean sendHaptic(int deviceId, int index, int argument) {
-        BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        BluetoothDevice device = getDevice(deviceId);
         if (device == null) {
             Log.d(TAG, "Invalid device ID.");
             return false;
@@ -422,8 +461,7 @@ public class UnityPlugin {
     }
 
     public static boolean registerForMotion6DEvents(final int deviceId) {
-        return enableData(deviceId, DataType.RAW_ACCELEROMETER)
-                && enableData(deviceId, DataType.RAW_GYRO);
+        return enableData(deviceId, EnumSet.of(DataType.RAW_ACCELEROMETER, DataType.RAW_GYRO));
     }
 
     public static boolean registerForTranslationEvents(final int deviceId) {
@@ -431,7 +469,7 @@ public class UnityPlugin {
     }
 
     public static boolean registerForExtendedEvents(final int deviceId, final String type) {
-        final BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        final BluetoothDevice device = getDevice(deviceId);
 
         if (device == null) {
             Log.e(TAG, "Register for Motion6D events failed: No device with id=" + deviceId);
@@ -444,8 +482,10 @@ public class UnityPlugin {
                         @Override
                         public void onEventReceived(OpenSpatialEvent event) {
                             ExtendedEvent extendedEvent = (ExtendedEvent) event;
-                            Integer value = mExtendedMap.get(deviceId);
-                            value = extendedEvent.eventId;
+                            DeviceState state = getDeviceState(deviceId);
+                            if (state != null) {
+                                state.extended = extendedEvent.eventId;
+                            }
                         }
                     });
         } catch (OpenSpatialException e) {
@@ -477,8 +517,7 @@ public class UnityPlugin {
     }
 
     public static boolean unregisterFromMotion6DEvents(int deviceId) {
-        return disableData(deviceId, DataType.RAW_ACCELEROMETER)
-                && disableData(deviceId, DataType.RAW_GYRO);
+        return disableData(deviceId, EnumSet.of(DataType.RAW_ACCELEROMETER, DataType.RAW_GYRO));
     }
 
     public static boolean unregisterFromGestureEvents(int deviceId) {
@@ -490,7 +529,7 @@ public class UnityPlugin {
     }
 
     public static boolean unregisterFromExtendedEvents(int deviceId, String type) {
-        final BluetoothDevice device = mDeviceIdMap.get(deviceId);
+        final BluetoothDevice device = getDevice(deviceId);
         if (device == null) {
             Log.e(TAG, "Unregister from Extended events failed: No device with id=" + deviceId);
             return false;
@@ -508,7 +547,7 @@ public class UnityPlugin {
 
     public static void requestBatteryLevel(int deviceId) {
         try {
-            mOpenSpatialService.queryDeviceInfo(mDeviceIdMap.get(deviceId),
+            mOpenSpatialService.queryDeviceInfo(getDevice(deviceId),
                     OpenSpatialConstants.INFO_BATTERY_LEVEL);
         } catch (Exception e) {
             Log.d(TAG, "Failed to request battery level!");
@@ -516,17 +555,17 @@ public class UnityPlugin {
     }
 
     public static int getBatteryLevel(int deviceId) {
-        return mBatteryMap.get(deviceId);
+        return getDeviceState(deviceId).battery;
     }
 
     public static int getButtonState(int deviceId, int buttonId) {
-        Integer buttonState = mButtonMap.get(deviceId).get(buttonId);
-        return buttonState == null ? 0 : buttonState;
+        int[] buttons = getDeviceState(deviceId).buttons;
+        return buttonId >= 0 && buttonId < buttons.length ? buttons[buttonId] : 0;
     }
 
     // Returns an integer array of form [x, y]
     public static int[] getPointerData(int deviceId) {
-        int[] pos2d =  mPointerMap.get(deviceId);
+        int[] pos2d =  getDeviceState(deviceId).pointer;
 
         int[] ret = new int[pos2d.length];
         System.arraycopy(pos2d, 0, ret, 0, pos2d.length);
@@ -540,38 +579,40 @@ public class UnityPlugin {
 
     // Returns a float array of form [pitch, roll, yaw]
     public static float[] getRotationData(int deviceId) {
-        return mRotationMap.get(deviceId);
+        return getDeviceState(deviceId).rotation;
     }
 
     public static float[] getTranslationData(int deviceId) {
-        return mTranslationMap.get(deviceId);
+        return getDeviceState(deviceId).translation;
     }
 
     // Returns an int array of form [joystickX, joystickY, trigger]
     public static int[] getAnalogData(int deviceId) {
-        return mAnalogDataMap.get(deviceId);
+        return getDeviceState(deviceId).analogData;
     }
 
     // Returns a float array of form [gyroX, gyroY, gyroZ] (units: radians/sec)
     public static float[] getGyroData(int deviceId) {
-        return mGyroMap.get(deviceId);
+        return getDeviceState(deviceId).gyro;
     }
 
     // Returns a float array of form [accelX, accelY, accelZ] (units: G's)
     public static float[] getAccelData(int deviceId) {
-        return mAccelMap.get(deviceId);
+        return getDeviceState(deviceId).accel;
     }
 
     // Returns an int corresponding to an ExtendedEvent
     public static int getExtendedData(int deviceId) {
-        int result =  mExtendedMap.get(deviceId);
-        mExtendedMap.put(deviceId, 0);
+        DeviceState state = getDeviceState(deviceId);
+        int result = state.extended;
+        state.extended = 0;
         return result;
     }
 
     public static int getGestureData(int deviceId) {
-        int result = mGestureMap.get(deviceId);
-        mGestureMap.put(deviceId, -1);
+        DeviceState state = getDeviceState(deviceId);
+        int result = state.gesture;
+        state.gesture = -1;
         return result;
     }
 
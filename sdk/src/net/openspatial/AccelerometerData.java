@@ -21,18 +21,33 @@ import android.bluetooth.BluetoothDevice;
 import java.util.Arrays;
 
 /**
- * Contains raw accelerometer LSB readings. Use the FSR value obtained from
- * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)} to convert
- * the values in to units of G.
+ * Contains raw accelerometer LSB readings. The {@code InG} accessors convert the values in to
+ * units of G using the FSR the device reported through
+ * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)}.
  */
 public class AccelerometerData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code AccelerometerData} of the devices it is registered for with
+     * {@link OpenSpatialService#addAccelerometerListener}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code AccelerometerData} received.
+         * @param data The {@code AccelerometerData} received.
+         */
+        void onAccelerometerData(AccelerometerData data);
+    }
+
     private final short[] accelData;
 
+    private float gPerLsb = UnitConverter.DEFAULT_ACCEL_SCALE;
+
     /**
      * @return Accelerometer reading about x axis.
      */
     public short getX() {
+        checkNotReleased();
         return accelData[X];
     }
 
@@ -40,6 +55,7 @@ public class AccelerometerData extends OpenSpatialData {
      * @return Accelerometer reading about y axis.
      */
     public short getY() {
+        checkNotReleased();
         return accelData[Y];
     }
 
@@ -47,6 +63,7 @@ public class AccelerometerData extends OpenSpatialData {
      * @return Accelerometer reading about z axis.
      */
     public short getZ() {
+        checkNotReleased();
         return accelData[Z];
     }
 
@@ -60,6 +77,47 @@ public class AccelerometerData extends OpenSpatialData {
         this.accelData = accelData;
     }
 
+    /**
+     * @return Accelerometer reading about the x axis in G.
+     */
+    public float getXInG() {
+        checkNotReleased();
+        return accelData[X] * gPerLsb;
+    }
+
+    /**
+     * @return Accelerometer reading about the y axis in G.
+     */
+    public float getYInG() {
+        checkNotReleased();
+        return accelData[Y] * gPerLsb;
+    }
+
+    /**
+     * @return Accelerometer reading about the z axis in G.
+     */
+    public float getZInG() {
+        checkNotReleased();
+        return accelData[Z] * gPerLsb;
+    }
+
+    /**
+     * @return The number of G per LSB used by the unit accessors.
+     */
+    public float getScale() {
+        return gPerLsb;
+    }
+
+    void setScale(float scale) {
+        gPerLsb = scale;
+    }
+
+    void set(short x, short y, short z) {
+        accelData[X] = x;
+        accelData[Y] = y;
+        accelData[Z] = z;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -25,6 +25,18 @@ import java.util.Arrays;
  */
 public class AnalogData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code AnalogData} of the devices it is registered for with
+     * {@link OpenSpatialService#addAnalogListener(BluetoothDevice, AnalogData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code AnalogData} received.
+         * @param data The {@code AnalogData} received.
+         */
+        void onAnalogData(AnalogData data);
+    }
+
     private final int[] analogData;
 
     /**
@@ -33,6 +45,7 @@ public class AnalogData extends OpenSpatialData {
      * @return The last reported analog sensor value.
      */
     public int getAnalogValue(int index) {
+        checkNotReleased();
         return analogData[index];
     }
 
@@ -46,6 +59,12 @@ public class AnalogData extends OpenSpatialData {
         this.analogData = analogData;
     }
 
+    void set(int value0, int value1, int value2) {
+        analogData[0] = value0;
+        analogData[1] = value1;
+        analogData[2] = value2;
+    }
+
     @Override
     public String toString() {
         return super.toString() + ", Analog Data: " + Arrays.toString(analogData);
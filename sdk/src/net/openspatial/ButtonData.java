@@ -23,14 +23,27 @@ import android.bluetooth.BluetoothDevice;
  */
 public class ButtonData extends OpenSpatialData {
 
-    private final int buttonId;
+    /**
+     * Receives the {@code ButtonData} of the devices it is registered for with
+     * {@link OpenSpatialService#addButtonListener(BluetoothDevice, ButtonData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code ButtonData} received.
+         * @param data The {@code ButtonData} received.
+         */
+        void onButtonData(ButtonData data);
+    }
+
+    private int buttonId;
 
-    private final ButtonState buttonState;
+    private ButtonState buttonState;
 
     /**
      * @return Button ID
      */
     public int getButtonId() {
+        checkNotReleased();
         return buttonId;
     }
 
@@ -38,6 +51,7 @@ public class ButtonData extends OpenSpatialData {
      * @return The {@link ButtonState} the button has entered
      */
     public ButtonState getButtonState() {
+        checkNotReleased();
         return buttonState;
     }
 
@@ -53,6 +67,11 @@ public class ButtonData extends OpenSpatialData {
         this.buttonState = buttonState;
     }
 
+    void set(int buttonId, ButtonState buttonState) {
+        this.buttonId = buttonId;
+        this.buttonState = buttonState;
+    }
+
     @Override
     public String toString() {
         return super.toString() + ", Button " + getButtonId() + " " + getButtonState().name();
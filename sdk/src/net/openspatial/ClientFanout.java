@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link OpenSpatialInterface} that forwards every callback to the primary interface of the
+ * {@link OpenSpatialService} and to each client added with
+ * {@link OpenSpatialService#addClient(OpenSpatialInterface, Set, java.util.concurrent.Executor)}.
+ * Clients only receive the {@link OpenSpatialData} of the {@link DataType}s they asked for.
+ *
+ * Instances are immutable; the service replaces its fan-out whenever a client is added or removed.
+ */
+class ClientFanout implements OpenSpatialInterface {
+
+    static class Client {
+        final OpenSpatialInterface client;
+        final OpenSpatialInterface target;
+        // The executor created for the client, shut down when it is removed
+        final ExecutorService ownedExecutor;
+        private final boolean[] mWanted = new boolean[DataType.values().length];
+
+        /**
+         * @param client The interface the client registered.
+         * @param target The interface callbacks are made on, typically {@code client} wrapped
+         *               with its executor.
+         * @param dataTypes The {@link DataType}s the client receives data for.
+         * @param ownedExecutor The executor created for the client, or null.
+         */
+        Client(OpenSpatialInterface client,
+               OpenSpatialInterface target,
+               Set<DataType> dataTypes,
+               ExecutorService ownedExecutor) {
+            this.client = client;
+            this.target = target;
+            this.ownedExecutor = ownedExecutor;
+
+            for (DataType dataType : dataTypes) {
+                mWanted[dataType.ordinal()] = true;
+            }
+        }
+
+        boolean wants(DataType dataType) {
+            return mWanted[dataType.ordinal()];
+        }
+    }
+
+    private final OpenSpatialInterface mPrimary;
+    private final Client[] mClients;
+
+    ClientFanout(OpenSpatialInterface primary, Client[] clients) {
+        mPrimary = primary;
+        mClients = clients;
+    }
+
+    /**
+     * @return The number of interfaces {@code serviceInterface} passes data of {@code dataType}
+     *         to.
+     */
+    static int countRecipients(OpenSpatialInterface serviceInterface, DataType dataType) {
+        if (serviceInterface == null) {
+            return 0;
+        }
+        if (!(serviceInterface instanceof ClientFanout)) {
+            return 1;
+        }
+
+        ClientFanout fanout = (ClientFanout) serviceInterface;
+        int recipients = fanout.mPrimary != null ? 1 : 0;
+        for (Client client : fanout.mClients) {
+            if (client.wants(dataType)) {
+                recipients++;
+            }
+        }
+
+        return recipients;
+    }
+
+    @Override
+    public void onDeviceConnected(BluetoothDevice device) {
+        if (mPrimary != null) {
+            mPrimary.onDeviceConnected(device);
+        }
+        for (Client client : mClients) {
+            client.target.onDeviceConnected(device);
+        }
+    }
+
+    @Override
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        if (mPrimary != null) {
+            mPrimary.onDeviceDisconnected(device);
+        }
+        for (Client client : mClients) {
+            client.target.onDeviceDisconnected(device);
+        }
+    }
+
+    @Override
+    public void onGetParameterResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       DeviceParameter deviceParameter,
+                                       ResponseCode responseCode,
+                                       short[] values) {
+        if (mPrimary != null) {
+            mPrimary.onGetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+        for (Client client : mClients) {
+            client.target.onGetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+    }
+
+    @Override
+    public void onSetParameterResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       DeviceParameter deviceParameter,
+                                       ResponseCode responseCode,
+                                       short[] values) {
+        if (mPrimary != null) {
+            mPrimary.onSetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+        for (Client client : mClients) {
+            client.target.onSetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+    }
+
+    @Override
+    public void onGetIdentifierResponse(BluetoothDevice device,
+                                        DataType dataType,
+                                        byte index,
+                                        ResponseCode responseCode,
+                                        String identifier) {
+        if (mPrimary != null) {
+            mPrimary.onGetIdentifierResponse(device, dataType, index, responseCode, identifier);
+        }
+        for (Client client : mClients) {
+            client.target.onGetIdentifierResponse(device, dataType, index, responseCode,
+                    identifier);
+        }
+    }
+
+    @Override
+    public void onGetParameterRangeResponse(BluetoothDevice device,
+                                            DataType dataType,
+                                            DeviceParameter deviceParameter,
+                                            ResponseCode responseCode,
+                                            Number low,
+                                            Number high) {
+        if (mPrimary != null) {
+            mPrimary.onGetParameterRangeResponse(device, dataType, deviceParameter, responseCode,
+                    low, high);
+        }
+        for (Client client : mClients) {
+            client.target.onGetParameterRangeResponse(device, dataType, deviceParameter,
+                    responseCode, low, high);
+        }
+    }
+
+    @Override
+    public void onDataEnabledResponse(BluetoothDevice device,
+                                      DataType dataType,
+                                      ResponseCode responseCode) {
+        if (mPrimary != null) {
+            mPrimary.onDataEnabledResponse(device, dataType, responseCode);
+        }
+        for (Client client : mClients) {
+            client.target.onDataEnabledResponse(device, dataType, responseCode);
+        }
+    }
+
+    @Override
+    public void onDataDisabledResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       ResponseCode responseCode) {
+        if (mPrimary != null) {
+            mPrimary.onDataDisabledResponse(device, dataType, responseCode);
+        }
+        for (Client client : mClients) {
+            client.target.onDataDisabledResponse(device, dataType, responseCode);
+        }
+    }
+
+    @Override
+    public void onDataReceived(OpenSpatialData data) {
+        if (mPrimary != null) {
+            mPrimary.onDataReceived(data);
+        }
+        for (Client client : mClients) {
+            if (client.wants(data.dataType)) {
+                client.target.onDataReceived(data);
+            }
+        }
+    }
+}
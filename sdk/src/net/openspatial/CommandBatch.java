@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.util.Arrays;
+
+/**
+ * Several control commands for one OpenSpatial device, sent together with
+ * {@link OpenSpatialService#sendCommandBatch(android.bluetooth.BluetoothDevice, CommandBatch)}.
+ * Each command is answered with its own response, which is passed to the matching
+ * {@link OpenSpatialInterface} callback just like the response to a single command.
+ *
+ * If the connector announced {@link OpenSpatialConstants#OPENSPATIAL_COMMAND_BATCH_SUPPORTED}, the
+ * batch is carried in the {@link OpenSpatialConstants#OPENSPATIAL_COMMAND_BATCH} extra as a
+ * sequence of frames, each made of a length byte followed by a command in the format of
+ * {@link OpenSpatialConstants#OPENSPATIAL_DATA}. Batched responses use the same framing in the
+ * {@link OpenSpatialConstants#OPENSPATIAL_RESPONSE_BATCH} extra. Otherwise every command is sent
+ * in an intent of its own.
+ *
+ * A batch can be reused after {@link #clear()}.
+ */
+public class CommandBatch {
+    private static final int COMMAND_HEADER_SIZE = 3;
+
+    private byte[] mBuffer = new byte[32];
+    private int mLength;
+    private int mCommandCount;
+
+    /**
+     * Add a command enabling reporting of {@code dataType}.
+     */
+    public void enableData(DataType dataType) {
+        add(CommandType.ENABLE, dataType.getValue(), (byte) 0);
+    }
+
+    /**
+     * Add a command disabling reporting of {@code dataType}.
+     */
+    public void disableData(DataType dataType) {
+        add(CommandType.DISABLE, dataType.getValue(), (byte) 0);
+    }
+
+    /**
+     * Add a command querying the value of {@code deviceParameter}.
+     */
+    public void getParameter(DataType dataType, DeviceParameter deviceParameter) {
+        add(CommandType.GET_PARAMETER, dataType.getValue(), deviceParameter.getValue());
+    }
+
+    /**
+     * Add a command setting the value of {@code deviceParameter} to {@code newValue}.
+     */
+    public void setParameter(DataType dataType, DeviceParameter deviceParameter, int newValue) {
+        add(CommandType.SET_PARAMETER, dataType.getValue(), deviceParameter.getValue(), newValue);
+    }
+
+    /**
+     * Add a command querying the range of values {@code deviceParameter} can hold.
+     */
+    public void getParameterRange(DataType dataType, DeviceParameter deviceParameter) {
+        add(CommandType.GET_PARAMETER_RANGE, dataType.getValue(), deviceParameter.getValue());
+    }
+
+    /**
+     * Add a command querying the identifier of the sensor of {@code dataType} at {@code index}.
+     */
+    public void getIdentifier(DataType dataType, byte index) {
+        add(CommandType.GET_IDENTIFIER, dataType.getValue(), index);
+    }
+
+    /**
+     * @return The number of commands in the batch.
+     */
+    public int getCommandCount() {
+        return mCommandCount;
+    }
+
+    /**
+     * Remove every command from the batch.
+     */
+    public void clear() {
+        mLength = 0;
+        mCommandCount = 0;
+    }
+
+    /**
+     * @return The framed commands, ready to be put in an intent.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mLength);
+    }
+
+    private void add(CommandType commandType, byte dataType, byte index, int... arguments) {
+        int commandLength = getCommandLength(arguments.length);
+        int required = mLength + 1 + commandLength;
+        if (required > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+        }
+
+        mBuffer[mLength++] = (byte) commandLength;
+        mLength = encode(mBuffer, mLength, commandType.getValue(), dataType, index, arguments);
+        mCommandCount++;
+    }
+
+    /**
+     * Write a single command in to {@code buffer} at {@code offset}, with its arguments as little
+     * endian 16 bit values.
+     * @return The offset after the command.
+     */
+    static int encode(byte[] buffer,
+                      int offset,
+                      byte command,
+                      byte dataType,
+                      byte index,
+                      int... arguments) {
+        buffer[offset++] = command;
+        buffer[offset++] = dataType;
+        buffer[offset++] = index;
+
+        for (int argument : arguments) {
+            buffer[offset++] = (byte) argument;
+            buffer[offset++] = (byte) (argument >> 8);
+        }
+
+        return offset;
+    }
+
+    /**
+     * @return The length of a single command with {@code argumentCount} arguments.
+     */
+    static int getCommandLength(int argumentCount) {
+        return COMMAND_HEADER_SIZE + 2 * argumentCount;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending {@link CommandResponse} to a command sent with one of the asynchronous command
+ * methods of {@link OpenSpatialService}. It completes when the device answers, or fails with a
+ * {@link TimeoutException} if it does not answer within
+ * {@link OpenSpatialService#setCommandTimeout(long)}.
+ */
+public class CommandFuture implements Future<CommandResponse> {
+
+    /**
+     * Notified when a {@link CommandFuture} completes, fails or is cancelled.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread responses are decoded on, or on the command timer thread when the
+         * command timed out.
+         * @param future The completed future. {@link #get()} returns without blocking.
+         */
+        void onCommandComplete(CommandFuture future);
+    }
+
+    private final CommandTracker mTracker;
+
+    // Used by CommandTracker while the command is outstanding
+    final int handle;
+    final int key;
+    final long sentTime;
+    final long deadline;
+    // Set once the tracker stopped waiting for the response. Guarded by the tracker.
+    boolean abandoned;
+
+    private CommandResponse mResponse;
+    private Throwable mFailure;
+    private boolean mCancelled;
+    private boolean mDone;
+    private Listener mListener;
+
+    CommandFuture(CommandTracker tracker, int handle, int key, long sentTime, long deadline) {
+        mTracker = tracker;
+        this.handle = handle;
+        this.key = key;
+        this.sentTime = sentTime;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Set the {@link Listener} notified when this future is done. If it is done already, the
+     * listener is called right away on this thread.
+     */
+    public void setListener(Listener listener) {
+        synchronized (this) {
+            if (!mDone) {
+                mListener = listener;
+                return;
+            }
+        }
+
+        if (listener != null) {
+            listener.onCommandComplete(this);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(null, null, true)) {
+            return false;
+        }
+
+        mTracker.remove(this);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return Whether the command failed because the device did not answer in time.
+     */
+    public synchronized boolean isTimedOut() {
+        return mFailure instanceof TimeoutException;
+    }
+
+    @Override
+    public synchronized CommandResponse get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+
+        return getResult();
+    }
+
+    @Override
+    public synchronized CommandResponse get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long end = System.nanoTime() + remaining;
+
+        while (!mDone) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = end - System.nanoTime();
+        }
+
+        return getResult();
+    }
+
+    // Must be called while holding the lock, once done
+    private CommandResponse getResult() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mFailure != null) {
+            throw new ExecutionException(mFailure);
+        }
+
+        return mResponse;
+    }
+
+    void complete(CommandResponse response) {
+        finish(response, null, false);
+    }
+
+    void fail(Throwable failure) {
+        finish(null, failure, false);
+    }
+
+    /**
+     * @return false if the future was already done.
+     */
+    private boolean finish(CommandResponse response, Throwable failure, boolean cancelled) {
+        Listener listener;
+
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+
+            mResponse = response;
+            mFailure = failure;
+            mCancelled = cancelled;
+            mDone = true;
+            listener = mListener;
+            mListener = null;
+            notifyAll();
+        }
+
+        if (listener != null) {
+            listener.onCommandComplete(this);
+        }
+
+        return true;
+    }
+}
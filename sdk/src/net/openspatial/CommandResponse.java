@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * The response to a command sent with one of the asynchronous command methods of
+ * {@link OpenSpatialService}, such as
+ * {@link OpenSpatialService#getParameterAsync(BluetoothDevice, DataType, DeviceParameter)}.
+ */
+public final class CommandResponse {
+    private final BluetoothDevice mDevice;
+    private final CommandType mCommandType;
+    private final DataType mDataType;
+    private final DeviceParameter mDeviceParameter;
+    private final byte mIndex;
+    private final ResponseCode mResponseCode;
+    private final short[] mValues;
+    private final String mIdentifier;
+
+    CommandResponse(BluetoothDevice device,
+                    CommandType commandType,
+                    DataType dataType,
+                    DeviceParameter deviceParameter,
+                    byte index,
+                    ResponseCode responseCode,
+                    short[] values,
+                    String identifier) {
+        mDevice = device;
+        mCommandType = commandType;
+        mDataType = dataType;
+        mDeviceParameter = deviceParameter;
+        mIndex = index;
+        mResponseCode = responseCode;
+        mValues = values;
+        mIdentifier = identifier;
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public CommandType getCommandType() {
+        return mCommandType;
+    }
+
+    public DataType getDataType() {
+        return mDataType;
+    }
+
+    /**
+     * @return The {@link DeviceParameter} of a parameter command, or null for
+     *         {@link CommandType#GET_IDENTIFIER}.
+     */
+    public DeviceParameter getDeviceParameter() {
+        return mDeviceParameter;
+    }
+
+    /**
+     * @return The index of the sensor of a {@link CommandType#GET_IDENTIFIER} command.
+     */
+    public byte getIndex() {
+        return mIndex;
+    }
+
+    public ResponseCode getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return The values reported by the device. For {@link CommandType#GET_PARAMETER_RANGE}
+     *         these are the minimum and the maximum.
+     */
+    public short[] getValues() {
+        return mValues;
+    }
+
+    /**
+     * @return The identifier reported for a {@link CommandType#GET_IDENTIFIER} command, or null.
+     */
+    public String getIdentifier() {
+        return mIdentifier;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandResponse{device=" + mDevice
+                + ", commandType=" + mCommandType
+                + ", dataType=" + mDataType
+                + ", deviceParameter=" + mDeviceParameter
+                + ", index=" + mIndex
+                + ", responseCode=" + mResponseCode
+                + ", identifier=" + mIdentifier
+                + "}";
+    }
+}
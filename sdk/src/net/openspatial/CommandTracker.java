@@ -0,0 +1,464 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches command responses to the {@link CommandFuture}s of the commands that asked for them,
+ * then passes the responses on to a downstream {@link OpenSpatialInterface}.
+ *
+ * Commands are keyed on their device handle, {@link CommandType}, {@link DataType} and
+ * {@link DeviceParameter} (or sensor index), so commands with different keys can be in flight at
+ * once. Commands with the same key are answered in the order they were sent. A single timer task,
+ * always scheduled for the earliest deadline, times out the commands that were not answered.
+ *
+ * A command that timed out or was cancelled stays in its queue as a tombstone, so that its late
+ * response is absorbed instead of completing the next command with the same key. A tombstone
+ * expires one timeout after the command's deadline, once its response is taken to be lost.
+ *
+ * Enable and disable responses update the {@link StreamSubscriptions} of their device.
+ */
+class CommandTracker implements OpenSpatialInterface {
+    private static final String TIMER_THREAD_NAME = "OpenSpatialCommandTimer";
+
+    static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+    private final DeviceRegistry mDevices;
+    private final StreamSubscriptions mStreams;
+    private volatile OpenSpatialInterface mDownstream;
+
+    // Everything below is guarded by this
+    private long mTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+
+    // Outstanding commands and tombstones by slot, in the order they were sent
+    private final HashMap<Long, ArrayDeque<CommandFuture>> mOutstanding =
+            new HashMap<Long, ArrayDeque<CommandFuture>>();
+    private volatile int mOutstandingCount;
+    private volatile int mTombstoneCount;
+
+    // Every outstanding command by deadline. Answered commands are dropped once they come up.
+    private final PriorityQueue<CommandFuture> mDeadlines =
+            new PriorityQueue<CommandFuture>(16, new Comparator<CommandFuture>() {
+                @Override
+                public int compare(CommandFuture a, CommandFuture b) {
+                    long difference = a.deadline - b.deadline;
+                    return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                }
+            });
+
+    private long mTimedOutCount;
+
+    private final LatencyHistogram mRoundTrips = new LatencyHistogram();
+
+    private ScheduledExecutorService mTimer;
+    private ScheduledFuture<?> mSweep;
+    private long mSweepDeadline;
+
+    private final Runnable mSweepTask = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+
+    CommandTracker(DeviceRegistry devices, StreamSubscriptions streams) {
+        mDevices = devices;
+        mStreams = streams;
+    }
+
+    void setDownstream(OpenSpatialInterface downstream) {
+        mDownstream = downstream;
+    }
+
+    synchronized void setTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid timeout " + timeoutMillis);
+        }
+
+        mTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        mStreams.setTimeout(mTimeoutNanos);
+    }
+
+    int getOutstandingCount() {
+        return mOutstandingCount;
+    }
+
+    /**
+     * @return The number of commands that were not answered in time.
+     */
+    synchronized long getTimedOutCount() {
+        return mTimedOutCount;
+    }
+
+    /**
+     * @return A copy of the times between sending a command and taking its response, or null if
+     *         no response was taken.
+     */
+    LatencyHistogram getRoundTrips() {
+        return mRoundTrips.copy();
+    }
+
+    synchronized void resetStats() {
+        mTimedOutCount = 0;
+        mRoundTrips.reset();
+    }
+
+    /**
+     * Start tracking a command that is about to be sent.
+     * @param parameter The {@link DeviceParameter} value, or the sensor index of a
+     *                  {@link CommandType#GET_IDENTIFIER} command.
+     */
+    synchronized CommandFuture track(int handle,
+                                     CommandType commandType,
+                                     DataType dataType,
+                                     byte parameter) {
+        int key = getKey(commandType, dataType, parameter);
+        long now = System.nanoTime();
+        CommandFuture future = new CommandFuture(this, handle, key, now, now + mTimeoutNanos);
+
+        Long slot = getSlot(handle, key);
+        ArrayDeque<CommandFuture> queue = mOutstanding.get(slot);
+        if (queue == null) {
+            queue = new ArrayDeque<CommandFuture>(2);
+            mOutstanding.put(slot, queue);
+        } else {
+            removeExpiredTombstones(queue, now);
+        }
+        queue.add(future);
+        mOutstandingCount++;
+
+        mDeadlines.add(future);
+        scheduleSweep();
+
+        return future;
+    }
+
+    /**
+     * Stop waiting for the response to a cancelled or timed out command, and keep its place in
+     * the queue as a tombstone.
+     */
+    synchronized void remove(CommandFuture future) {
+        ArrayDeque<CommandFuture> queue = mOutstanding.get(getSlot(future.handle, future.key));
+
+        if (queue != null && !future.abandoned && queue.contains(future)) {
+            future.abandoned = true;
+            mOutstandingCount--;
+            mTombstoneCount++;
+        }
+    }
+
+    // Must be called while holding the lock
+    private void removeExpiredTombstones(ArrayDeque<CommandFuture> queue, long now) {
+        Iterator<CommandFuture> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            CommandFuture future = iterator.next();
+            if (future.abandoned && future.deadline + mTimeoutNanos - now <= 0) {
+                iterator.remove();
+                mTombstoneCount--;
+            }
+        }
+    }
+
+    /**
+     * Cancel every outstanding command and stop the timer.
+     */
+    void shutdown() {
+        List<CommandFuture> outstanding = new ArrayList<CommandFuture>();
+
+        synchronized (this) {
+            for (ArrayDeque<CommandFuture> queue : mOutstanding.values()) {
+                outstanding.addAll(queue);
+            }
+            mOutstanding.clear();
+            mOutstandingCount = 0;
+            mTombstoneCount = 0;
+            mDeadlines.clear();
+
+            if (mTimer != null) {
+                mTimer.shutdownNow();
+                mTimer = null;
+                mSweep = null;
+            }
+        }
+
+        for (CommandFuture future : outstanding) {
+            future.cancel(false);
+        }
+    }
+
+    private static int getKey(CommandType commandType, DataType dataType, byte parameter) {
+        return (commandType.getValue() & 0xff) << 16
+                | (dataType.getValue() & 0xff) << 8
+                | (parameter & 0xff);
+    }
+
+    private static Long getSlot(int handle, int key) {
+        return ((long) handle << 32) | (key & 0xffffffffL);
+    }
+
+    /**
+     * @return The oldest outstanding command the response is for, or null if there is none or
+     *         the response is the late answer to a command that timed out or was cancelled.
+     */
+    private CommandFuture take(BluetoothDevice device,
+                               CommandType commandType,
+                               DataType dataType,
+                               byte parameter) {
+        if ((mOutstandingCount == 0 && mTombstoneCount == 0) || dataType == null) {
+            return null;
+        }
+
+        int handle = mDevices.getHandle(device);
+        if (handle == DeviceRegistry.NO_HANDLE) {
+            return null;
+        }
+
+        synchronized (this) {
+            Long slot = getSlot(handle, getKey(commandType, dataType, parameter));
+            ArrayDeque<CommandFuture> queue = mOutstanding.get(slot);
+            if (queue == null) {
+                return null;
+            }
+
+            long now = System.nanoTime();
+            removeExpiredTombstones(queue, now);
+
+            CommandFuture future = queue.poll();
+            if (queue.isEmpty()) {
+                mOutstanding.remove(slot);
+            }
+
+            if (future == null) {
+                return null;
+            }
+            if (future.abandoned) {
+                mTombstoneCount--;
+                return null;
+            }
+
+            mOutstandingCount--;
+            mRoundTrips.record(now - future.sentTime);
+
+            return future;
+        }
+    }
+
+    // Must be called while holding the lock
+    private void scheduleSweep() {
+        CommandFuture earliest = mDeadlines.peek();
+        if (earliest == null) {
+            return;
+        }
+
+        if (mSweep != null) {
+            if (mSweepDeadline - earliest.deadline <= 0) {
+                return;
+            }
+            mSweep.cancel(false);
+        }
+
+        if (mTimer == null) {
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TIMER_THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        mSweepDeadline = earliest.deadline;
+        mSweep = mTimer.schedule(mSweepTask,
+                Math.max(0, earliest.deadline - System.nanoTime()),
+                TimeUnit.NANOSECONDS);
+    }
+
+    private void sweep() {
+        List<CommandFuture> expired = new ArrayList<CommandFuture>();
+
+        synchronized (this) {
+            mSweep = null;
+            long now = System.nanoTime();
+
+            CommandFuture future;
+            while ((future = mDeadlines.peek()) != null) {
+                if (future.isDone()) {
+                    mDeadlines.poll();
+                } else if (future.deadline - now <= 0) {
+                    mDeadlines.poll();
+                    remove(future);
+                    expired.add(future);
+                    mTimedOutCount++;
+                } else {
+                    break;
+                }
+            }
+
+            scheduleSweep();
+        }
+
+        for (CommandFuture future : expired) {
+            future.fail(new TimeoutException("No response within the command timeout"));
+        }
+    }
+
+    @Override
+    public void onDeviceConnected(BluetoothDevice device) {
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onDeviceConnected(device);
+        }
+    }
+
+    @Override
+    public void onDeviceDisconnected(BluetoothDevice device) {
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onDeviceDisconnected(device);
+        }
+    }
+
+    @Override
+    public void onGetParameterResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       DeviceParameter deviceParameter,
+                                       ResponseCode responseCode,
+                                       short[] values) {
+        CommandFuture future =
+                take(device, CommandType.GET_PARAMETER, dataType, deviceParameter.getValue());
+        if (future != null) {
+            future.complete(new CommandResponse(device, CommandType.GET_PARAMETER, dataType,
+                    deviceParameter, (byte) 0, responseCode, values, null));
+        }
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onGetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+    }
+
+    @Override
+    public void onSetParameterResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       DeviceParameter deviceParameter,
+                                       ResponseCode responseCode,
+                                       short[] values) {
+        CommandFuture future =
+                take(device, CommandType.SET_PARAMETER, dataType, deviceParameter.getValue());
+        if (future != null) {
+            future.complete(new CommandResponse(device, CommandType.SET_PARAMETER, dataType,
+                    deviceParameter, (byte) 0, responseCode, values, null));
+        }
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onSetParameterResponse(device, dataType, deviceParameter, responseCode,
+                    values);
+        }
+    }
+
+    @Override
+    public void onGetIdentifierResponse(BluetoothDevice device,
+                                        DataType dataType,
+                                        byte index,
+                                        ResponseCode responseCode,
+                                        String identifier) {
+        CommandFuture future = take(device, CommandType.GET_IDENTIFIER, dataType, index);
+        if (future != null) {
+            future.complete(new CommandResponse(device, CommandType.GET_IDENTIFIER, dataType,
+                    null, index, responseCode, new short[0], identifier));
+        }
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onGetIdentifierResponse(device, dataType, index, responseCode, identifier);
+        }
+    }
+
+    @Override
+    public void onGetParameterRangeResponse(BluetoothDevice device,
+                                            DataType dataType,
+                                            DeviceParameter deviceParameter,
+                                            ResponseCode responseCode,
+                                            Number low,
+                                            Number high) {
+        CommandFuture future = take(device, CommandType.GET_PARAMETER_RANGE, dataType,
+                deviceParameter.getValue());
+        if (future != null) {
+            short[] values = new short[] {low.shortValue(), high.shortValue()};
+            future.complete(new CommandResponse(device, CommandType.GET_PARAMETER_RANGE, dataType,
+                    deviceParameter, (byte) 0, responseCode, values, null));
+        }
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onGetParameterRangeResponse(device, dataType, deviceParameter,
+                    responseCode, low, high);
+        }
+    }
+
+    @Override
+    public void onDataEnabledResponse(BluetoothDevice device,
+                                      DataType dataType,
+                                      ResponseCode responseCode) {
+        mStreams.onEnableResponse(mDevices.getHandle(device), dataType,
+                responseCode == ResponseCode.OK);
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onDataEnabledResponse(device, dataType, responseCode);
+        }
+    }
+
+    @Override
+    public void onDataDisabledResponse(BluetoothDevice device,
+                                       DataType dataType,
+                                       ResponseCode responseCode) {
+        mStreams.onDisableResponse(mDevices.getHandle(device), dataType,
+                responseCode == ResponseCode.OK);
+
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onDataDisabledResponse(device, dataType, responseCode);
+        }
+    }
+
+    @Override
+    public void onDataReceived(OpenSpatialData data) {
+        OpenSpatialInterface downstream = mDownstream;
+        if (downstream != null) {
+            downstream.onDataReceived(data);
+        }
+    }
+}
@@ -15,9 +15,6 @@
  */
 package net.openspatial;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Possible commands that can be issued to OpenSpatial devices.
  */
@@ -63,11 +60,12 @@ public enum CommandType {
      */
     protected byte getValue() { return id; }
 
-    private static Map<Byte, CommandType> map = new HashMap<Byte, CommandType>();
+    // Indexed by the unsigned value of the tag byte
+    private static final CommandType[] LOOKUP = new CommandType[256];
 
     static {
         for (CommandType type : CommandType.values()) {
-            map.put(type.id, type);
+            LOOKUP[type.id & 0xff] = type;
         }
     }
 
@@ -77,6 +75,6 @@ public enum CommandType {
      * @return a {@code CommandType} value that has a tag value equal to {@code id}
      */
     protected static CommandType valueOf(byte id) {
-        return map.get(id);
+        return LOOKUP[id & 0xff];
     }
 }
@@ -21,18 +21,33 @@ import android.bluetooth.BluetoothDevice;
 import java.util.Arrays;
 
 /**
- * Contains raw compass LSB readings. Use the FSR value obtained from
- * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)} to convert
- * the values in to units of uT.
+ * Contains raw compass LSB readings. The {@code InMicroTesla} accessors convert the values in to
+ * units of uT using the FSR the device reported through
+ * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)}.
  */
 public class CompassData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code CompassData} of the devices it is registered for with
+     * {@link OpenSpatialService#addCompassListener(BluetoothDevice, CompassData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code CompassData} received.
+         * @param data The {@code CompassData} received.
+         */
+        void onCompassData(CompassData data);
+    }
+
     private final short[] compassData;
 
+    private float microTeslaPerLsb = UnitConverter.DEFAULT_COMPASS_SCALE;
+
     /**
      * @return A compass reading in the x axis (in uT)
      */
     public short getX() {
+        checkNotReleased();
         return compassData[X];
     }
 
@@ -40,6 +55,7 @@ public class CompassData extends OpenSpatialData {
      * @return A compass reading in the y axis (in uT)
      */
     public short getY() {
+        checkNotReleased();
         return compassData[Y];
     }
 
@@ -47,6 +63,7 @@ public class CompassData extends OpenSpatialData {
      * @return A compass reading in the z axis (in uT)
      */
     public short getZ() {
+        checkNotReleased();
         return compassData[Z];
     }
 
@@ -60,6 +77,47 @@ public class CompassData extends OpenSpatialData {
         this.compassData = compassData;
     }
 
+    /**
+     * @return Compass reading in the x axis in uT.
+     */
+    public float getXInMicroTesla() {
+        checkNotReleased();
+        return compassData[X] * microTeslaPerLsb;
+    }
+
+    /**
+     * @return Compass reading in the y axis in uT.
+     */
+    public float getYInMicroTesla() {
+        checkNotReleased();
+        return compassData[Y] * microTeslaPerLsb;
+    }
+
+    /**
+     * @return Compass reading in the z axis in uT.
+     */
+    public float getZInMicroTesla() {
+        checkNotReleased();
+        return compassData[Z] * microTeslaPerLsb;
+    }
+
+    /**
+     * @return The number of uT per LSB used by the unit accessors.
+     */
+    public float getScale() {
+        return microTeslaPerLsb;
+    }
+
+    void setScale(float scale) {
+        microTeslaPerLsb = scale;
+    }
+
+    void set(short x, short y, short z) {
+        compassData[X] = x;
+        compassData[Y] = y;
+        compassData[Z] = z;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.util.Arrays;
+
+/**
+ * Packs many OpenSpatial data packets of one device in to a single
+ * {@link OpenSpatialConstants#OPENSPATIAL_DATA_INTENT_ACTION} intent, so that a burst of BLE
+ * notifications costs one broadcast instead of one per packet.
+ *
+ * The envelope is sent in the {@link OpenSpatialConstants#OPENSPATIAL_DATA_ENVELOPE} extra in
+ * place of {@link OpenSpatialConstants#OPENSPATIAL_DATA}. It is a sequence of entries, each made
+ * of a little endian 16 bit packet length, the little endian 64 bit time the packet was captured
+ * in the time base of {@code System.currentTimeMillis()}, the little endian 64 bit time it was
+ * captured in the time base of {@code System.nanoTime()}, and the packet bytes themselves. Only
+ * the monotonic time is used to time arrivals, so that wall clock adjustments do not look like
+ * gaps in the stream.
+ */
+public final class DataEnvelope {
+
+    private static final int LENGTH_SIZE = 2;
+    private static final int TIMESTAMP_SIZE = 8;
+    private static final int HEADER_SIZE = LENGTH_SIZE + 2 * TIMESTAMP_SIZE;
+
+    /**
+     * The largest packet an entry can hold.
+     */
+    public static final int MAX_PACKET_LENGTH = 0xffff;
+
+    private DataEnvelope() {
+    }
+
+    /**
+     * Builds an envelope one packet at a time. A writer can be reused after
+     * {@link #reset()}.
+     */
+    public static final class Writer {
+        private byte[] mBuffer;
+        private int mLength;
+        private int mPacketCount;
+
+        /**
+         * @param capacity The initial size of the envelope in bytes. The writer grows as needed.
+         */
+        public Writer(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("Negative capacity!");
+            }
+
+            mBuffer = new byte[capacity];
+        }
+
+        /**
+         * Append a packet to the envelope.
+         * @param packet The bytes holding the packet.
+         * @param offset The offset of the packet in {@code packet}.
+         * @param length The length of the packet.
+         * @param timestamp The time the packet was captured, in the time base of
+         *                  {@code System.currentTimeMillis()}.
+         * @param captureNanos The time the packet was captured, in the time base of
+         *                     {@code System.nanoTime()}, or 0 if unknown.
+         */
+        public void add(byte[] packet, int offset, int length, long timestamp, long captureNanos) {
+            if (packet == null) {
+                throw new IllegalArgumentException("Null packet!");
+            }
+            if (offset < 0 || length < 0 || offset + length > packet.length) {
+                throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+            }
+            if (length > MAX_PACKET_LENGTH) {
+                throw new IllegalArgumentException("Packet too long: " + length);
+            }
+
+            int required = mLength + HEADER_SIZE + length;
+            if (required > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+            }
+
+            mBuffer[mLength++] = (byte) length;
+            mBuffer[mLength++] = (byte) (length >> 8);
+            for (int i = 0; i < TIMESTAMP_SIZE; i++) {
+                mBuffer[mLength++] = (byte) (timestamp >> (8 * i));
+            }
+            for (int i = 0; i < TIMESTAMP_SIZE; i++) {
+                mBuffer[mLength++] = (byte) (captureNanos >> (8 * i));
+            }
+
+            System.arraycopy(packet, offset, mBuffer, mLength, length);
+            mLength += length;
+            mPacketCount++;
+        }
+
+        /**
+         * @return The number of packets added since the last {@link #reset()}.
+         */
+        public int getPacketCount() {
+            return mPacketCount;
+        }
+
+        /**
+         * @return The size of the envelope in bytes.
+         */
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return A copy of the envelope, ready to be put in an intent.
+         */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mLength);
+        }
+
+        /**
+         * Empty the envelope, keeping its buffer.
+         */
+        public void reset() {
+            mLength = 0;
+            mPacketCount = 0;
+        }
+    }
+
+    /**
+     * Pass every packet of {@code envelope} to {@code reader}, in place.
+     * @return Whether the envelope was well formed. The packets before a truncated entry are
+     *         still read.
+     */
+    static boolean read(byte[] envelope, PacketRing.Reader reader) {
+        int offset = 0;
+
+        while (offset < envelope.length) {
+            if (offset + HEADER_SIZE > envelope.length) {
+                return false;
+            }
+
+            int length = getPacketLength(envelope, offset);
+            long timestamp = getLong(envelope, offset + LENGTH_SIZE);
+            long captureNanos = getLong(envelope, offset + LENGTH_SIZE + TIMESTAMP_SIZE);
+            offset += HEADER_SIZE;
+
+            if (offset + length > envelope.length) {
+                return false;
+            }
+
+            reader.onPacket(envelope, offset, length, timestamp, captureNanos);
+            offset += length;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The length of the packet whose entry starts at {@code offset}.
+     */
+    private static int getPacketLength(byte[] envelope, int offset) {
+        return (envelope[offset] & 0xff) | ((envelope[offset + 1] & 0xff) << 8);
+    }
+
+    /**
+     * @return The little endian time starting at {@code offset}.
+     */
+    private static long getLong(byte[] envelope, int offset) {
+        long value = 0;
+        for (int i = TIMESTAMP_SIZE - 1; i >= 0; i--) {
+            value = (value << 8) | (envelope[offset + i] & 0xff);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Arrays;
+
+/**
+ * Holds the typed data listeners registered with {@link OpenSpatialService}, per device handle
+ * (see {@link DeviceRegistry}) and {@link DataType}. Listeners registered without a device receive
+ * the data of every device.
+ *
+ * The listeners of each device are kept in arrays indexed by {@link DataType} ordinal which are
+ * replaced on every change, so dispatching never needs a lock.
+ */
+class DataListenerRegistry {
+
+    private static final int DATA_TYPE_COUNT = DataType.values().length;
+
+    static class Entry {
+        private volatile Object[][] mListeners = new Object[DATA_TYPE_COUNT][];
+
+        /**
+         * @return Whether any listener is registered for {@code dataType}.
+         */
+        boolean hasListeners(DataType dataType) {
+            return mListeners[dataType.ordinal()] != null;
+        }
+
+        /**
+         * @return The number of listeners registered for {@code dataType}.
+         */
+        int getListenerCount(DataType dataType) {
+            Object[] listeners = mListeners[dataType.ordinal()];
+            return listeners != null ? listeners.length : 0;
+        }
+
+        /**
+         * Pass {@code data} to every listener registered for its {@link DataType}.
+         */
+        void dispatch(OpenSpatialData data) {
+            Object[] listeners = mListeners[data.dataType.ordinal()];
+            if (listeners == null) {
+                return;
+            }
+
+            switch (data.dataType) {
+                case RAW_ACCELEROMETER:
+                    for (Object listener : listeners) {
+                        ((AccelerometerData.Listener) listener)
+                                .onAccelerometerData((AccelerometerData) data);
+                    }
+                    break;
+                case RAW_GYRO:
+                    for (Object listener : listeners) {
+                        ((GyroscopeData.Listener) listener).onGyroscopeData((GyroscopeData) data);
+                    }
+                    break;
+                case RAW_COMPASS:
+                    for (Object listener : listeners) {
+                        ((CompassData.Listener) listener).onCompassData((CompassData) data);
+                    }
+                    break;
+                case EULER_ANGLES:
+                    for (Object listener : listeners) {
+                        ((EulerData.Listener) listener).onEulerData((EulerData) data);
+                    }
+                    break;
+                case TRANSLATIONS:
+                    for (Object listener : listeners) {
+                        ((TranslationData.Listener) listener)
+                                .onTranslationData((TranslationData) data);
+                    }
+                    break;
+                case RELATIVE_XY:
+                    for (Object listener : listeners) {
+                        ((RelativeXYData.Listener) listener)
+                                .onRelativeXYData((RelativeXYData) data);
+                    }
+                    break;
+                case ANALOG:
+                    for (Object listener : listeners) {
+                        ((AnalogData.Listener) listener).onAnalogData((AnalogData) data);
+                    }
+                    break;
+                case BUTTON:
+                    for (Object listener : listeners) {
+                        ((ButtonData.Listener) listener).onButtonData((ButtonData) data);
+                    }
+                    break;
+                case GESTURE:
+                    for (Object listener : listeners) {
+                        ((GestureData.Listener) listener).onGestureData((GestureData) data);
+                    }
+                    break;
+                case SLIDER:
+                    for (Object listener : listeners) {
+                        ((SliderData.Listener) listener).onSliderData((SliderData) data);
+                    }
+                    break;
+            }
+        }
+
+        // Must only be called while holding the registry lock
+        private void add(DataType dataType, Object listener) {
+            Object[][] listeners = mListeners.clone();
+            Object[] current = listeners[dataType.ordinal()];
+
+            if (current == null) {
+                listeners[dataType.ordinal()] = new Object[] {listener};
+            } else {
+                for (Object l : current) {
+                    if (l == listener) {
+                        return;
+                    }
+                }
+
+                Object[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = listener;
+                listeners[dataType.ordinal()] = updated;
+            }
+
+            mListeners = listeners;
+        }
+
+        // Must only be called while holding the registry lock
+        private boolean remove(DataType dataType, Object listener) {
+            Object[] current = mListeners[dataType.ordinal()];
+            if (current == null) {
+                return false;
+            }
+
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    Object[][] listeners = mListeners.clone();
+
+                    if (current.length == 1) {
+                        listeners[dataType.ordinal()] = null;
+                    } else {
+                        Object[] updated = new Object[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        listeners[dataType.ordinal()] = updated;
+                    }
+
+                    mListeners = listeners;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean isEmpty() {
+            for (Object[] listeners : mListeners) {
+                if (listeners != null) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private final DeviceRegistry mDevices;
+    private final HandleMap<Entry> mEntries = new HandleMap<Entry>();
+    private final Entry mAnyDevice = new Entry();
+    private volatile boolean mEmpty = true;
+
+    DataListenerRegistry(DeviceRegistry devices) {
+        mDevices = devices;
+    }
+
+    /**
+     * @return The listeners registered for every device.
+     */
+    Entry getAnyDeviceEntry() {
+        return mAnyDevice;
+    }
+
+    /**
+     * @return The listeners registered for the device with {@code handle}. Never null.
+     */
+    Entry getEntry(int handle) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            synchronized (this) {
+                entry = mEntries.get(handle);
+                if (entry == null) {
+                    entry = new Entry();
+                    mEntries.put(handle, entry);
+                }
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return Whether no listener is registered at all.
+     */
+    boolean isEmpty() {
+        return mEmpty;
+    }
+
+    synchronized void add(BluetoothDevice device, DataType dataType, Object listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener!");
+        }
+
+        Entry entry = device != null ? getEntry(mDevices.obtainHandle(device)) : mAnyDevice;
+        entry.add(dataType, listener);
+        mEmpty = false;
+    }
+
+    synchronized boolean remove(BluetoothDevice device, DataType dataType, Object listener) {
+        Entry entry = device != null ? mEntries.get(mDevices.getHandle(device)) : mAnyDevice;
+        if (entry == null || !entry.remove(dataType, listener)) {
+            return false;
+        }
+
+        boolean empty = mAnyDevice.isEmpty();
+        for (int handle = 0; handle < mEntries.size(); handle++) {
+            Entry e = mEntries.get(handle);
+            empty &= e == null || e.isEmpty();
+        }
+        mEmpty = empty;
+
+        return true;
+    }
+}
@@ -16,9 +16,6 @@
 
 package net.openspatial;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Describes all available types of OpenSpatial data.
  */
@@ -46,11 +43,12 @@ public enum DataType {
      */
     public byte getValue() { return id; }
 
-    private static Map<Byte, DataType> map = new HashMap<Byte, DataType>();
+    // Indexed by the unsigned value of the tag byte
+    private static final DataType[] LOOKUP = new DataType[256];
 
     static {
         for (DataType type : DataType.values()) {
-            map.put(type.id, type);
+            LOOKUP[type.id & 0xff] = type;
         }
     }
 
@@ -60,6 +58,6 @@ public enum DataType {
      * @return a {@code DataType} value that has a tag value equal to {@code id}
      */
     public static DataType valueOf(byte id) {
-        return map.get(id);
+        return LOOKUP[id & 0xff];
     }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+/**
+ * Counts the packets decoded by an {@link OpenSpatialEventFactory} and the malformed input it ran
+ * in to. Malformed data is counted here rather than logged so that bursts of bad packets stay
+ * cheap to handle.
+ */
+public class DecodeStats {
+    private long mPackets;
+    private long mRecords;
+    private long mTruncatedRecords;
+    private long mUnknownDataTypes;
+    private long mResponses;
+    private long mMalformedResponses;
+    private long mEnvelopes;
+    private long mMalformedEnvelopes;
+
+    /**
+     * @return The number of data packets decoded.
+     */
+    public synchronized long getPacketCount() {
+        return mPackets;
+    }
+
+    /**
+     * @return The number of data records decoded.
+     */
+    public synchronized long getRecordCount() {
+        return mRecords;
+    }
+
+    /**
+     * @return The number of data records that were cut short by the end of their packet. The rest
+     * of such a packet is dropped.
+     */
+    public synchronized long getTruncatedRecordCount() {
+        return mTruncatedRecords;
+    }
+
+    /**
+     * @return The number of data type bytes that did not name a data record and were skipped, and
+     * of identifier responses for an unknown data type.
+     */
+    public synchronized long getUnknownDataTypeCount() {
+        return mUnknownDataTypes;
+    }
+
+    /**
+     * @return The number of command responses decoded, including malformed ones.
+     */
+    public synchronized long getResponseCount() {
+        return mResponses;
+    }
+
+    /**
+     * @return The number of command responses that were dropped because they were too short or
+     * held an unknown value.
+     */
+    public synchronized long getMalformedResponseCount() {
+        return mMalformedResponses;
+    }
+
+    /**
+     * @return The number of {@link DataEnvelope}s decoded, including malformed ones. Every packet
+     * of an envelope is also counted by {@link #getPacketCount()}.
+     */
+    public synchronized long getEnvelopeCount() {
+        return mEnvelopes;
+    }
+
+    /**
+     * @return The number of {@link DataEnvelope}s whose last entry ran past the end of the
+     * envelope. The packets before it are still decoded.
+     */
+    public synchronized long getMalformedEnvelopeCount() {
+        return mMalformedEnvelopes;
+    }
+
+    /**
+     * Reset all counters to zero.
+     */
+    public synchronized void reset() {
+        mPackets = 0;
+        mRecords = 0;
+        mTruncatedRecords = 0;
+        mUnknownDataTypes = 0;
+        mResponses = 0;
+        mMalformedResponses = 0;
+        mEnvelopes = 0;
+        mMalformedEnvelopes = 0;
+    }
+
+    synchronized void onPacket(int records, boolean truncated, int unknownDataTypes) {
+        mPackets++;
+        mRecords += records;
+        if (truncated) {
+            mTruncatedRecords++;
+        }
+        mUnknownDataTypes += unknownDataTypes;
+    }
+
+    synchronized void onUnknownDataType() {
+        mUnknownDataTypes++;
+    }
+
+    synchronized void onResponse(boolean malformed) {
+        mResponses++;
+        if (malformed) {
+            mMalformedResponses++;
+        }
+    }
+
+    synchronized void onEnvelope(boolean malformed) {
+        mEnvelopes++;
+        if (malformed) {
+            mMalformedEnvelopes++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodeStats: packets=" + mPackets
+                + ", records=" + mRecords
+                + ", truncatedRecords=" + mTruncatedRecords
+                + ", unknownDataTypes=" + mUnknownDataTypes
+                + ", responses=" + mResponses
+                + ", malformedResponses=" + mMalformedResponses
+                + ", envelopes=" + mEnvelopes
+                + ", malformedEnvelopes=" + mMalformedEnvelopes;
+    }
+}
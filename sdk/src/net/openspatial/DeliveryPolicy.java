@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+/**
+ * How the {@link OpenSpatialService} delivers the records of a {@link DataType} to
+ * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}.
+ *
+ * @see OpenSpatialService#setDeliveryPolicy(DataType, DeliveryPolicy)
+ */
+public enum DeliveryPolicy {
+    /**
+     * Deliver every record as soon as it is decoded. This is the default for all
+     * {@link DataType}s.
+     */
+    IMMEDIATE,
+
+    /**
+     * Hold every record and deliver them in the order they were received the next time
+     * {@link OpenSpatialService#deliverPendingData()} is called. At most 4096 records of all
+     * queued types and devices are held between two calls; later records are dropped and counted
+     * in {@link ServiceStats#getDroppedRecordCount()}.
+     */
+    QUEUE,
+
+    /**
+     * Keep only the latest record of each device and deliver it the next time
+     * {@link OpenSpatialService#deliverPendingData()} is called. {@link DataType#RELATIVE_XY}
+     * records are summed instead so that no motion is lost. Discrete data types
+     * ({@link DataType#BUTTON}, {@link DataType#GESTURE} and {@link DataType#SLIDER}) cannot be
+     * conflated.
+     */
+    CONFLATE
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Arrays;
+
+/**
+ * An {@link OpenSpatialDataVisitor} that applies a {@link DeliveryPolicy} to each
+ * {@link DataType}. Records of {@link DeliveryPolicy#IMMEDIATE} types are passed downstream right
+ * away; the others are held until {@link #deliverPending(OpenSpatialDataVisitor)} is called,
+ * typically once per rendered frame.
+ *
+ * Records are visited on the decoding thread and delivered on the ticking thread. Pending values
+ * are double buffered so that delivery never holds the lock while calling out.
+ */
+class DeliveryScheduler implements OpenSpatialDataVisitor {
+
+    private final DeliveryPolicy[] mPolicies = new DeliveryPolicy[PackedRecords.DATA_TYPES.length];
+    private volatile boolean mDeferring;
+
+    private OpenSpatialDataVisitor mDownstream;
+
+    // Conflated values of one device
+    private static class Slot {
+        SensorFrame pending = new SensorFrame();
+        SensorFrame delivering = new SensorFrame();
+    }
+
+    private final DeviceRegistry mDevices;
+    private final HandleMap<Slot> mSlots = new HandleMap<Slot>();
+    // Copied on write so that delivery can walk it without the lock
+    private Slot[] mSlotArray = new Slot[0];
+
+    /**
+     * The number of records held for {@link DeliveryPolicy#QUEUE}d types between two calls of
+     * {@link #deliverPending(OpenSpatialDataVisitor)}. Records arriving while the queue is full
+     * are dropped, so that an app which stops ticking does not run out of memory.
+     */
+    static final int MAX_QUEUED_RECORDS = 4096;
+
+    private RecordQueue mQueue = new RecordQueue();
+    private RecordQueue mDeliveringQueue = new RecordQueue();
+
+    private final Object mDeliverLock = new Object();
+
+    // Guarded by this
+    private long mConflatedCount;
+    private long mDroppedCount;
+
+    DeliveryScheduler(DeviceRegistry devices) {
+        mDevices = devices;
+        Arrays.fill(mPolicies, DeliveryPolicy.IMMEDIATE);
+    }
+
+    synchronized void setPolicy(DataType dataType, DeliveryPolicy policy) {
+        if (policy == DeliveryPolicy.CONFLATE) {
+            switch (dataType) {
+                case BUTTON:
+                case GESTURE:
+                case SLIDER:
+                    throw new IllegalArgumentException(dataType + " cannot be conflated!");
+            }
+        }
+
+        mPolicies[dataType.ordinal()] = policy;
+
+        boolean deferring = false;
+        for (DeliveryPolicy p : mPolicies) {
+            deferring |= p != DeliveryPolicy.IMMEDIATE;
+        }
+        mDeferring = deferring;
+    }
+
+    DeliveryPolicy getPolicy(DataType dataType) {
+        return mPolicies[dataType.ordinal()];
+    }
+
+    /**
+     * @return Whether any {@link DataType} is not delivered immediately.
+     */
+    boolean isDeferring() {
+        return mDeferring;
+    }
+
+    /**
+     * @return The number of records merged into a value that was still waiting to be delivered.
+     */
+    synchronized long getConflatedCount() {
+        return mConflatedCount;
+    }
+
+    synchronized void resetConflatedCount() {
+        mConflatedCount = 0;
+    }
+
+    /**
+     * @return The number of {@link DeliveryPolicy#QUEUE}d records dropped because
+     *         {@link #MAX_QUEUED_RECORDS} records were already waiting to be delivered.
+     */
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    synchronized void resetDroppedCount() {
+        mDroppedCount = 0;
+    }
+
+    void setDownstream(OpenSpatialDataVisitor downstream) {
+        mDownstream = downstream;
+    }
+
+    /**
+     * Deliver every queued record in order, followed by the conflated values of each device.
+     * @param target The visitor to deliver to.
+     */
+    void deliverPending(OpenSpatialDataVisitor target) {
+        synchronized (mDeliverLock) {
+            RecordQueue queue;
+            Slot[] slots;
+
+            synchronized (this) {
+                queue = mQueue;
+                mQueue = mDeliveringQueue;
+                mDeliveringQueue = queue;
+
+                slots = mSlotArray;
+                for (Slot slot : slots) {
+                    SensorFrame frame = slot.pending;
+                    slot.pending = slot.delivering;
+                    slot.delivering = frame;
+                }
+            }
+
+            try {
+                queue.deliver(target);
+            } finally {
+                queue.clear();
+            }
+
+            for (Slot slot : slots) {
+                try {
+                    deliverFrame(slot.delivering, target);
+                } finally {
+                    slot.delivering.clear();
+                }
+            }
+        }
+    }
+
+    private static void deliverFrame(SensorFrame frame, OpenSpatialDataVisitor target) {
+        if (frame.isEmpty()) {
+            return;
+        }
+
+        BluetoothDevice device = frame.getDevice();
+
+        if (frame.contains(DataType.RAW_ACCELEROMETER)) {
+            target.onAccel(device, frame.accel[0], frame.accel[1], frame.accel[2]);
+        }
+        if (frame.contains(DataType.RAW_GYRO)) {
+            target.onGyro(device, frame.gyro[0], frame.gyro[1], frame.gyro[2]);
+        }
+        if (frame.contains(DataType.RAW_COMPASS)) {
+            target.onCompass(device, frame.compass[0], frame.compass[1], frame.compass[2]);
+        }
+        if (frame.contains(DataType.EULER_ANGLES)) {
+            target.onEuler(device, frame.euler[0], frame.euler[1], frame.euler[2]);
+        }
+        if (frame.contains(DataType.TRANSLATIONS)) {
+            target.onTranslation(device,
+                    frame.translation[0],
+                    frame.translation[1],
+                    frame.translation[2]);
+        }
+        if (frame.contains(DataType.RELATIVE_XY)) {
+            target.onRelativeXY(device, frame.relativeXY[0], frame.relativeXY[1]);
+        }
+        if (frame.contains(DataType.ANALOG)) {
+            target.onAnalog(device, frame.analog[0], frame.analog[1], frame.analog[2]);
+        }
+    }
+
+    // Must only be called while holding the lock
+    private SensorFrame getPendingFrame(BluetoothDevice device) {
+        int handle = mDevices.obtainHandle(device);
+
+        Slot slot = mSlots.get(handle);
+        if (slot == null) {
+            slot = new Slot();
+            slot.pending.setDevice(device);
+            slot.delivering.setDevice(device);
+            mSlots.put(handle, slot);
+
+            Slot[] slots = Arrays.copyOf(mSlotArray, mSlotArray.length + 1);
+            slots[slots.length - 1] = slot;
+            mSlotArray = slots;
+        }
+
+        return slot.pending;
+    }
+
+    private synchronized void enqueue(BluetoothDevice device,
+                                      DataType dataType,
+                                      int value0,
+                                      int value1,
+                                      int value2) {
+        if (!mQueue.add(device, dataType, value0, value1, value2)) {
+            mDroppedCount++;
+        }
+    }
+
+    @Override
+    public void onAccel(BluetoothDevice device, short x, short y, short z) {
+        switch (getPolicy(DataType.RAW_ACCELEROMETER)) {
+            case IMMEDIATE:
+                mDownstream.onAccel(device, x, y, z);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.RAW_ACCELEROMETER, x, y, z);
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.RAW_ACCELEROMETER)) {
+                        mConflatedCount++;
+                    }
+                    frame.accel[0] = x;
+                    frame.accel[1] = y;
+                    frame.accel[2] = z;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onGyro(BluetoothDevice device, short x, short y, short z) {
+        switch (getPolicy(DataType.RAW_GYRO)) {
+            case IMMEDIATE:
+                mDownstream.onGyro(device, x, y, z);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.RAW_GYRO, x, y, z);
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.RAW_GYRO)) {
+                        mConflatedCount++;
+                    }
+                    frame.gyro[0] = x;
+                    frame.gyro[1] = y;
+                    frame.gyro[2] = z;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onCompass(BluetoothDevice device, short x, short y, short z) {
+        switch (getPolicy(DataType.RAW_COMPASS)) {
+            case IMMEDIATE:
+                mDownstream.onCompass(device, x, y, z);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.RAW_COMPASS, x, y, z);
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.RAW_COMPASS)) {
+                        mConflatedCount++;
+                    }
+                    frame.compass[0] = x;
+                    frame.compass[1] = y;
+                    frame.compass[2] = z;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+        switch (getPolicy(DataType.EULER_ANGLES)) {
+            case IMMEDIATE:
+                mDownstream.onEuler(device, roll, pitch, yaw);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.EULER_ANGLES,
+                        PackedRecords.packFloat(roll),
+                        PackedRecords.packFloat(pitch),
+                        PackedRecords.packFloat(yaw));
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.EULER_ANGLES)) {
+                        mConflatedCount++;
+                    }
+                    frame.euler[0] = roll;
+                    frame.euler[1] = pitch;
+                    frame.euler[2] = yaw;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+        switch (getPolicy(DataType.TRANSLATIONS)) {
+            case IMMEDIATE:
+                mDownstream.onTranslation(device, x, y, z);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.TRANSLATIONS,
+                        PackedRecords.packFloat(x),
+                        PackedRecords.packFloat(y),
+                        PackedRecords.packFloat(z));
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.TRANSLATIONS)) {
+                        mConflatedCount++;
+                    }
+                    frame.translation[0] = x;
+                    frame.translation[1] = y;
+                    frame.translation[2] = z;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onRelativeXY(BluetoothDevice device, int x, int y) {
+        switch (getPolicy(DataType.RELATIVE_XY)) {
+            case IMMEDIATE:
+                mDownstream.onRelativeXY(device, x, y);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.RELATIVE_XY, x, y, 0);
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+
+                    // Relative motion is summed rather than replaced so that none is lost
+                    if (frame.add(DataType.RELATIVE_XY)) {
+                        frame.relativeXY[0] = x;
+                        frame.relativeXY[1] = y;
+                    } else {
+                        frame.relativeXY[0] += x;
+                        frame.relativeXY[1] += y;
+                        mConflatedCount++;
+                    }
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onAnalog(BluetoothDevice device, int value0, int value1, int value2) {
+        switch (getPolicy(DataType.ANALOG)) {
+            case IMMEDIATE:
+                mDownstream.onAnalog(device, value0, value1, value2);
+                break;
+            case QUEUE:
+                enqueue(device, DataType.ANALOG, value0, value1, value2);
+                break;
+            case CONFLATE:
+                synchronized (this) {
+                    SensorFrame frame = getPendingFrame(device);
+                    if (!frame.add(DataType.ANALOG)) {
+                        mConflatedCount++;
+                    }
+                    frame.analog[0] = value0;
+                    frame.analog[1] = value1;
+                    frame.analog[2] = value2;
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+        if (getPolicy(DataType.BUTTON) == DeliveryPolicy.IMMEDIATE) {
+            mDownstream.onButton(device, buttonId, buttonState);
+        } else {
+            enqueue(device, DataType.BUTTON, buttonId, buttonState.ordinal(), 0);
+        }
+    }
+
+    @Override
+    public void onGesture(BluetoothDevice device, GestureType gestureType) {
+        if (getPolicy(DataType.GESTURE) == DeliveryPolicy.IMMEDIATE) {
+            mDownstream.onGesture(device, gestureType);
+        } else {
+            enqueue(device, DataType.GESTURE, PackedRecords.packGesture(gestureType), 0, 0);
+        }
+    }
+
+    @Override
+    public void onSlider(BluetoothDevice device, SliderType sliderType) {
+        if (getPolicy(DataType.SLIDER) == DeliveryPolicy.IMMEDIATE) {
+            mDownstream.onSlider(device, sliderType);
+        } else {
+            enqueue(device, DataType.SLIDER, PackedRecords.packSlider(sliderType), 0, 0);
+        }
+    }
+
+    @Override
+    public void onGroupEnd(BluetoothDevice device) {
+        mDownstream.onGroupEnd(device);
+    }
+
+    /**
+     * An ordered queue of records packed as described in {@link PackedRecords}, growing up to
+     * {@link #MAX_QUEUED_RECORDS}.
+     */
+    private static class RecordQueue {
+        private static final int VALUES_PER_RECORD = 3;
+
+        private BluetoothDevice[] mDevices = new BluetoothDevice[16];
+        private byte[] mTypes = new byte[16];
+        private int[] mValues = new int[16 * VALUES_PER_RECORD];
+        private int mSize;
+
+        /**
+         * @return false if the queue is full and the record was dropped.
+         */
+        boolean add(BluetoothDevice device, DataType dataType, int value0, int value1, int value2) {
+            if (mSize == MAX_QUEUED_RECORDS) {
+                return false;
+            }
+
+            if (mSize == mTypes.length) {
+                int capacity = Math.min(mSize * 2, MAX_QUEUED_RECORDS);
+                mDevices = Arrays.copyOf(mDevices, capacity);
+                mTypes = Arrays.copyOf(mTypes, capacity);
+                mValues = Arrays.copyOf(mValues, capacity * VALUES_PER_RECORD);
+            }
+
+            int base = mSize * VALUES_PER_RECORD;
+            mDevices[mSize] = device;
+            mTypes[mSize] = (byte) dataType.ordinal();
+            mValues[base] = value0;
+            mValues[base + 1] = value1;
+            mValues[base + 2] = value2;
+            mSize++;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(mDevices, 0, mSize, null);
+            mSize = 0;
+        }
+
+        void deliver(OpenSpatialDataVisitor target) {
+            for (int i = 0; i < mSize; i++) {
+                int base = i * VALUES_PER_RECORD;
+
+                PackedRecords.deliver(target,
+                        mDevices[i],
+                        PackedRecords.DATA_TYPES[mTypes[i]],
+                        mValues[base],
+                        mValues[base + 1],
+                        mValues[base + 2]);
+            }
+        }
+    }
+}
@@ -127,4 +127,42 @@ public enum DeviceParameter {
         indexParameters.add(GENERIC_INDEX_0);
         indexParameters.add(GENERIC_INDEX_1);
     }
+
+    // Indexed by the unsigned value of the parameter byte
+    private static final DeviceParameter[] GENERAL_LOOKUP = new DeviceParameter[256];
+    private static final DeviceParameter[] SENSOR_LOOKUP = new DeviceParameter[256];
+    private static final DeviceParameter[] INDEX_LOOKUP = new DeviceParameter[256];
+
+    static {
+        for (DeviceParameter param : generalDeviceParameters) {
+            GENERAL_LOOKUP[param.id & 0xff] = param;
+        }
+
+        for (DeviceParameter param : sensorParameters) {
+            SENSOR_LOOKUP[param.id & 0xff] = param;
+        }
+
+        for (DeviceParameter param : indexParameters) {
+            INDEX_LOOKUP[param.id & 0xff] = param;
+        }
+    }
+
+    /**
+     * Returns the {@code DeviceParameter} that the byte {@code id} refers to for the given
+     * {@link DataType}. Parameter bytes are only unique within the general device, sensor and
+     * index parameter groups, so the {@link DataType} selects the group.
+     * @param dataType The {@link DataType} the parameter is in reference to.
+     * @param id The parameter byte.
+     * @return The matching {@code DeviceParameter}, or null if there isn't one.
+     */
+    protected static DeviceParameter valueOf(DataType dataType, byte id) {
+        switch (dataType) {
+            case GENERAL_DEVICE_INFORMATION:
+                return GENERAL_LOOKUP[id & 0xff];
+            case HAPTIC:
+                return INDEX_LOOKUP[id & 0xff];
+            default:
+                return SENSOR_LOOKUP[id & 0xff];
+        }
+    }
 }
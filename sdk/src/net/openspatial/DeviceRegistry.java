@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.HashMap;
+
+/**
+ * Assigns each OpenSpatial device a small integer handle so that per-device state can be kept in
+ * arrays instead of maps keyed by {@link BluetoothDevice}.
+ *
+ * Handles are assigned in order starting at 0 and are never reused: a device that reconnects
+ * with the same address gets its old handle back. The first {@link BluetoothDevice} seen for an
+ * address is kept as its canonical instance, so that the data path can tell devices apart by
+ * identity rather than by hashing their addresses.
+ *
+ * Lookups never lock: the address map is replaced rather than modified when a handle is assigned.
+ */
+class DeviceRegistry {
+    static final int NO_HANDLE = OpenSpatialConstants.NO_DEVICE_HANDLE;
+
+    // Keyed by address, or by the device itself if it has none. Never modified once published.
+    private volatile HashMap<Object, Integer> mHandles = new HashMap<Object, Integer>();
+    private final HandleMap<BluetoothDevice> mDevices = new HandleMap<BluetoothDevice>();
+
+    private static Object getKey(BluetoothDevice device) {
+        String address = device.getAddress();
+        return address != null ? address : device;
+    }
+
+    /**
+     * @return The handle of {@code device}, assigning one if it has none yet.
+     */
+    int obtainHandle(BluetoothDevice device) {
+        if (device == null) {
+            throw new IllegalArgumentException("Null device!");
+        }
+
+        int handle = getHandle(device);
+        if (handle != NO_HANDLE) {
+            return handle;
+        }
+
+        synchronized (this) {
+            handle = getHandle(device);
+            if (handle == NO_HANDLE) {
+                HashMap<Object, Integer> handles = new HashMap<Object, Integer>(mHandles);
+                handle = handles.size();
+                handles.put(getKey(device), handle);
+
+                // Publish the device before its handle can be looked up
+                mDevices.put(handle, device);
+                mHandles = handles;
+            }
+        }
+
+        return handle;
+    }
+
+    /**
+     * @return The handle of {@code device}, or {@link #NO_HANDLE} if it has none.
+     */
+    int getHandle(BluetoothDevice device) {
+        if (device == null) {
+            return NO_HANDLE;
+        }
+
+        Integer handle = mHandles.get(getKey(device));
+        return handle != null ? handle : NO_HANDLE;
+    }
+
+    /**
+     * @return The canonical {@link BluetoothDevice} of {@code handle}, or null if the handle has
+     *         not been assigned.
+     */
+    BluetoothDevice getDevice(int handle) {
+        return mDevices.get(handle);
+    }
+
+    /**
+     * @return The number of handles assigned so far.
+     */
+    int getHandleCount() {
+        return mHandles.size();
+    }
+}
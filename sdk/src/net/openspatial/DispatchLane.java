@@ -0,0 +1,268 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * A bounded queue of decoded records waiting to be dispatched by the {@link OpenSpatialService}.
+ *
+ * When dispatch lanes are enabled with
+ * {@link OpenSpatialService#setDispatchLanes(DispatchLane, DispatchLane)}, discrete input
+ * ({@link DataType#BUTTON}, {@link DataType#GESTURE} and {@link DataType#SLIDER}) goes through the
+ * priority lane and every other {@link DataType} through the bulk lane. The priority lane is
+ * always emptied first, so a button press never waits behind a burst of sensor data.
+ *
+ * Each lane records how long its records waited between being decoded and being dispatched.
+ */
+public class DispatchLane {
+
+    /**
+     * What to do with a record that arrives while the lane is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Drop the oldest queued record to make room. Suited to continuous streams where only
+         * recent values matter.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the record that just arrived, keeping everything already queued.
+         */
+        DROP_NEWEST
+    }
+
+    private static final int VALUES_PER_RECORD = 3;
+
+    private final int mCapacity;
+    private final DropPolicy mDropPolicy;
+
+    // Ring buffer of packed records, see PackedRecords
+    private final BluetoothDevice[] mDevices;
+    private final int[] mTypes;
+    private final int[] mValues;
+    private final long[] mEnqueueTimes;
+    private int mHead;
+    private int mSize;
+
+    private long mEnqueuedCount;
+    private long mDispatchedCount;
+    private long mDroppedCount;
+    private int mMaxDepth;
+    private long mTotalWaitNanos;
+    private long mMaxWaitNanos;
+
+    /**
+     * @param capacity The number of records the lane holds before records are dropped.
+     * @param dropPolicy What to do with records that arrive while the lane is full.
+     */
+    public DispatchLane(int capacity, DropPolicy dropPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        if (dropPolicy == null) {
+            throw new IllegalArgumentException("Null dropPolicy!");
+        }
+
+        mCapacity = capacity;
+        mDropPolicy = dropPolicy;
+
+        mDevices = new BluetoothDevice[capacity];
+        mTypes = new int[capacity];
+        mValues = new int[capacity * VALUES_PER_RECORD];
+        mEnqueueTimes = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public DropPolicy getDropPolicy() {
+        return mDropPolicy;
+    }
+
+    /**
+     * @return The number of records currently waiting in the lane.
+     */
+    public synchronized int getDepth() {
+        return mSize;
+    }
+
+    /**
+     * @return The largest number of records that waited in the lane at once.
+     */
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return The number of records that arrived at the lane, including dropped ones.
+     */
+    public synchronized long getEnqueuedCount() {
+        return mEnqueuedCount;
+    }
+
+    /**
+     * @return The number of records taken out of the lane and dispatched.
+     */
+    public synchronized long getDispatchedCount() {
+        return mDispatchedCount;
+    }
+
+    /**
+     * @return The number of records dropped because the lane was full.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return The average time in nanoseconds a dispatched record waited in the lane, or 0 if no
+     *         record has been dispatched.
+     */
+    public synchronized long getAverageWaitNanos() {
+        return mDispatchedCount != 0 ? mTotalWaitNanos / mDispatchedCount : 0;
+    }
+
+    /**
+     * @return The longest time in nanoseconds a dispatched record waited in the lane.
+     */
+    public synchronized long getMaxWaitNanos() {
+        return mMaxWaitNanos;
+    }
+
+    /**
+     * Reset every counter. Records waiting in the lane are kept.
+     */
+    public synchronized void resetStats() {
+        mEnqueuedCount = 0;
+        mDispatchedCount = 0;
+        mDroppedCount = 0;
+        mMaxDepth = mSize;
+        mTotalWaitNanos = 0;
+        mMaxWaitNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DispatchLane{capacity=" + mCapacity
+                + ", dropPolicy=" + mDropPolicy
+                + ", depth=" + mSize
+                + ", maxDepth=" + mMaxDepth
+                + ", enqueued=" + mEnqueuedCount
+                + ", dispatched=" + mDispatchedCount
+                + ", dropped=" + mDroppedCount
+                + ", averageWaitNanos=" + getAverageWaitNanos()
+                + ", maxWaitNanos=" + mMaxWaitNanos
+                + "}";
+    }
+
+    /**
+     * Add a packed record to the tail of the lane, applying the {@link DropPolicy} if it is full.
+     * @return Whether the record was queued.
+     */
+    synchronized boolean offer(BluetoothDevice device,
+                               DataType dataType,
+                               int value0,
+                               int value1,
+                               int value2) {
+        mEnqueuedCount++;
+
+        if (mSize == mCapacity) {
+            mDroppedCount++;
+            if (mDropPolicy == DropPolicy.DROP_NEWEST) {
+                return false;
+            }
+
+            mDevices[mHead] = null;
+            mHead = (mHead + 1) % mCapacity;
+            mSize--;
+        }
+
+        int index = (mHead + mSize) % mCapacity;
+        int base = index * VALUES_PER_RECORD;
+
+        mDevices[index] = device;
+        mTypes[index] = dataType.ordinal();
+        mValues[base] = value0;
+        mValues[base + 1] = value1;
+        mValues[base + 2] = value2;
+        mEnqueueTimes[index] = System.nanoTime();
+
+        mSize++;
+        if (mSize > mMaxDepth) {
+            mMaxDepth = mSize;
+        }
+
+        return true;
+    }
+
+    /**
+     * Take the record at the head of the lane and pass it to {@code target}. The lane is not
+     * locked while {@code target} runs.
+     * @return Whether a record was dispatched.
+     */
+    boolean poll(OpenSpatialDataVisitor target) {
+        BluetoothDevice device;
+        int type;
+        int value0;
+        int value1;
+        int value2;
+
+        synchronized (this) {
+            if (mSize == 0) {
+                return false;
+            }
+
+            int index = mHead;
+            int base = index * VALUES_PER_RECORD;
+
+            device = mDevices[index];
+            type = mTypes[index];
+            value0 = mValues[base];
+            value1 = mValues[base + 1];
+            value2 = mValues[base + 2];
+
+            long waitNanos = System.nanoTime() - mEnqueueTimes[index];
+            mTotalWaitNanos += waitNanos;
+            if (waitNanos > mMaxWaitNanos) {
+                mMaxWaitNanos = waitNanos;
+            }
+
+            mDevices[index] = null;
+            mHead = (mHead + 1) % mCapacity;
+            mSize--;
+            mDispatchedCount++;
+        }
+
+        PackedRecords.deliver(target, device, PackedRecords.DATA_TYPES[type],
+                value0, value1, value2);
+        return true;
+    }
+
+    /**
+     * Drop every waiting record without dispatching it.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mDevices[(mHead + i) % mCapacity] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+}
@@ -26,12 +26,25 @@ import java.util.Arrays;
  */
 public class EulerData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code EulerData} of the devices it is registered for with
+     * {@link OpenSpatialService#addEulerListener(BluetoothDevice, EulerData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code EulerData} received.
+         * @param data The {@code EulerData} received.
+         */
+        void onEulerData(EulerData data);
+    }
+
     private final float[] eulerData;
 
     /**
      * @return Roll value in radians
      */
     public float getRoll() {
+        checkNotReleased();
         return eulerData[X];
     }
 
@@ -39,6 +52,7 @@ public class EulerData extends OpenSpatialData {
      * @return Pitch value in radians
      */
     public float getPitch() {
+        checkNotReleased();
         return eulerData[Y];
     }
 
@@ -46,6 +60,7 @@ public class EulerData extends OpenSpatialData {
      * @return Yaw value in radians
      */
     public float getYaw() {
+        checkNotReleased();
         return eulerData[Z];
     }
 
@@ -60,6 +75,12 @@ public class EulerData extends OpenSpatialData {
         this.eulerData = eulerData;
     }
 
+    void set(float x, float y, float z) {
+        eulerData[X] = x;
+        eulerData[Y] = y;
+        eulerData[Z] = z;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -18,19 +18,25 @@ package net.openspatial;
 
 /**
  * Contains the set of callbacks registered to a given device and
- * provides the methods required to access or set them.
+ * provides the methods required to access them.
+ *
+ * Instances are immutable: {@link #withCallback(OpenSpatialEvent.EventType,
+ * OpenSpatialEvent.EventListener)} returns an updated copy, so a snapshot can be read from any
+ * thread without locking.
  * @deprecated No longer needed.
  */
 @Deprecated
 class EventCallbacks {
 
-    OpenSpatialEvent.EventListener mPointerEventCallback = null;
-    OpenSpatialEvent.EventListener mButtonEventCallback = null;
-    OpenSpatialEvent.EventListener mPose6DEventCallback = null;
-    OpenSpatialEvent.EventListener mMotion6DEventCallback = null;
-    OpenSpatialEvent.EventListener mGestureEventCallback = null;
-    OpenSpatialEvent.EventListener mAnalogDataEventCallback = null;
-    OpenSpatialEvent.EventListener mExtendedEventCallback = null;
+    static final EventCallbacks EMPTY =
+            new EventCallbacks(new OpenSpatialEvent.EventListener[OpenSpatialEvent.EventType.values().length]);
+
+    // Indexed by EventType ordinal
+    private final OpenSpatialEvent.EventListener[] mCallbacks;
+
+    private EventCallbacks(OpenSpatialEvent.EventListener[] callbacks) {
+        mCallbacks = callbacks;
+    }
 
     /**
      * Get the registered callback that corresponds to the event type supplied as an argument
@@ -40,70 +46,35 @@ class EventCallbacks {
      *
      * @return The registered callback that is associated with the specified event type
      *
-     * @deprecated use {@link #getCallback()} instead.
+     * @deprecated
      */
     @Deprecated
     public OpenSpatialEvent.EventListener getCallback(OpenSpatialEvent.EventType eventType) {
-        switch (eventType) {
-            case EVENT_BUTTON:
-                return mButtonEventCallback;
-            case EVENT_GESTURE:
-                return mGestureEventCallback;
-            case EVENT_MOTION6D:
-                return mMotion6DEventCallback;
-            case EVENT_POINTER:
-                return mPointerEventCallback;
-            case EVENT_POSE6D:
-                return mPose6DEventCallback;
-            case EVENT_ANALOGDATA:
-                return mAnalogDataEventCallback;
-            case EVENT_EXTENDED:
-                return mExtendedEventCallback;
-            default:
-                return null;
-        }
+        return eventType != null ? mCallbacks[eventType.ordinal()] : null;
     }
 
     /**
-     * Get the registered callback that corresponds to the event type supplied as an argument
+     * Get a copy of this set of callbacks with the callback for one event type replaced.
      *
-     * @param eventType  The type of {@code OpenSpatialEvent} that the returned callback will be
+     * @param eventType  The type of {@code OpenSpatialEvent} that the callback will be
      *                   registered for.
-     * @param callback The callback to be set.
+     * @param callback The callback to be set, or null to clear it.
+     * @return The updated copy.
      * @throws OpenSpatialException If eventType is null;
      *
      * @deprecated
      */
     @Deprecated
-    public void setCallback(OpenSpatialEvent.EventType eventType,
-                            OpenSpatialEvent.EventListener callback)
+    public EventCallbacks withCallback(OpenSpatialEvent.EventType eventType,
+                                       OpenSpatialEvent.EventListener callback)
             throws OpenSpatialException {
         if (eventType == null) {
             throw new OpenSpatialException(OpenSpatialException.ErrorCode.INVALID_PARAMETER,
-                    "setCallback called with a null event type!");
-        }
-        switch (eventType) {
-            case EVENT_BUTTON:
-                mButtonEventCallback = callback;
-                break;
-            case EVENT_GESTURE:
-                mGestureEventCallback = callback;
-                break;
-            case EVENT_MOTION6D:
-                mMotion6DEventCallback = callback;
-                break;
-            case EVENT_POINTER:
-                mPointerEventCallback = callback;
-                break;
-            case EVENT_POSE6D:
-                mPose6DEventCallback = callback;
-                break;
-            case EVENT_ANALOGDATA:
-                mAnalogDataEventCallback = callback;
-                break;
-            case EVENT_EXTENDED:
-                mExtendedEventCallback = callback;
-                break;
+                    "withCallback called with a null event type!");
         }
+
+        OpenSpatialEvent.EventListener[] callbacks = mCallbacks.clone();
+        callbacks[eventType.ordinal()] = callback;
+        return new EventCallbacks(callbacks);
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link OpenSpatialInterface} that runs every callback of another interface on an
+ * {@link Executor}. Data may be dropped when too much of it is waiting to be delivered; the
+ * other callbacks are always made.
+ */
+class ExecutorOpenSpatialInterface implements OpenSpatialInterface {
+    private final OpenSpatialInterface mInterface;
+    private final Executor mExecutor;
+    private final int mMaxPendingData;
+    private final AtomicInteger mPendingData = new AtomicInteger();
+
+    ExecutorOpenSpatialInterface(OpenSpatialInterface openSpatialInterface, Executor executor) {
+        this(openSpatialInterface, executor, 0);
+    }
+
+    /**
+     * @param maxPendingData The number of {@link #onDataReceived(OpenSpatialData)} callbacks that
+     *                       may wait for the executor before later data is dropped, or 0 for no
+     *                       limit.
+     */
+    ExecutorOpenSpatialInterface(OpenSpatialInterface openSpatialInterface,
+                                 Executor executor,
+                                 int maxPendingData) {
+        mInterface = openSpatialInterface;
+        mExecutor = executor;
+        mMaxPendingData = maxPendingData;
+    }
+
+    @Override
+    public void onDeviceConnected(final BluetoothDevice device) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onDeviceConnected(device);
+            }
+        });
+    }
+
+    @Override
+    public void onDeviceDisconnected(final BluetoothDevice device) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onDeviceDisconnected(device);
+            }
+        });
+    }
+
+    @Override
+    public void onGetParameterResponse(final BluetoothDevice device,
+                                       final DataType dataType,
+                                       final DeviceParameter deviceParameter,
+                                       final ResponseCode responseCode,
+                                       final short[] values) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onGetParameterResponse(device,
+                        dataType,
+                        deviceParameter,
+                        responseCode,
+                        values);
+            }
+        });
+    }
+
+    @Override
+    public void onSetParameterResponse(final BluetoothDevice device,
+                                       final DataType dataType,
+                                       final DeviceParameter deviceParameter,
+                                       final ResponseCode responseCode,
+                                       final short[] values) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onSetParameterResponse(device,
+                        dataType,
+                        deviceParameter,
+                        responseCode,
+                        values);
+            }
+        });
+    }
+
+    @Override
+    public void onGetIdentifierResponse(final BluetoothDevice device,
+                                        final DataType dataType,
+                                        final byte index,
+                                        final ResponseCode responseCode,
+                                        final String identifier) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onGetIdentifierResponse(device,
+                        dataType,
+                        index,
+                        responseCode,
+                        identifier);
+            }
+        });
+    }
+
+    @Override
+    public void onGetParameterRangeResponse(final BluetoothDevice device,
+                                            final DataType dataType,
+                                            final DeviceParameter deviceParameter,
+                                            final ResponseCode responseCode,
+                                            final Number low,
+                                            final Number high) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onGetParameterRangeResponse(device,
+                        dataType,
+                        deviceParameter,
+                        responseCode,
+                        low,
+                        high);
+            }
+        });
+    }
+
+    @Override
+    public void onDataEnabledResponse(final BluetoothDevice device,
+                                      final DataType dataType,
+                                      final ResponseCode responseCode) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onDataEnabledResponse(device, dataType, responseCode);
+            }
+        });
+    }
+
+    @Override
+    public void onDataDisabledResponse(final BluetoothDevice device,
+                                       final DataType dataType,
+                                       final ResponseCode responseCode) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mInterface.onDataDisabledResponse(device, dataType, responseCode);
+            }
+        });
+    }
+
+    @Override
+    public void onDataReceived(final OpenSpatialData data) {
+        if (mMaxPendingData == 0) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mInterface.onDataReceived(data);
+                }
+            });
+            return;
+        }
+
+        if (mPendingData.incrementAndGet() > mMaxPendingData) {
+            mPendingData.decrementAndGet();
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPendingData.decrementAndGet();
+                mInterface.onDataReceived(data);
+            }
+        });
+    }
+}
@@ -23,12 +23,25 @@ import android.bluetooth.BluetoothDevice;
  */
 public class GestureData extends OpenSpatialData {
 
-    private final GestureType gestureType;
+    /**
+     * Receives the {@code GestureData} of the devices it is registered for with
+     * {@link OpenSpatialService#addGestureListener(BluetoothDevice, GestureData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code GestureData} received.
+         * @param data The {@code GestureData} received.
+         */
+        void onGestureData(GestureData data);
+    }
+
+    private GestureType gestureType;
 
     /**
      * @return The type of gesture that is being reported
      */
     public GestureType getGestureType() {
+        checkNotReleased();
         return gestureType;
     }
 
@@ -42,6 +55,10 @@ public class GestureData extends OpenSpatialData {
         this.gestureType = gestureType;
     }
 
+    void set(GestureType gestureType) {
+        this.gestureType = gestureType;
+    }
+
     @Override
     public String toString() {
         return super.toString() +  ", Gesture Data: " + getGestureType().name();
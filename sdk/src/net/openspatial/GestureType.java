@@ -16,9 +16,6 @@
 
 package net.openspatial;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Describes the set of available gestures.
  */
@@ -42,11 +39,12 @@ public enum GestureType {
      */
     public byte getValue() { return id; }
 
-    private static Map<Byte, GestureType> map = new HashMap<Byte, GestureType>();
+    // Indexed by the unsigned value of the tag byte
+    private static final GestureType[] LOOKUP = new GestureType[256];
 
     static {
         for (GestureType type : GestureType.values()) {
-            map.put(type.id, type);
+            LOOKUP[type.id & 0xff] = type;
         }
     }
 
@@ -57,6 +55,6 @@ public enum GestureType {
      * isn't one.
      */
     public static GestureType valueOf(byte id) {
-        return map.get(id);
+        return LOOKUP[id & 0xff];
     }
 }
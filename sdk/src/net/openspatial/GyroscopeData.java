@@ -21,19 +21,34 @@ import android.bluetooth.BluetoothDevice;
 import java.util.Arrays;
 
 /**
- * Contains raw accelerometer LSB readings. Use the FSR value obtained from
- * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)} to convert
- * the values in to units of degrees/second.
+ * Contains raw gyroscope LSB readings. The {@code InRadiansPerSecond} accessors convert the values
+ * in to units of radians/second using the FSR the device reported through
+ * {@link OpenSpatialService#getParameter(BluetoothDevice, DataType, DeviceParameter)}.
  */
 public class GyroscopeData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code GyroscopeData} of the devices it is registered for with
+     * {@link OpenSpatialService#addGyroscopeListener(BluetoothDevice, GyroscopeData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code GyroscopeData} received.
+         * @param data The {@code GyroscopeData} received.
+         */
+        void onGyroscopeData(GyroscopeData data);
+    }
+
     private final short[] gyroData;
 
+    private float radiansPerSecondPerLsb = UnitConverter.DEFAULT_GYRO_SCALE;
+
     /**
      * A Gyroscope reading in the x axis.
      * @return Gyroscopic sensor reading about the x axis.
      */
     public short getX() {
+        checkNotReleased();
         return gyroData[X];
     }
 
@@ -42,6 +57,7 @@ public class GyroscopeData extends OpenSpatialData {
      * @return Gyroscopic sensor reading about the y axis.
      */
     public short getY() {
+        checkNotReleased();
         return gyroData[Y];
     }
 
@@ -50,6 +66,7 @@ public class GyroscopeData extends OpenSpatialData {
      * @return Gyroscopic sensor reading about the x axis.
      */
     public short getZ() {
+        checkNotReleased();
         return gyroData[Z];
     }
 
@@ -63,6 +80,47 @@ public class GyroscopeData extends OpenSpatialData {
         this.gyroData = gyroData;
     }
 
+    /**
+     * @return Gyroscope reading about the x axis in radians per second.
+     */
+    public float getXInRadiansPerSecond() {
+        checkNotReleased();
+        return gyroData[X] * radiansPerSecondPerLsb;
+    }
+
+    /**
+     * @return Gyroscope reading about the y axis in radians per second.
+     */
+    public float getYInRadiansPerSecond() {
+        checkNotReleased();
+        return gyroData[Y] * radiansPerSecondPerLsb;
+    }
+
+    /**
+     * @return Gyroscope reading about the z axis in radians per second.
+     */
+    public float getZInRadiansPerSecond() {
+        checkNotReleased();
+        return gyroData[Z] * radiansPerSecondPerLsb;
+    }
+
+    /**
+     * @return The number of radians per second per LSB used by the unit accessors.
+     */
+    public float getScale() {
+        return radiansPerSecondPerLsb;
+    }
+
+    void setScale(float scale) {
+        radiansPerSecondPerLsb = scale;
+    }
+
+    void set(short x, short y, short z) {
+        gyroData[X] = x;
+        gyroData[Y] = y;
+        gyroData[Z] = z;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
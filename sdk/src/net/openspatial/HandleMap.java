@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.util.Arrays;
+
+/**
+ * Per-device state indexed by the handles of a {@link DeviceRegistry}.
+ *
+ * The backing array is replaced on every change, so lookups on the data path never take a lock.
+ * Changes are rare: typically once per device.
+ */
+class HandleMap<T> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] mValues = EMPTY;
+
+    /**
+     * @return The value for {@code handle}, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int handle) {
+        Object[] values = mValues;
+        return handle >= 0 && handle < values.length ? (T) values[handle] : null;
+    }
+
+    synchronized void put(int handle, T value) {
+        if (handle < 0) {
+            throw new IllegalArgumentException("Invalid handle " + handle);
+        }
+
+        Object[] values = Arrays.copyOf(mValues, Math.max(mValues.length, handle + 1));
+        values[handle] = value;
+        mValues = values;
+    }
+
+    synchronized T remove(int handle) {
+        T value = get(handle);
+        if (value != null) {
+            Object[] values = mValues.clone();
+            values[handle] = null;
+            mValues = values;
+        }
+
+        return value;
+    }
+
+    synchronized void clear() {
+        mValues = EMPTY;
+    }
+
+    /**
+     * @return One more than the largest handle that may have a value. Use with {@link #get(int)}
+     *         to walk every value.
+     */
+    int size() {
+        return mValues.length;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * An {@link OpenSpatialDataVisitor} that sorts decoded records into a priority
+ * {@link DispatchLane} for discrete input and a bulk {@link DispatchLane} for continuous streams,
+ * and passes them downstream on its own dispatch thread.
+ *
+ * Decoding only has to queue each record, so it quickly gets past a burst of sensor packets to
+ * the discrete records behind it. The dispatch thread then takes a priority record, if there is
+ * one, before every bulk record.
+ */
+class LaneDispatcher implements OpenSpatialDataVisitor, Runnable {
+    private static final String TAG = LaneDispatcher.class.getSimpleName();
+
+    private final DispatchLane mPriorityLane;
+    private final DispatchLane mBulkLane;
+    private final OpenSpatialDataVisitor mDownstream;
+
+    private final Object mSignal = new Object();
+    private boolean mSignaled;
+    private boolean mRunning;
+    private Thread mThread;
+
+    LaneDispatcher(DispatchLane priorityLane,
+                   DispatchLane bulkLane,
+                   OpenSpatialDataVisitor downstream) {
+        mPriorityLane = priorityLane;
+        mBulkLane = bulkLane;
+        mDownstream = downstream;
+    }
+
+    DispatchLane getPriorityLane() {
+        return mPriorityLane;
+    }
+
+    DispatchLane getBulkLane() {
+        return mBulkLane;
+    }
+
+    void start() {
+        synchronized (mSignal) {
+            if (mThread != null) {
+                return;
+            }
+
+            mRunning = true;
+            mThread = new Thread(this, "OpenSpatialDispatch");
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop the dispatch thread. Records still waiting in the lanes are dropped.
+     */
+    void stop() {
+        Thread thread;
+
+        synchronized (mSignal) {
+            thread = mThread;
+            mThread = null;
+            mRunning = false;
+            mSignal.notifyAll();
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        mPriorityLane.clear();
+        mBulkLane.clear();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+        while (true) {
+            boolean dispatched;
+            try {
+                dispatched = mPriorityLane.poll(mDownstream) || mBulkLane.poll(mDownstream);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error dispatching data", e);
+                dispatched = true;
+            }
+
+            if (!dispatched) {
+                synchronized (mSignal) {
+                    while (!mSignaled && mRunning) {
+                        try {
+                            mSignal.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    if (!mRunning) {
+                        return;
+                    }
+                    mSignaled = false;
+                }
+            } else if (!isRunning()) {
+                return;
+            }
+        }
+    }
+
+    private boolean isRunning() {
+        synchronized (mSignal) {
+            return mRunning;
+        }
+    }
+
+    private void offer(DispatchLane lane,
+                       BluetoothDevice device,
+                       DataType dataType,
+                       int value0,
+                       int value1,
+                       int value2) {
+        if (lane.offer(device, dataType, value0, value1, value2)) {
+            synchronized (mSignal) {
+                mSignaled = true;
+                mSignal.notify();
+            }
+        }
+    }
+
+    @Override
+    public void onAccel(BluetoothDevice device, short x, short y, short z) {
+        offer(mBulkLane, device, DataType.RAW_ACCELEROMETER, x, y, z);
+    }
+
+    @Override
+    public void onGyro(BluetoothDevice device, short x, short y, short z) {
+        offer(mBulkLane, device, DataType.RAW_GYRO, x, y, z);
+    }
+
+    @Override
+    public void onCompass(BluetoothDevice device, short x, short y, short z) {
+        offer(mBulkLane, device, DataType.RAW_COMPASS, x, y, z);
+    }
+
+    @Override
+    public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+        offer(mBulkLane,
+                device,
+                DataType.EULER_ANGLES,
+                PackedRecords.packFloat(roll),
+                PackedRecords.packFloat(pitch),
+                PackedRecords.packFloat(yaw));
+    }
+
+    @Override
+    public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+        offer(mBulkLane,
+                device,
+                DataType.TRANSLATIONS,
+                PackedRecords.packFloat(x),
+                PackedRecords.packFloat(y),
+                PackedRecords.packFloat(z));
+    }
+
+    @Override
+    public void onRelativeXY(BluetoothDevice device, int x, int y) {
+        offer(mBulkLane, device, DataType.RELATIVE_XY, x, y, 0);
+    }
+
+    @Override
+    public void onAnalog(BluetoothDevice device, int x, int y, int trigger) {
+        offer(mBulkLane, device, DataType.ANALOG, x, y, trigger);
+    }
+
+    @Override
+    public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+        offer(mPriorityLane, device, DataType.BUTTON, buttonId, buttonState.ordinal(), 0);
+    }
+
+    @Override
+    public void onGesture(BluetoothDevice device, GestureType gestureType) {
+        offer(mPriorityLane, device, DataType.GESTURE,
+                PackedRecords.packGesture(gestureType), 0, 0);
+    }
+
+    @Override
+    public void onSlider(BluetoothDevice device, SliderType sliderType) {
+        offer(mPriorityLane, device, DataType.SLIDER, PackedRecords.packSlider(sliderType), 0, 0);
+    }
+
+    @Override
+    public void onGroupEnd(BluetoothDevice device) {
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openspatial;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in fixed, power of two sized buckets. Recording a latency never
+ * allocates.
+ *
+ * Bucket 0 holds latencies below {@link #getBucketUpperBoundNanos(int) getBucketUpperBoundNanos(0)}
+ * (1024 nanoseconds) and every following bucket ends at twice the bound of the one before. The
+ * last bucket holds everything above about 4 seconds.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of buckets of every histogram.
+     */
+    public static final int BUCKET_COUNT = 24;
+
+    private static final int FIRST_BUCKET_SHIFT = 10;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    LatencyHistogram() {
+    }
+
+    /**
+     * @return The latency in nanoseconds below which a latency is counted in {@code bucket}, or
+     *         {@code Long.MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        if (bucket < 0 || bucket >= BUCKET_COUNT) {
+            throw new IllegalArgumentException("Invalid bucket " + bucket);
+        }
+
+        return bucket < BUCKET_COUNT - 1 ? 1L << (bucket + FIRST_BUCKET_SHIFT) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return The number of latencies recorded.
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The number of latencies counted in {@code bucket}.
+     */
+    public synchronized long getCount(int bucket) {
+        if (bucket < 0 || bucket >= BUCKET_COUNT) {
+            throw new IllegalArgumentException("Invalid bucket " + bucket);
+        }
+
+        return mCounts[bucket];
+    }
+
+    /**
+     * @return The average latency in nanoseconds, or 0 if none was recorded.
+     */
+    public synchronized long getAverageNanos() {
+        return mCount != 0 ? mTotalNanos / mCount : 0;
+    }
+
+    /**
+     * @return The largest latency recorded in nanoseconds.
+     */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * @param fraction The share of latencies, between 0 and 1, to find the bound of. For example
+     *                 0.99 for the 99th percentile.
+     * @return The upper bound in nanoseconds of the bucket that holds the latency below which
+     *         {@code fraction} of the latencies lie, but no more than {@link #getMaxNanos()}. 0 if
+     *         no latency was recorded.
+     */
+    public synchronized long getPercentileNanos(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Invalid fraction " + fraction);
+        }
+
+        long rank = (long) Math.ceil(fraction * mCount);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank && seen > 0) {
+                return Math.min(getBucketUpperBoundNanos(bucket), mMaxNanos);
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencyHistogram{count=" + mCount
+                + ", averageNanos=" + getAverageNanos()
+                + ", maxNanos=" + mMaxNanos
+                + ", counts=" + Arrays.toString(mCounts)
+                + "}";
+    }
+
+    synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >> FIRST_BUCKET_SHIFT);
+        mCounts[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * @return A copy of this histogram, or null if no latency was recorded.
+     */
+    synchronized LatencyHistogram copy() {
+        if (mCount == 0) {
+            return null;
+        }
+
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(mCounts, 0, copy.mCounts, 0, BUCKET_COUNT);
+        copy.mCount = mCount;
+        copy.mTotalNanos = mTotalNanos;
+        copy.mMaxNanos = mMaxNanos;
+        return copy;
+    }
+}
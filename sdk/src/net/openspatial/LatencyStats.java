@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openspatial;
+
+/**
+ * {@link LatencyHistogram}s of the time {@link OpenSpatialData} takes through the
+ * {@link OpenSpatialService}, per device handle, {@link DataType} and {@link Stage}.
+ *
+ * The service records latencies once {@link OpenSpatialService#setLatencyTrackingEnabled(boolean)}
+ * is on. {@link OpenSpatialService#getLatencyStats()} returns a snapshot that no longer changes.
+ */
+public final class LatencyStats {
+
+    /**
+     * The part of the way from the device to the client a latency is measured over.
+     */
+    public enum Stage {
+        /**
+         * From the time the data was received from the device, see
+         * {@link OpenSpatialData#getReceiptNanos()}, to the time the service started decoding it.
+         */
+        RECEIPT_TO_DECODE,
+
+        /**
+         * From the time the service started decoding the packet of the data to the time the data
+         * was dispatched.
+         */
+        DECODE_TO_DISPATCH,
+
+        /**
+         * From the time the data was dispatched to the time every callback called on the
+         * dispatching thread returned.
+         */
+        DISPATCH_TO_CALLBACK_RETURN
+    }
+
+    private static final int STAGE_COUNT = Stage.values().length;
+    private static final int HISTOGRAM_COUNT = DataType.values().length * STAGE_COUNT;
+
+    private final HandleMap<LatencyHistogram[]> mHistograms = new HandleMap<LatencyHistogram[]>();
+
+    /**
+     * @return The latencies of {@code dataType} from the device with {@code deviceHandle} over
+     *         {@code stage}, or null if none were recorded.
+     * @see OpenSpatialService#getDeviceHandle(android.bluetooth.BluetoothDevice)
+     */
+    public LatencyHistogram getHistogram(int deviceHandle, DataType dataType, Stage stage) {
+        LatencyHistogram[] histograms = mHistograms.get(deviceHandle);
+        return histograms != null ? histograms[getIndex(dataType, stage)] : null;
+    }
+
+    /**
+     * @return One more than the largest device handle that may have latencies. Use with
+     *         {@link #getHistogram(int, DataType, Stage)} to walk every histogram.
+     */
+    public int getDeviceHandleLimit() {
+        return mHistograms.size();
+    }
+
+    void record(int handle, DataType dataType, Stage stage, long nanos) {
+        LatencyHistogram[] histograms = mHistograms.get(handle);
+        if (histograms == null) {
+            histograms = obtainHistograms(handle);
+        }
+
+        histograms[getIndex(dataType, stage)].record(nanos);
+    }
+
+    void reset() {
+        for (int handle = 0; handle < mHistograms.size(); handle++) {
+            LatencyHistogram[] histograms = mHistograms.get(handle);
+            if (histograms != null) {
+                for (LatencyHistogram histogram : histograms) {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A copy of the latencies recorded so far that holds only the histograms with
+     *         latencies.
+     */
+    LatencyStats snapshot() {
+        LatencyStats snapshot = new LatencyStats();
+
+        for (int handle = 0; handle < mHistograms.size(); handle++) {
+            LatencyHistogram[] histograms = mHistograms.get(handle);
+            if (histograms == null) {
+                continue;
+            }
+
+            LatencyHistogram[] copies = new LatencyHistogram[HISTOGRAM_COUNT];
+            boolean recorded = false;
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                copies[i] = histograms[i].copy();
+                recorded |= copies[i] != null;
+            }
+
+            if (recorded) {
+                snapshot.mHistograms.put(handle, copies);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private synchronized LatencyHistogram[] obtainHistograms(int handle) {
+        LatencyHistogram[] histograms = mHistograms.get(handle);
+        if (histograms == null) {
+            histograms = new LatencyHistogram[HISTOGRAM_COUNT];
+            for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            mHistograms.put(handle, histograms);
+        }
+
+        return histograms;
+    }
+
+    private static int getIndex(DataType dataType, Stage stage) {
+        return dataType.ordinal() * STAGE_COUNT + stage.ordinal();
+    }
+}
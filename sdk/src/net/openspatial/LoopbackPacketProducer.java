@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+/**
+ * The producer side of a {@link PacketRing} for use in the same process as the consumer, for
+ * tests and benchmarks of the ring transport without a Bluetooth connector. Packets are written
+ * in to the ring and the consumer is woken up with a {@link Runnable}, for example one that calls
+ * {@link OpenSpatialService#wakeUpPacketRing(android.bluetooth.BluetoothDevice)}.
+ *
+ * Like the ring itself, a {@code LoopbackPacketProducer} must only be used by one thread.
+ */
+public class LoopbackPacketProducer {
+    private final PacketRing mRing;
+    private final Runnable mWakeUp;
+
+    private long mSentCount;
+    private long mDroppedCount;
+    private long mWakeUpCount;
+
+    /**
+     * @param ring The {@link PacketRing} to write to.
+     * @param wakeUp Called when the consumer has to be woken up.
+     */
+    public LoopbackPacketProducer(PacketRing ring, Runnable wakeUp) {
+        if (ring == null) {
+            throw new IllegalArgumentException("Null ring!");
+        }
+        if (wakeUp == null) {
+            throw new IllegalArgumentException("Null wakeUp!");
+        }
+
+        mRing = ring;
+        mWakeUp = wakeUp;
+    }
+
+    /**
+     * Send a packet captured now.
+     * @return Whether the packet was sent; false if the ring was full and it was dropped.
+     */
+    public boolean send(byte[] packet) {
+        return send(packet, 0, packet.length, System.currentTimeMillis(), System.nanoTime());
+    }
+
+    /**
+     * Send a packet.
+     * @param packet The bytes holding the packet.
+     * @param offset The offset of the packet in {@code packet}.
+     * @param length The length of the packet.
+     * @param timestamp The time the packet was captured, in the time base of
+     *                  {@code System.currentTimeMillis()}.
+     * @param captureNanos The time the packet was captured, in the time base of
+     *                     {@code System.nanoTime()}.
+     * @return Whether the packet was sent; false if the ring was full and it was dropped.
+     */
+    public boolean send(byte[] packet, int offset, int length, long timestamp,
+                        long captureNanos) {
+        if (!mRing.write(packet, offset, length, timestamp, captureNanos)) {
+            mDroppedCount++;
+            return false;
+        }
+
+        mSentCount++;
+        if (mRing.takeWakeUpRequest()) {
+            mWakeUpCount++;
+            mWakeUp.run();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The number of packets written in to the ring.
+     */
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * @return The number of packets dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return The number of times the consumer was woken up.
+     */
+    public long getWakeUpCount() {
+        return mWakeUpCount;
+    }
+}
@@ -36,9 +36,28 @@ public class OpenSpatialConstants {
 
     public static final BluetoothDevice EMULATOR_DEVICE = null;
 
+    // Returned for devices the service has not assigned a handle to
+    public static final int NO_DEVICE_HANDLE = -1;
+
     public static final String BLUETOOTH_DEVICE = "net.openspatial.BLUETOOTH_DEVICE";
     public static final String OPENSPATIAL_EVENT = "net.openspatial.OPENSPATIAL_EVENT";
     public static final String OPENSPATIAL_DATA = "net.openspatial.OPENSPATIAL_DATA";
+    // Carries a DataEnvelope instead of OPENSPATIAL_DATA in an OPENSPATIAL_DATA_INTENT_ACTION
+    public static final String OPENSPATIAL_DATA_ENVELOPE =
+            "net.openspatial.OPENSPATIAL_DATA_ENVELOPE";
+    // The System.nanoTime() at which the connector received the data or event of an intent
+    public static final String OPENSPATIAL_RECEIPT_NANOS =
+            "net.openspatial.OPENSPATIAL_RECEIPT_NANOS";
+    // Carries a CommandBatch instead of OPENSPATIAL_DATA in an OPENSPATIAL_COMMAND_INTENT_ACTION
+    public static final String OPENSPATIAL_COMMAND_BATCH =
+            "net.openspatial.OPENSPATIAL_COMMAND_BATCH";
+    // Set to true in an OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION by connectors that understand
+    // OPENSPATIAL_COMMAND_BATCH
+    public static final String OPENSPATIAL_COMMAND_BATCH_SUPPORTED =
+            "net.openspatial.OPENSPATIAL_COMMAND_BATCH_SUPPORTED";
+    // Carries the responses to a CommandBatch in an OPENSPATIAL_RESPONSE_INTENT_ACTION
+    public static final String OPENSPATIAL_RESPONSE_BATCH =
+            "net.openspatial.OPENSPATIAL_RESPONSE_BATCH";
     public static final String IDENTIFIER = "net.openspatial.IDENTIFIER";
     public static final String STATUS = "net.openspatial.STATUS";
     public static final String EVENT_TYPE = "net.openspatial.EVENT_TYPE";
@@ -63,6 +82,9 @@ public class OpenSpatialConstants {
             "net.openspatial.OPENSPATIAL_EVENT_INTENT_ACTION";
     public static final String OPENSPATIAL_DATA_INTENT_ACTION =
             "net.openspatial.OPENSPATIAL_DATA_INTENT_ACTION";
+    // Wakes the SDK up to read the PacketRing of BLUETOOTH_DEVICE
+    public static final String OPENSPATIAL_PACKET_RING_INTENT_ACTION =
+            "net.openspatial.OPENSPATIAL_PACKET_RING_INTENT_ACTION";
     public static final String OPENSPATIAL_COMMAND_INTENT_ACTION =
             "net.openspatial.OPENSPATIAL_COMMAND_INTENT_ACTION";
     public static final String OPENSPATIAL_RESPONSE_INTENT_ACTION =
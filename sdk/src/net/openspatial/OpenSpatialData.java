@@ -20,6 +20,8 @@ import android.bluetooth.BluetoothDevice;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * The base class for all data delivered over the {@link net.openspatial.OpenSpatialService}.
  */
@@ -35,10 +37,20 @@ abstract public class OpenSpatialData {
     public final DataType dataType;
 
     /**
-     * The time value returned by {@code System.currentTimeMillis()} at object creation.
+     * The time value returned by {@code System.currentTimeMillis()} when this object was created.
+     * It is never updated: pooled instances (see {@link OpenSpatialDataPool}) keep the time they
+     * were first created at, and the capture time a connector reports is only available from
+     * {@link #getTimestamp()}.
+     *
+     * @deprecated use {@link #getTimestamp()} instead, which is refreshed for every sample.
      */
+    @Deprecated
     public final long timestamp;
 
+    private long mTimestamp;
+
+    private long mReceiptNanos;
+
     /**
      * The OpenSpatial device that reported the data.
      */
@@ -56,6 +68,109 @@ abstract public class OpenSpatialData {
         this.device = device;
         this.dataType = type;
         timestamp = System.currentTimeMillis();
+        mTimestamp = timestamp;
+        mReceiptNanos = System.nanoTime();
+    }
+
+    /**
+     * @return The time the sample was captured, in the time base of
+     *         {@code System.currentTimeMillis()}. When the service decodes a packet of a
+     *         {@link DataEnvelope} or a {@link PacketRing}, this is the capture time the connector
+     *         stored with the packet. Otherwise it is the time this data was created, or taken
+     *         from its {@link OpenSpatialDataPool} again.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    void setTimestamp(long timestamp) {
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * @return The time value of {@code System.nanoTime()} at which the data was received from the
+     *         device. Unlike {@link #getTimestamp()} it never jumps, so it can be used to measure
+     *         latency and to interpolate between samples. If the connector does not report when it
+     *         received the data, the time the data was decoded at is used instead.
+     */
+    public long getReceiptNanos() {
+        return mReceiptNanos;
+    }
+
+    void setReceiptNanos(long receiptNanos) {
+        mReceiptNanos = receiptNanos;
+    }
+
+    private int mDeviceHandle = OpenSpatialConstants.NO_DEVICE_HANDLE;
+
+    /**
+     * @return The handle the {@link OpenSpatialService} assigned to {@link #device}, or
+     *         {@link OpenSpatialConstants#NO_DEVICE_HANDLE} if this data was not delivered by the
+     *         service.
+     * @see OpenSpatialService#getDeviceHandle(BluetoothDevice)
+     */
+    public int getDeviceHandle() {
+        return mDeviceHandle;
+    }
+
+    void setDeviceHandle(int deviceHandle) {
+        mDeviceHandle = deviceHandle;
+    }
+
+    private static final AtomicIntegerFieldUpdater<OpenSpatialData> RELEASED =
+            AtomicIntegerFieldUpdater.newUpdater(OpenSpatialData.class, "mReleased");
+
+    // The pool this instance is returned to on release(), null for unpooled data.
+    private OpenSpatialDataPool mPool;
+    // 1 once released. Set with RELEASED by whichever client thread releases the data, so that
+    // only one of several concurrent releases returns it to the pool.
+    private volatile int mReleased;
+
+    void setPool(OpenSpatialDataPool pool) {
+        mPool = pool;
+    }
+
+    OpenSpatialDataPool getPool() {
+        return mPool;
+    }
+
+    // Called by the pool when this instance is handed out again.
+    void recycle() {
+        mReleased = 0;
+        mTimestamp = System.currentTimeMillis();
+        mReceiptNanos = System.nanoTime();
+    }
+
+    /**
+     * Return this instance to the {@link OpenSpatialDataPool} it was obtained from so that it can
+     * be reused for a later sample. The instance must not be accessed after it is released. This
+     * has no effect for data that is not pooled.
+     *
+     * @see OpenSpatialService#setDataPoolCapacity(int)
+     */
+    public void release() {
+        if (mPool == null) {
+            return;
+        }
+
+        if (!RELEASED.compareAndSet(this, 0, 1)) {
+            if (OpenSpatialDataPool.isDebugChecksEnabled()) {
+                throw new IllegalStateException(dataType.name() + " data released twice!");
+            }
+            return;
+        }
+
+        mPool.release(this);
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if this instance has been released while debug
+     * checks are enabled, see {@link OpenSpatialDataPool#isDebugChecksEnabled()}.
+     */
+    protected final void checkNotReleased() {
+        if (mReleased != 0 && OpenSpatialDataPool.isDebugChecksEnabled()) {
+            throw new IllegalStateException(dataType.name() + " data used after release!");
+        }
     }
 
     @Override
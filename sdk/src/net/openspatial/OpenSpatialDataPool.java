@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * A bounded pool of reusable {@link OpenSpatialData} instances for a single OpenSpatial device.
+ *
+ * Each {@link DataType} has its own free list holding at most {@link #getCapacity()} instances.
+ * Data handed out by the pool is returned to it with {@link OpenSpatialData#release()}. When a
+ * free list is empty a new instance is allocated (a miss) and when it is full released instances
+ * are left for the garbage collector (a drop). The hit, miss and drop counters can be used to
+ * size the pool.
+ *
+ * In debuggable apps the {@link OpenSpatialService} turns on use-after-release checks, see
+ * {@link #isDebugChecksEnabled()}. Released instances are then never reused, so pools allocate
+ * for every sample and only the hit counters of release builds are meaningful.
+ */
+public class OpenSpatialDataPool {
+
+    private static volatile boolean sDebugChecks = false;
+
+    private final BluetoothDevice mDevice;
+    private final int mCapacity;
+
+    private final OpenSpatialData[][] mFree;
+    private final int[] mFreeCount;
+
+    private final long[] mHits;
+    private final long[] mMisses;
+    private final long[] mDrops;
+
+    /**
+     * Create a new {@code OpenSpatialDataPool}.
+     * @param device The device all pooled data will be reported for.
+     * @param capacity The maximum number of free instances kept per {@link DataType}.
+     */
+    OpenSpatialDataPool(BluetoothDevice device, int capacity) {
+        if (device == null) {
+            throw new IllegalArgumentException("Null device!");
+        }
+
+        int types = DataType.values().length;
+
+        mDevice = device;
+        mCapacity = capacity;
+        mFree = new OpenSpatialData[types][capacity];
+        mFreeCount = new int[types];
+        mHits = new long[types];
+        mMisses = new long[types];
+        mDrops = new long[types];
+    }
+
+    /**
+     * Turn use-after-release detection on or off for all pools. The service enables it when the
+     * app is debuggable.
+     * @param enabled Whether released data should be checked.
+     */
+    // Package private because it is used in tests
+    static void setDebugChecksEnabled(boolean enabled) {
+        sDebugChecks = enabled;
+    }
+
+    /**
+     * @return Whether use-after-release detection is enabled, which it is in debuggable apps.
+     *         Accessing or releasing a pooled {@link OpenSpatialData} after it has been released
+     *         then throws an {@link IllegalStateException}. Released instances are not reused while
+     *         this is enabled, which turns pooling off.
+     */
+    public static boolean isDebugChecksEnabled() {
+        return sDebugChecks;
+    }
+
+    /**
+     * @return The device this pool holds data for.
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return The maximum number of free instances kept per {@link DataType}.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param dataType The {@link DataType} of interest.
+     * @return The number of times an instance of {@code dataType} was reused.
+     */
+    public synchronized long getHitCount(DataType dataType) {
+        return mHits[dataType.ordinal()];
+    }
+
+    /**
+     * @param dataType The {@link DataType} of interest.
+     * @return The number of times an instance of {@code dataType} had to be allocated.
+     */
+    public synchronized long getMissCount(DataType dataType) {
+        return mMisses[dataType.ordinal()];
+    }
+
+    /**
+     * @param dataType The {@link DataType} of interest.
+     * @return The number of released instances of {@code dataType} discarded because the pool
+     * was full.
+     */
+    public synchronized long getDropCount(DataType dataType) {
+        return mDrops[dataType.ordinal()];
+    }
+
+    /**
+     * Reset the hit, miss and drop counters for every {@link DataType}.
+     */
+    public synchronized void resetCounters() {
+        for (int i = 0; i < mHits.length; i++) {
+            mHits[i] = 0;
+            mMisses[i] = 0;
+            mDrops[i] = 0;
+        }
+    }
+
+    AccelerometerData obtainAccelerometerData(short x, short y, short z) {
+        AccelerometerData data = (AccelerometerData) obtain(DataType.RAW_ACCELEROMETER);
+        data.set(x, y, z);
+        return data;
+    }
+
+    GyroscopeData obtainGyroscopeData(short x, short y, short z) {
+        GyroscopeData data = (GyroscopeData) obtain(DataType.RAW_GYRO);
+        data.set(x, y, z);
+        return data;
+    }
+
+    CompassData obtainCompassData(short x, short y, short z) {
+        CompassData data = (CompassData) obtain(DataType.RAW_COMPASS);
+        data.set(x, y, z);
+        return data;
+    }
+
+    EulerData obtainEulerData(float roll, float pitch, float yaw) {
+        EulerData data = (EulerData) obtain(DataType.EULER_ANGLES);
+        data.set(roll, pitch, yaw);
+        return data;
+    }
+
+    TranslationData obtainTranslationData(float x, float y, float z) {
+        TranslationData data = (TranslationData) obtain(DataType.TRANSLATIONS);
+        data.set(x, y, z);
+        return data;
+    }
+
+    RelativeXYData obtainRelativeXYData(int x, int y) {
+        RelativeXYData data = (RelativeXYData) obtain(DataType.RELATIVE_XY);
+        data.set(x, y);
+        return data;
+    }
+
+    AnalogData obtainAnalogData(int value0, int value1, int value2) {
+        AnalogData data = (AnalogData) obtain(DataType.ANALOG);
+        data.set(value0, value1, value2);
+        return data;
+    }
+
+    ButtonData obtainButtonData(int buttonId, ButtonState buttonState) {
+        ButtonData data = (ButtonData) obtain(DataType.BUTTON);
+        data.set(buttonId, buttonState);
+        return data;
+    }
+
+    GestureData obtainGestureData(GestureType gestureType) {
+        GestureData data = (GestureData) obtain(DataType.GESTURE);
+        data.set(gestureType);
+        return data;
+    }
+
+    SliderData obtainSliderData(SliderType sliderType) {
+        SliderData data = (SliderData) obtain(DataType.SLIDER);
+        data.set(sliderType);
+        return data;
+    }
+
+    private synchronized OpenSpatialData obtain(DataType dataType) {
+        int type = dataType.ordinal();
+
+        if (mFreeCount[type] > 0) {
+            mHits[type]++;
+
+            int index = --mFreeCount[type];
+            OpenSpatialData data = mFree[type][index];
+            mFree[type][index] = null;
+            data.recycle();
+            return data;
+        }
+
+        mMisses[type]++;
+
+        OpenSpatialData data = newData(dataType);
+        data.setPool(this);
+        return data;
+    }
+
+    synchronized void release(OpenSpatialData data) {
+        // Released instances are never handed out again while debug checks are on, so they stay
+        // marked as released and every later use of a stale reference is caught
+        if (sDebugChecks) {
+            return;
+        }
+
+        int type = data.dataType.ordinal();
+
+        if (mFreeCount[type] == mCapacity) {
+            mDrops[type]++;
+            return;
+        }
+
+        mFree[type][mFreeCount[type]++] = data;
+    }
+
+    private OpenSpatialData newData(DataType dataType) {
+        switch (dataType) {
+            case RAW_ACCELEROMETER:
+                return new AccelerometerData(mDevice, new short[3]);
+            case RAW_GYRO:
+                return new GyroscopeData(mDevice, new short[3]);
+            case RAW_COMPASS:
+                return new CompassData(mDevice, new short[3]);
+            case EULER_ANGLES:
+                return new EulerData(mDevice, new float[3]);
+            case TRANSLATIONS:
+                return new TranslationData(mDevice, new float[3]);
+            case RELATIVE_XY:
+                return new RelativeXYData(mDevice, new int[2]);
+            case ANALOG:
+                return new AnalogData(mDevice, new int[3]);
+            case BUTTON:
+                return new ButtonData(mDevice, 0, ButtonState.UP);
+            case GESTURE:
+                return new GestureData(mDevice, null);
+            case SLIDER:
+                return new SliderData(mDevice, null);
+            default:
+                throw new IllegalArgumentException(dataType.name() + " data cannot be pooled!");
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * A view of a single OpenSpatial record inside the packet it was received in. Nothing is decoded
+ * up front; each accessor reads its value straight from the packet bytes when it is called.
+ *
+ * Views are reused. A view is only valid until the next packet is decoded, so consumers that need
+ * to keep a record must call {@link #copy()}.
+ */
+public class OpenSpatialDataView {
+
+    /**
+     * Receives a view of every record of a packet.
+     */
+    public interface Listener {
+        /**
+         * Called once per record, in packet order.
+         * @param view A view of the record. It is only valid until the next packet is decoded.
+         */
+        void onDataView(OpenSpatialDataView view);
+    }
+
+    private static final int UP_DOWN_MASK = 1 << 7;
+
+    private BluetoothDevice mDevice;
+    private UnitConverter mUnits;
+    private DataType mDataType;
+    private byte[] mData;
+    private int mOffset;
+
+    void set(BluetoothDevice device,
+             UnitConverter units,
+             DataType dataType,
+             byte[] data,
+             int offset) {
+        mDevice = device;
+        mUnits = units;
+        mDataType = dataType;
+        mData = data;
+        mOffset = offset;
+    }
+
+    /**
+     * @return The device that reported the record.
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return The {@link DataType} of the record.
+     */
+    public DataType getDataType() {
+        return mDataType;
+    }
+
+    private void checkType(DataType dataType) {
+        if (mDataType != dataType) {
+            throw new IllegalStateException(mDataType + " record has no " + dataType + " value!");
+        }
+    }
+
+    private void checkVector(int index) {
+        switch (mDataType) {
+            case RAW_ACCELEROMETER:
+            case RAW_GYRO:
+            case RAW_COMPASS:
+            case TRANSLATIONS:
+            case ANALOG:
+                return;
+            case RELATIVE_XY:
+                if (index < 2) {
+                    return;
+                }
+                break;
+        }
+
+        throw new IllegalStateException(mDataType + " record has no value at index " + index);
+    }
+
+    private short getShort(int index) {
+        int offset = mOffset + 2 * index;
+        return (short) ((mData[offset] & 0xff) | (mData[offset + 1] << 8));
+    }
+
+    /**
+     * @return The raw x value of a {@link DataType#RAW_ACCELEROMETER}, {@link DataType#RAW_GYRO},
+     * {@link DataType#RAW_COMPASS}, {@link DataType#TRANSLATIONS} or
+     * {@link DataType#RELATIVE_XY} record, or the value of analog sensor 0.
+     */
+    public short getX() {
+        checkVector(OpenSpatialData.X);
+        return getShort(OpenSpatialData.X);
+    }
+
+    /**
+     * @return The raw y value of a {@link DataType#RAW_ACCELEROMETER}, {@link DataType#RAW_GYRO},
+     * {@link DataType#RAW_COMPASS}, {@link DataType#TRANSLATIONS} or
+     * {@link DataType#RELATIVE_XY} record, or the value of analog sensor 1.
+     */
+    public short getY() {
+        checkVector(OpenSpatialData.Y);
+        return getShort(OpenSpatialData.Y);
+    }
+
+    /**
+     * @return The raw z value of a {@link DataType#RAW_ACCELEROMETER}, {@link DataType#RAW_GYRO},
+     * {@link DataType#RAW_COMPASS} or {@link DataType#TRANSLATIONS} record, or the value of
+     * analog sensor 2.
+     */
+    public short getZ() {
+        checkVector(OpenSpatialData.Z);
+        return getShort(OpenSpatialData.Z);
+    }
+
+    /**
+     * @return The roll of an {@link DataType#EULER_ANGLES} record in radians.
+     */
+    public float getRoll() {
+        checkType(DataType.EULER_ANGLES);
+        return UnitConverter.eulerToRadians(getShort(OpenSpatialData.X));
+    }
+
+    /**
+     * @return The pitch of an {@link DataType#EULER_ANGLES} record in radians.
+     */
+    public float getPitch() {
+        checkType(DataType.EULER_ANGLES);
+        return UnitConverter.eulerToRadians(getShort(OpenSpatialData.Y));
+    }
+
+    /**
+     * @return The yaw of an {@link DataType#EULER_ANGLES} record in radians.
+     */
+    public float getYaw() {
+        checkType(DataType.EULER_ANGLES);
+        return UnitConverter.eulerToRadians(getShort(OpenSpatialData.Z));
+    }
+
+    /**
+     * @return The button identifier of a {@link DataType#BUTTON} record.
+     */
+    public int getButtonId() {
+        checkType(DataType.BUTTON);
+        return mData[mOffset] & ~UP_DOWN_MASK & 0xff;
+    }
+
+    /**
+     * @return The {@link ButtonState} of a {@link DataType#BUTTON} record.
+     */
+    public ButtonState getButtonState() {
+        checkType(DataType.BUTTON);
+        return (mData[mOffset] & UP_DOWN_MASK) != 0 ? ButtonState.UP : ButtonState.DOWN;
+    }
+
+    /**
+     * @return The {@link GestureType} of a {@link DataType#GESTURE} record, or null if it is not
+     * recognized.
+     */
+    public GestureType getGestureType() {
+        checkType(DataType.GESTURE);
+        return GestureType.valueOf(mData[mOffset]);
+    }
+
+    /**
+     * @return The {@link SliderType} of a {@link DataType#SLIDER} record, or null if it is not
+     * recognized.
+     */
+    public SliderType getSliderType() {
+        checkType(DataType.SLIDER);
+        return SliderType.valueOf(mData[mOffset]);
+    }
+
+    /**
+     * Decode the whole record in to an {@link OpenSpatialData} that remains valid after the next
+     * packet is decoded.
+     * @return A new {@link OpenSpatialData} holding the values of the record.
+     */
+    public OpenSpatialData copy() {
+        switch (mDataType) {
+            case BUTTON:
+                return new ButtonData(mDevice, getButtonId(), getButtonState());
+            case RAW_ACCELEROMETER: {
+                AccelerometerData data =
+                        new AccelerometerData(mDevice, new short[] {getX(), getY(), getZ()});
+                data.setScale(mUnits.getAccelScale());
+                return data;
+            }
+            case RAW_GYRO: {
+                GyroscopeData data =
+                        new GyroscopeData(mDevice, new short[] {getX(), getY(), getZ()});
+                data.setScale(mUnits.getGyroScale());
+                return data;
+            }
+            case RAW_COMPASS: {
+                CompassData data =
+                        new CompassData(mDevice, new short[] {getX(), getY(), getZ()});
+                data.setScale(mUnits.getCompassScale());
+                return data;
+            }
+            case EULER_ANGLES:
+                return new EulerData(mDevice, new float[] {getRoll(), getPitch(), getYaw()});
+            case TRANSLATIONS:
+                return new TranslationData(mDevice, new float[] {getX(), getY(), getZ()});
+            case RELATIVE_XY:
+                return new RelativeXYData(mDevice, new int[] {getX(), getY()});
+            case GESTURE:
+                return new GestureData(mDevice, getGestureType());
+            case SLIDER:
+                return new SliderData(mDevice, getSliderType());
+            case ANALOG:
+                return new AnalogData(mDevice, new int[] {getX(), getY(), getZ()});
+            default:
+                throw new IllegalStateException("No OpenSpatialData for " + mDataType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OpenSpatialDataView: " + mDataType + " at offset " + mOffset;
+    }
+}
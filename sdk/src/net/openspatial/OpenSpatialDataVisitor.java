@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Receives decoded OpenSpatial records as primitive values, straight from the packet bytes.
+ *
+ * Passing an implementation of this interface to
+ * {@link OpenSpatialEventFactory#decodeOpenSpatialDataPacket(BluetoothDevice, byte[],
+ * OpenSpatialDataVisitor)} or {@link OpenSpatialService#setDataVisitor(OpenSpatialDataVisitor)}
+ * avoids allocating an {@link OpenSpatialData} object for every sample. A single visitor instance
+ * can be reused for every packet.
+ */
+public interface OpenSpatialDataVisitor {
+    /**
+     * Called when a {@link DataType#BUTTON} record is decoded.
+     * @param device The device that reported the record.
+     * @param buttonId Identifier of the button on the device.
+     * @param buttonState The {@link ButtonState} the button has entered.
+     */
+    void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState);
+
+    /**
+     * Called when a {@link DataType#RAW_ACCELEROMETER} record is decoded.
+     * @param device The device that reported the record.
+     * @param x Raw accelerometer LSB reading about the x axis.
+     * @param y Raw accelerometer LSB reading about the y axis.
+     * @param z Raw accelerometer LSB reading about the z axis.
+     */
+    void onAccel(BluetoothDevice device, short x, short y, short z);
+
+    /**
+     * Called when a {@link DataType#RAW_GYRO} record is decoded.
+     * @param device The device that reported the record.
+     * @param x Raw gyroscope LSB reading about the x axis.
+     * @param y Raw gyroscope LSB reading about the y axis.
+     * @param z Raw gyroscope LSB reading about the z axis.
+     */
+    void onGyro(BluetoothDevice device, short x, short y, short z);
+
+    /**
+     * Called when a {@link DataType#RAW_COMPASS} record is decoded.
+     * @param device The device that reported the record.
+     * @param x Compass reading in the x axis (in uT).
+     * @param y Compass reading in the y axis (in uT).
+     * @param z Compass reading in the z axis (in uT).
+     */
+    void onCompass(BluetoothDevice device, short x, short y, short z);
+
+    /**
+     * Called when a {@link DataType#EULER_ANGLES} record is decoded.
+     * @param device The device that reported the record.
+     * @param roll Roll value in radians.
+     * @param pitch Pitch value in radians.
+     * @param yaw Yaw value in radians.
+     */
+    void onEuler(BluetoothDevice device, float roll, float pitch, float yaw);
+
+    /**
+     * Called when a {@link DataType#TRANSLATIONS} record is decoded.
+     * @param device The device that reported the record.
+     * @param x Translation reading in the x axis.
+     * @param y Translation reading in the y axis.
+     * @param z Translation reading in the z axis.
+     */
+    void onTranslation(BluetoothDevice device, float x, float y, float z);
+
+    /**
+     * Called when a {@link DataType#RELATIVE_XY} record is decoded.
+     * @param device The device that reported the record.
+     * @param x The relative translation in the x axis.
+     * @param y The relative translation in the y axis.
+     */
+    void onRelativeXY(BluetoothDevice device, int x, int y);
+
+    /**
+     * Called when a {@link DataType#GESTURE} record is decoded.
+     * @param device The device that reported the record.
+     * @param gestureType The {@link GestureType} reported, or null if it is not recognized.
+     */
+    void onGesture(BluetoothDevice device, GestureType gestureType);
+
+    /**
+     * Called when a {@link DataType#SLIDER} record is decoded.
+     * @param device The device that reported the record.
+     * @param sliderType The {@link SliderType} reported, or null if it is not recognized.
+     */
+    void onSlider(BluetoothDevice device, SliderType sliderType);
+
+    /**
+     * Called when a {@link DataType#ANALOG} record is decoded.
+     * @param device The device that reported the record.
+     * @param value0 The value reported by analog sensor 0.
+     * @param value1 The value reported by analog sensor 1.
+     * @param value2 The value reported by analog sensor 2.
+     */
+    void onAnalog(BluetoothDevice device, int value0, int value1, int value2);
+
+    /**
+     * Called when the device marks the end of a group of related records, for example
+     * accelerometer, gyroscope and Euler values that were sampled together. A group may span
+     * several packets.
+     * @param device The device that reported the group.
+     */
+    void onGroupEnd(BluetoothDevice device);
+}
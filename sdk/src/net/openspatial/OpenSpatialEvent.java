@@ -114,6 +114,8 @@ abstract public class OpenSpatialEvent implements Parcelable {
      */
     public BluetoothDevice device;
 
+    private long mReceiptNanos;
+
     /**
      * A listener interface for clients interested in {@link net.openspatial.OpenSpatialEvent}s
      *
@@ -143,6 +145,19 @@ abstract public class OpenSpatialEvent implements Parcelable {
         device = bDevice;
         eventType = type;
         timestamp = System.currentTimeMillis();
+        mReceiptNanos = System.nanoTime();
+    }
+
+    /**
+     * @return The time value of {@code System.nanoTime()} at which this event was received from
+     *         the device, or at which it reached the service if the connector did not report it
+     */
+    public long getReceiptNanos() {
+        return mReceiptNanos;
+    }
+
+    void setReceiptNanos(long receiptNanos) {
+        mReceiptNanos = receiptNanos;
     }
 
     // Methods to make the class Parcelable
@@ -155,6 +170,7 @@ abstract public class OpenSpatialEvent implements Parcelable {
     protected OpenSpatialEvent(Parcel in) {
         this.eventType = (EventType)in.readSerializable();
         this.timestamp = in.readLong();
+        this.mReceiptNanos = System.nanoTime();
         this.device = (BluetoothDevice)in.readParcelable(BluetoothDevice.class.getClassLoader());
     }
 }
@@ -18,9 +18,7 @@ package net.openspatial;
 
 import android.bluetooth.BluetoothDevice;
 import android.os.Bundle;
-import android.util.Log;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
@@ -29,14 +27,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Takes raw data from Bluetooth LE packets and decodes them in to OpenSpatialData.
  */
 public class OpenSpatialEventFactory {
 
-    private static final String TAG = OpenSpatialEventFactory.class.getSimpleName();
 
     private static final short SCROLL_OPCODE            = 0x1;
     private static final short DIRECTIONS_OPCODE        = 0x2;
@@ -102,6 +98,46 @@ public class OpenSpatialEventFactory {
                 put(SCROLL_DOWN, GestureEvent.GestureEventType.SCROLL_DOWN);
             }};
 
+    private final DeviceRegistry mDevices;
+    private final HandleMap<UnitConverter> mUnitConverters = new HandleMap<UnitConverter>();
+    private final ParameterCache mParameterCache;
+    private final TrafficCounters mTrafficCounters;
+
+    public OpenSpatialEventFactory() {
+        this(new DeviceRegistry());
+    }
+
+    OpenSpatialEventFactory(DeviceRegistry devices) {
+        mDevices = devices;
+        mParameterCache = new ParameterCache(devices);
+        mTrafficCounters = new TrafficCounters(devices);
+    }
+
+    /**
+     * Get the {@link UnitConverter} for {@code device}. Its scale factors follow the full scale
+     * ranges the device reports in its parameter responses.
+     * @param device The device of interest.
+     * @return The {@link UnitConverter} of {@code device}.
+     */
+    public UnitConverter getUnitConverter(BluetoothDevice device) {
+        return getUnitConverter(mDevices.obtainHandle(device));
+    }
+
+    UnitConverter getUnitConverter(int handle) {
+        UnitConverter converter = mUnitConverters.get(handle);
+        if (converter == null) {
+            synchronized (mUnitConverters) {
+                converter = mUnitConverters.get(handle);
+                if (converter == null) {
+                    converter = new UnitConverter();
+                    mUnitConverters.put(handle, converter);
+                }
+            }
+        }
+
+        return converter;
+    }
+
     @Deprecated
     public PointerEvent getPointerEventFromCharacteristic(BluetoothDevice device, byte[] value) {
         ByteBuffer buffer = ByteBuffer.wrap(value);
@@ -173,10 +209,7 @@ public class OpenSpatialEventFactory {
     }
 
     float getFloatFromInt16(short codedValue) {
-        int intVal = new Short(codedValue).intValue();
-        intVal <<= 16;
-
-        return ((float)intVal) / (1 << 29);
+        return UnitConverter.eulerToRadians(codedValue);
     }
 
     @Deprecated
@@ -215,11 +248,11 @@ public class OpenSpatialEventFactory {
     }
 
     float getAccelReadingFromInt16(short value) {
-        return ((float)value) / 8192;
+        return value * UnitConverter.DEFAULT_ACCEL_SCALE;
     }
 
     float getGyroReadingFromInt16(short value) {
-        return (float)((value / 16.4) * Math.PI / 180);
+        return value * UnitConverter.DEFAULT_GYRO_SCALE;
     }
 
     @Deprecated
@@ -284,24 +317,226 @@ public class OpenSpatialEventFactory {
     protected List<OpenSpatialData> decodeOpenSpatialDataPacket(
             BluetoothDevice device, byte[] data) {
 
-        List<OpenSpatialData> result = new ArrayList<OpenSpatialData>();
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        DataListBuilder builder = new DataListBuilder(getUnitConverter(device));
+        decodeOpenSpatialDataPacket(device, data, builder);
+
+        return builder.mResult;
+    }
+
+    /**
+     * Takes the data bytes from a Bluetooth LE packet and pushes every decoded record to
+     * {@code visitor}. Values are read directly from {@code data} so no objects are allocated
+     * while decoding.
+     * @param device The sender of the data to be processed
+     * @param data The bytes received from the OpenSpatial device
+     * @param visitor The {@link OpenSpatialDataVisitor} that will receive the decoded records.
+     */
+    public void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                            byte[] data,
+                                            OpenSpatialDataVisitor visitor) {
+        decodeOpenSpatialDataPacket(device, data, 0, data.length, visitor);
+    }
 
-        byte dataType = buffer.get();
-        try {
-            do {
-                List<OpenSpatialData> events
-                        = decodeOpenSpatialData(device, dataType, buffer);
+    /**
+     * Decodes the packet held in part of {@code data}, such as one packet of a
+     * {@link DataEnvelope}, and pushes every decoded record to {@code visitor}.
+     * @param device The sender of the data to be processed
+     * @param data The bytes holding the packet
+     * @param offset The offset of the packet in {@code data}
+     * @param length The length of the packet
+     * @param visitor The {@link OpenSpatialDataVisitor} that will receive the decoded records.
+     */
+    public void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                            byte[] data,
+                                            int offset,
+                                            int length,
+                                            OpenSpatialDataVisitor visitor) {
+        decodeOpenSpatialDataPacket(device, data, offset, length, visitor, null);
+    }
+
+    /**
+     * Same as {@link #decodeOpenSpatialDataPacket(BluetoothDevice, byte[], int, int,
+     * OpenSpatialDataVisitor)}, and counts every record in {@code stripe} unless it is null.
+     */
+    void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                     byte[] data,
+                                     int offset,
+                                     int length,
+                                     OpenSpatialDataVisitor visitor,
+                                     TrafficCounters.Stripe stripe) {
+        decodeRecords(device, data, offset, length, visitor, null, stripe);
+    }
+
+    /**
+     * Walks the records of a packet and passes them either decoded to {@code visitor} or as
+     * {@link OpenSpatialDataView}s to {@code listener}; exactly one of the two is non-null.
+     */
+    private void decodeRecords(BluetoothDevice device,
+                               byte[] data,
+                               int offset,
+                               int length,
+                               OpenSpatialDataVisitor visitor,
+                               OpenSpatialDataView.Listener listener,
+                               TrafficCounters.Stripe stripe) {
+        checkRange(data, offset, length);
+
+        UnitConverter units = null;
+        OpenSpatialDataView[] views = null;
+        if (listener != null) {
+            units = getUnitConverter(device);
+            views = obtainViews(length / MIN_RECORD_SIZE);
+        }
+
+        int end = offset + length;
+        int records = 0;
+        int unknownDataTypes = 0;
+        boolean truncated = false;
+
+        while (offset < end) {
+            byte dataType = data[offset++];
+
+            if (dataType == BOUNDARY_TAG) {
+                if (visitor != null) {
+                    visitor.onGroupEnd(device);
+                }
+                continue;
+            }
 
-                result.addAll(events);
-                dataType = buffer.get();
-            } while (buffer.hasRemaining());
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, "Buffer underflow. Data payload: " + Arrays.toString(data));
+            if (dataType == 0) {
+                continue;
+            }
+
+            DataType type = DataType.valueOf(dataType);
+            int recordLength = type != null ? RECORD_LENGTH[type.ordinal()] : 0;
+
+            // The length of an unknown record is unknown too, so try the next byte
+            if (recordLength == 0) {
+                unknownDataTypes++;
+                continue;
+            }
+
+            if (offset + recordLength > end) {
+                truncated = true;
+                break;
+            }
+
+            if (visitor != null) {
+                decodeOpenSpatialData(device, type, data, offset, visitor);
+            } else {
+                OpenSpatialDataView view = views[records];
+                view.set(device, units, type, data, offset);
+                listener.onDataView(view);
+            }
+
+            offset += recordLength;
+            records++;
+
+            if (stripe != null) {
+                stripe.onRecord(type);
+            }
         }
 
-        return result;
+        mDecodeStats.onPacket(records, truncated, unknownDataTypes);
+    }
+
+    private static void checkRange(byte[] data, int offset, int length) {
+        if (data == null) {
+            throw new IllegalArgumentException("Null data!");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+        }
+    }
+
+    // Views are kept per thread so that packets decoded on different threads never share them
+    private final ThreadLocal<OpenSpatialDataView[]> mViews =
+            new ThreadLocal<OpenSpatialDataView[]>();
+
+    /**
+     * Takes the data bytes from a Bluetooth LE packet and passes a lazy
+     * {@link OpenSpatialDataView} of every record to {@code listener}. Only the record boundaries
+     * are parsed; values are read from {@code data} when the listener asks for them. The views are
+     * reused and are only valid until the next call of this method on the same thread.
+     * @param device The sender of the data to be processed
+     * @param data The bytes received from the OpenSpatial device
+     * @param listener The {@link OpenSpatialDataView.Listener} that will receive the views.
+     */
+    public void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                            byte[] data,
+                                            OpenSpatialDataView.Listener listener) {
+        decodeOpenSpatialDataPacket(device, data, 0, data.length, listener);
+    }
+
+    /**
+     * Decodes the packet held in part of {@code data}, such as one packet of a
+     * {@link DataEnvelope}, and passes a lazy {@link OpenSpatialDataView} of every record to
+     * {@code listener}.
+     * @param device The sender of the data to be processed
+     * @param data The bytes holding the packet
+     * @param offset The offset of the packet in {@code data}
+     * @param length The length of the packet
+     * @param listener The {@link OpenSpatialDataView.Listener} that will receive the views.
+     */
+    public void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                            byte[] data,
+                                            int offset,
+                                            int length,
+                                            OpenSpatialDataView.Listener listener) {
+        decodeOpenSpatialDataPacket(device, data, offset, length, listener, null);
+    }
+
+    /**
+     * Same as {@link #decodeOpenSpatialDataPacket(BluetoothDevice, byte[], int, int,
+     * OpenSpatialDataView.Listener)}, and counts every record in {@code stripe} unless it is null.
+     */
+    void decodeOpenSpatialDataPacket(BluetoothDevice device,
+                                     byte[] data,
+                                     int offset,
+                                     int length,
+                                     OpenSpatialDataView.Listener listener,
+                                     TrafficCounters.Stripe stripe) {
+        decodeRecords(device, data, offset, length, null, listener, stripe);
+    }
+
+    /**
+     * @return At least {@code count} views, allocated once for the largest packet seen on the
+     *         calling thread.
+     */
+    private OpenSpatialDataView[] obtainViews(int count) {
+        OpenSpatialDataView[] views = mViews.get();
+
+        if (views == null || views.length < count) {
+            int size = views == null ? count : Math.max(count, views.length * 2);
+            int reused = views == null ? 0 : views.length;
+
+            views = views == null ? new OpenSpatialDataView[size] : Arrays.copyOf(views, size);
+            for (int i = reused; i < size; i++) {
+                views[i] = new OpenSpatialDataView();
+            }
+            mViews.set(views);
+        }
+
+        return views;
+    }
+
+    /**
+     * @return The {@link ParameterCache} holding the parameters and identifiers devices reported
+     * in their command responses.
+     */
+    public ParameterCache getParameterCache() {
+        return mParameterCache;
+    }
+
+    TrafficCounters getTrafficCounters() {
+        return mTrafficCounters;
+    }
+
+    /**
+     * @return The {@link DecodeStats} counting the packets this factory decoded and the malformed
+     * input it skipped.
+     */
+    public DecodeStats getDecodeStats() {
+        return mDecodeStats;
     }
 
     protected void decodeOpenSpatialCommandResponse(BluetoothDevice device,
@@ -309,227 +544,219 @@ public class OpenSpatialEventFactory {
                                                    OpenSpatialInterface iface) {
 
         if (device == null || data == null) {
-            Log.e(TAG, "Malformed command response!");
+            mDecodeStats.onResponse(true);
             return;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        boolean malformed = !decodeCommandResponse(device, data, 0, data.length, iface);
+        mDecodeStats.onResponse(malformed);
+    }
 
-        byte commandByte;
-        try {
-            commandByte = buffer.get();
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, "Response data received from " + device.getName() + " was malformed!");
+    /**
+     * Decodes the framed responses to a {@link CommandBatch} and passes each to its
+     * {@link OpenSpatialInterface} callback. A truncated frame ends the batch.
+     */
+    protected void decodeOpenSpatialCommandResponses(BluetoothDevice device,
+                                                     byte[] batch,
+                                                     OpenSpatialInterface iface) {
+        if (device == null || batch == null) {
+            mDecodeStats.onResponse(true);
             return;
         }
 
-        CommandType commandType = CommandType.valueOf(commandByte);
+        int offset = 0;
+        while (offset < batch.length) {
+            int length = batch[offset++] & 0xff;
+            if (offset + length > batch.length) {
+                mDecodeStats.onResponse(true);
+                return;
+            }
+
+            boolean malformed = !decodeCommandResponse(device, batch, offset, length, iface);
+            mDecodeStats.onResponse(malformed);
+            offset += length;
+        }
+    }
+
+    /**
+     * @return false if the response was malformed and dropped. Malformed responses are not logged,
+     *         the caller counts them in {@link #getDecodeStats()}.
+     */
+    private boolean decodeCommandResponse(BluetoothDevice device,
+                                          byte[] data,
+                                          int offset,
+                                          int length,
+                                          OpenSpatialInterface iface) {
+        if (length < 1) {
+            return false;
+        }
+
+        CommandType commandType = CommandType.valueOf(data[offset + RESPONSE_COMMAND_OFFSET]);
 
         if (commandType == null) {
-            Log.e(TAG, "Received an unknown CommandType from " + device.getName() + "!");
-            return;
+            return false;
         }
 
         switch (commandType) {
             case GET_PARAMETER:
             case SET_PARAMETER:
             case GET_PARAMETER_RANGE:
-                decodeGetSetParameterResponse(device, commandType, buffer, iface);
-                break;
+                return decodeGetSetParameterResponse(device, commandType, data, offset, length,
+                        iface);
             case GET_IDENTIFIER:
-                decodeGetIdentifierResponse(device, buffer, iface);
-                break;
+                return decodeGetIdentifierResponse(device, data, offset, length, iface);
             case ENABLE:
             case DISABLE:
-                decodeEnableDisableResponse(device, commandType, buffer, iface);
-                break;
+                return decodeEnableDisableResponse(device, commandType, data, offset, length,
+                        iface);
             default:
-                Log.e(TAG, "No decoding for " + commandType.name() + " found!");
-                break;
+                return false;
         }
-
     }
 
-    private void decodeEnableDisableResponse(BluetoothDevice device,
-                                             CommandType commandType,
-                                             ByteBuffer buffer,
-                                             OpenSpatialInterface iface) {
-        DataType dataType = null;
-        try {
-            byte dataTypeByte = buffer.get();
-            dataType = DataType.valueOf(dataTypeByte);
-
-            if (dataType == null) {
-                Log.e(TAG, device.getName() + " reported an unknown data type of value: "
-                        + dataTypeByte);
-                return;
-            }
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, device.getName() + " reported a malformed response!");
-            return;
+    private boolean decodeEnableDisableResponse(BluetoothDevice device,
+                                                CommandType commandType,
+                                                byte[] data,
+                                                int offset,
+                                                int length,
+                                                OpenSpatialInterface iface) {
+        if (length <= RESPONSE_DATA_TYPE_OFFSET) {
+            return false;
         }
 
-        byte responseByte = -1;
-        ResponseCode responseCode = null;
+        byte dataTypeByte = data[offset + RESPONSE_DATA_TYPE_OFFSET];
+        DataType dataType = DataType.valueOf(dataTypeByte);
 
-        try {
-            // Throw away this byte as it doesn't contain anything
-            buffer.get();
+        if (dataType == null) {
+            return false;
+        }
 
-            responseByte = buffer.get();
+        // The parameter byte doesn't contain anything for these responses
+        if (length <= RESPONSE_CODE_OFFSET) {
+            return false;
+        }
 
-            responseCode = ResponseCode.values()[responseByte];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            Log.e(TAG, device.getName() + " reported an invalid value: " + responseByte);
-            return;
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, device.getName() + " failed to report a response code!");
-            return;
+        byte responseByte = data[offset + RESPONSE_CODE_OFFSET];
+        ResponseCode responseCode = ResponseCode.valueOf(responseByte);
+        if (responseCode == null) {
+            return false;
         }
 
         switch (commandType) {
             case ENABLE:
                 iface.onDataEnabledResponse(device, dataType, responseCode);
-                break;
+                return true;
             case DISABLE:
                 iface.onDataDisabledResponse(device, dataType, responseCode);
-                break;
+                return true;
             default:
-                Log.e(TAG, "Decoded an invalid response packet.");
-                break;
+                return false;
         }
     }
 
-    private DeviceParameter determineDeviceParameter(DataType dataType, byte parameterByte) {
-        Set<DeviceParameter> params = null;
-        switch (dataType) {
-            case GENERAL_DEVICE_INFORMATION:
-                params = DeviceParameter.generalDeviceParameters;
-                break;
-            case HAPTIC:
-                params = DeviceParameter.indexParameters;
-                break;
-            default:
-                params = DeviceParameter.sensorParameters;
-                break;
+    private boolean decodeGetIdentifierResponse(BluetoothDevice device,
+                                                byte[] data,
+                                                int offset,
+                                                int length,
+                                                OpenSpatialInterface iface) {
+        if (length <= RESPONSE_DATA_TYPE_OFFSET) {
+            return false;
         }
 
-        for (DeviceParameter param : params) {
-            if (param.getValue() == parameterByte) {
-                return param;
-            }
-        }
-        return null;
-    }
+        byte dataTypeByte = data[offset + RESPONSE_DATA_TYPE_OFFSET];
+        DataType dataType = DataType.valueOf(dataTypeByte);
 
-    private void decodeGetIdentifierResponse(BluetoothDevice device,
-                                             ByteBuffer buffer,
-                                             OpenSpatialInterface iface) {
-        DataType dataType = null;
-        try {
-            byte dataTypeByte = buffer.get();
-            dataType = DataType.valueOf(dataTypeByte);
+        // The identifier is still reported, for a null DataType
+        if (dataType == null) {
+            mDecodeStats.onUnknownDataType();
+        }
 
-            if (dataType == null) {
-                Log.e(TAG, "Identifier response received with an invalid DataType of value: "
-                        + dataTypeByte + " from device " + device.getName());
-            }
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, "Malformed identifier response received from " + device.getName());
-            return;
+        if (length <= RESPONSE_PARAMETER_OFFSET) {
+            return false;
         }
 
-        byte index;
-        try {
-            index = buffer.get();
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, "No identifier index reported by " + device.getName());
-            return;
+        byte index = data[offset + RESPONSE_PARAMETER_OFFSET];
+
+        if (length <= RESPONSE_CODE_OFFSET) {
+            return false;
         }
 
-        ResponseCode responseCode = null;
-        byte responseCodeByte = -1;
-        try {
-            responseCodeByte = buffer.get();
-            responseCode = ResponseCode.values()[responseCodeByte];
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, "No identifier response code received from " + device.getName());
-            return;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            Log.e(TAG, device.getName() + " reported an unknown response code of value: "
-                    + responseCodeByte);
-            return;
+        byte responseCodeByte = data[offset + RESPONSE_CODE_OFFSET];
+        ResponseCode responseCode = ResponseCode.valueOf(responseCodeByte);
+        if (responseCode == null) {
+            return false;
         }
 
-        byte[] bufferArray = buffer.array();
+        String identifier = new String(data,
+                offset + RESPONSE_VALUES_OFFSET,
+                length - RESPONSE_VALUES_OFFSET,
+                UTF_8);
 
-        String identifier = new String(Arrays.copyOfRange(bufferArray, 4, bufferArray.length),
-                Charset.forName("UTF-8"));
+        if (dataType != null && responseCode == ResponseCode.OK) {
+            mParameterCache.onIdentifier(mDevices.obtainHandle(device), dataType, index,
+                    identifier);
+        }
 
         iface.onGetIdentifierResponse(device, dataType, index, responseCode,identifier);
+        return true;
     }
 
-    private void decodeGetSetParameterResponse(BluetoothDevice device,
-                                               CommandType commandType,
-                                            ByteBuffer buffer,
-                                            OpenSpatialInterface iface) {
-
-        DataType dataType;
-        try {
-            dataType = DataType.valueOf(buffer.get());
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, device.getName() + " gave a malformed response with no data type!");
-            return;
+    private boolean decodeGetSetParameterResponse(BluetoothDevice device,
+                                                  CommandType commandType,
+                                                  byte[] data,
+                                                  int offset,
+                                                  int length,
+                                                  OpenSpatialInterface iface) {
+        if (length <= RESPONSE_DATA_TYPE_OFFSET) {
+            return false;
         }
 
+        DataType dataType = DataType.valueOf(data[offset + RESPONSE_DATA_TYPE_OFFSET]);
+
         if (dataType == null) {
-            Log.e(TAG, "Null DataType reported by " + device.getName());
-            return;
+            return false;
         }
 
-        byte parameterByte;
-        try {
-            parameterByte = buffer.get();
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, device.getName() + " responded with an unknown parameter!");
-            return;
+        if (length <= RESPONSE_PARAMETER_OFFSET) {
+            return false;
         }
 
-        DeviceParameter deviceParameter = determineDeviceParameter(dataType, parameterByte);
+        byte parameterByte = data[offset + RESPONSE_PARAMETER_OFFSET];
+        DeviceParameter deviceParameter = DeviceParameter.valueOf(dataType, parameterByte);
 
         if (deviceParameter == null) {
-            Log.e(TAG, "Unable to identify parameter value " + parameterByte
-                    + " reported by " + device.getName());
-            return;
-        }
-
-        byte responseByte;
-        try {
-            responseByte = buffer.get();
-        } catch (BufferUnderflowException e) {
-            Log.e(TAG, device.getName() + " did not include a response code!");
-            return;
+            return false;
         }
 
-        ResponseCode[] responseCodes = ResponseCode.values();
-        if (responseByte >= responseCodes.length) {
-            Log.e(TAG, device.getName() + " did not report a valid response code! " + responseByte);
-            return;
+        if (length <= RESPONSE_CODE_OFFSET) {
+            return false;
         }
 
-        ResponseCode responseCode;
-        try {
-            responseCode = responseCodes[responseByte];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            Log.e(TAG, "Received an unknown response code!" + responseByte);
-            return;
+        byte responseByte = data[offset + RESPONSE_CODE_OFFSET];
+        ResponseCode responseCode = ResponseCode.valueOf(responseByte);
+        if (responseCode == null) {
+            return false;
         }
 
-        short[] responseValues = new short[buffer.remaining()/2];
+        short[] responseValues = new short[(length - RESPONSE_VALUES_OFFSET) / 2];
 
         for (int i = 0; i < responseValues.length; i++) {
-            responseValues[i] = buffer.getShort();
+            responseValues[i] = getShort(data, offset + RESPONSE_VALUES_OFFSET + 2 * i);
+        }
+
+        int handle = mDevices.obtainHandle(device);
+        if (commandType != CommandType.GET_PARAMETER_RANGE && responseValues.length > 0
+                && (responseCode == ResponseCode.OK
+                    || responseCode == ResponseCode.PARAMETER_VALUE_REPLACED)) {
+            getUnitConverter(handle).onParameterValue(dataType, deviceParameter,
+                    responseValues[0]);
+            mParameterCache.onParameterValue(handle, dataType, deviceParameter, responseValues);
+            mTrafficCounters.onParameterValue(handle, dataType, deviceParameter,
+                    responseValues[0]);
+        } else if (commandType == CommandType.GET_PARAMETER_RANGE && responseValues.length >= 2
+                && responseCode == ResponseCode.OK) {
+            mParameterCache.onParameterRange(handle, dataType, deviceParameter,
+                    responseValues[0], responseValues[1]);
         }
 
         switch (commandType) {
@@ -539,14 +766,14 @@ public class OpenSpatialEventFactory {
                         deviceParameter,
                         responseCode,
                         responseValues);
-                break;
+                return true;
             case SET_PARAMETER:
                 iface.onSetParameterResponse(device,
                         dataType,
                         deviceParameter,
                         responseCode,
                         responseValues);
-                break;
+                return true;
             case GET_PARAMETER_RANGE:
                 if (responseValues.length >= 2) {
                     iface.onGetParameterRangeResponse(device,
@@ -563,163 +790,199 @@ public class OpenSpatialEventFactory {
                             0,
                             0);
                 }
-                break;
+                return true;
             default:
-                Log.e(TAG, "Decoded wrong command type! " + commandType.name());
-                break;
+                return false;
         }
     }
 
     private static final byte BOUNDARY_TAG = (byte) 0x9d;
-    private List<OpenSpatialData> decodeOpenSpatialData(
-            BluetoothDevice device, byte dataType, ByteBuffer buffer) {
 
-        List<OpenSpatialData> events = new ArrayList<OpenSpatialData>();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Layout of a command response: command, data type, parameter (or index), response code and
+    // then the response values.
+    private static final int RESPONSE_COMMAND_OFFSET = 0;
+    private static final int RESPONSE_DATA_TYPE_OFFSET = 1;
+    private static final int RESPONSE_PARAMETER_OFFSET = 2;
+    private static final int RESPONSE_CODE_OFFSET = 3;
+    private static final int RESPONSE_VALUES_OFFSET = 4;
+
+    // The number of payload bytes following the type byte of each data record, indexed by
+    // DataType ordinal. Zero for the types that are never sent as data records.
+    private static final int[] RECORD_LENGTH = new int[DataType.values().length];
+
+    static {
+        RECORD_LENGTH[DataType.BUTTON.ordinal()] = 1;
+        RECORD_LENGTH[DataType.RAW_ACCELEROMETER.ordinal()] = 6;
+        RECORD_LENGTH[DataType.RAW_GYRO.ordinal()] = 6;
+        RECORD_LENGTH[DataType.RAW_COMPASS.ordinal()] = 6;
+        RECORD_LENGTH[DataType.EULER_ANGLES.ordinal()] = 6;
+        RECORD_LENGTH[DataType.TRANSLATIONS.ordinal()] = 6;
+        RECORD_LENGTH[DataType.RELATIVE_XY.ordinal()] = 4;
+        RECORD_LENGTH[DataType.GESTURE.ordinal()] = 1;
+        RECORD_LENGTH[DataType.SLIDER.ordinal()] = 1;
+        RECORD_LENGTH[DataType.ANALOG.ordinal()] = 6;
+    }
 
-        if (dataType == BOUNDARY_TAG) {
-            Log.d(TAG, "End of related data group.");
-            return events;
-        }
+    // The smallest number of bytes a record takes up including its type byte, which bounds the
+    // number of records a packet can hold.
+    private static final int MIN_RECORD_SIZE = 2;
 
-        if (dataType == 0) {
-            return events;
-        }
+    private final DecodeStats mDecodeStats = new DecodeStats();
 
-        DataType type = DataType.valueOf(dataType);
-        if (type == null) {
-            Log.d(TAG, "Got unknown DataType from raw byte " + dataType);
-            return events;
-        }
+    private static short getShort(byte[] data, int offset) {
+        return (short) ((data[offset] & 0xff) | (data[offset + 1] << 8));
+    }
 
+    /**
+     * Decodes the record of the given type starting at {@code offset}. The caller has checked
+     * that the packet holds the whole record.
+     */
+    private void decodeOpenSpatialData(BluetoothDevice device,
+                                       DataType type,
+                                       byte[] data,
+                                       int offset,
+                                       OpenSpatialDataVisitor visitor) {
         switch (type) {
             case BUTTON:
-                events.addAll(decodeButtonData(device, buffer));
+                decodeButtonData(device, data, offset, visitor);
                 break;
             case RAW_ACCELEROMETER:
-                events.add(decodeAccelData(device, buffer));
+                visitor.onAccel(device,
+                        getShort(data, offset),
+                        getShort(data, offset + 2),
+                        getShort(data, offset + 4));
                 break;
             case RAW_COMPASS:
-                events.add(decodeCompassData(device, buffer));
+                visitor.onCompass(device,
+                        getShort(data, offset),
+                        getShort(data, offset + 2),
+                        getShort(data, offset + 4));
                 break;
             case RAW_GYRO:
-                events.add(decodeGyroData(device, buffer));
+                visitor.onGyro(device,
+                        getShort(data, offset),
+                        getShort(data, offset + 2),
+                        getShort(data, offset + 4));
                 break;
             case EULER_ANGLES:
-                events.add(decodeEulerData(device, buffer));
+                visitor.onEuler(device,
+                        getFloatFromInt16(getShort(data, offset)),
+                        getFloatFromInt16(getShort(data, offset + 2)),
+                        getFloatFromInt16(getShort(data, offset + 4)));
                 break;
             case TRANSLATIONS:
-                events.add(decodeTranslationData(device, buffer));
+                visitor.onTranslation(device,
+                        getTranslationReadingFromShort(getShort(data, offset)),
+                        getTranslationReadingFromShort(getShort(data, offset + 2)),
+                        getTranslationReadingFromShort(getShort(data, offset + 4)));
                 break;
             case RELATIVE_XY:
-                events.add(decodeXYData(device, buffer));
+                visitor.onRelativeXY(device, getShort(data, offset), getShort(data, offset + 2));
                 break;
             case GESTURE:
-                events.add(decodeGestureData(device, buffer));
+                visitor.onGesture(device, GestureType.valueOf(data[offset]));
                 break;
             case SLIDER:
-                events.add(decodeSliderData(device, buffer));
+                visitor.onSlider(device, SliderType.valueOf(data[offset]));
                 break;
             case ANALOG:
-                events.add(decodeAnalogData(device, buffer));
+                visitor.onAnalog(device,
+                        getShort(data, offset),
+                        getShort(data, offset + 2),
+                        getShort(data, offset + 4));
                 break;
-            default:
-                Log.e(TAG, "Unknown data type: " + type.ordinal());
         }
-
-        return events;
     }
 
-    private List<OpenSpatialData> decodeButtonData(
-            BluetoothDevice device, ByteBuffer buffer) {
-
+    private void decodeButtonData(BluetoothDevice device,
+                                  byte[] data,
+                                  int offset,
+                                  OpenSpatialDataVisitor visitor) {
         final byte UP_DOWN_MASK = (byte) (1 << 7);
 
-        List<OpenSpatialData> result = new ArrayList<OpenSpatialData>();
-
-        byte data = buffer.get();
-        ButtonState state = (data & UP_DOWN_MASK) != 0 ? ButtonState.UP : ButtonState.DOWN;
-        int id = (data & ~UP_DOWN_MASK);
+        byte value = data[offset];
+        ButtonState state = (value & UP_DOWN_MASK) != 0 ? ButtonState.UP : ButtonState.DOWN;
+        int id = (value & ~UP_DOWN_MASK);
 
-        result.add(new ButtonData(device, id, state));
-
-        return result;
+        visitor.onButton(device, id, state);
     }
 
-    private AccelerometerData decodeAccelData(BluetoothDevice device, ByteBuffer buffer) {
-        short[] values = new short[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = buffer.getShort();
-        }
-
-        return new AccelerometerData(device, values);
+    private float getTranslationReadingFromShort(short value) {
+        return (float) (value);
     }
 
-    private CompassData decodeCompassData(
-            BluetoothDevice device, ByteBuffer buffer) {
-        short[] values = new short[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = buffer.getShort();
-        }
-
-        return new CompassData(device, values);
-    }
+    /**
+     * Adapts the visitor based decoding to the {@link List} based
+     * {@link #decodeOpenSpatialDataPacket(BluetoothDevice, byte[])}.
+     */
+    private static class DataListBuilder implements OpenSpatialDataVisitor {
+        private final List<OpenSpatialData> mResult = new ArrayList<OpenSpatialData>();
+        private final UnitConverter mUnits;
 
-    private GyroscopeData decodeGyroData(BluetoothDevice device, ByteBuffer buffer) {
-        short[] values = new short[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = buffer.getShort();
+        DataListBuilder(UnitConverter units) {
+            mUnits = units;
         }
 
-        return new GyroscopeData(device, values);
-    }
-
-    private EulerData decodeEulerData(BluetoothDevice device, ByteBuffer buffer) {
-        float[] values = new float[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = getFloatFromInt16(buffer.getShort());
+        @Override
+        public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+            mResult.add(new ButtonData(device, buttonId, buttonState));
         }
 
-        return new EulerData(device, values);
-    }
+        @Override
+        public void onAccel(BluetoothDevice device, short x, short y, short z) {
+            AccelerometerData data = new AccelerometerData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getAccelScale());
+            mResult.add(data);
+        }
 
-    private float getTranslationReadingFromShort(short value) {
-        return (float) (value);
-    }
+        @Override
+        public void onGyro(BluetoothDevice device, short x, short y, short z) {
+            GyroscopeData data = new GyroscopeData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getGyroScale());
+            mResult.add(data);
+        }
 
-    private TranslationData decodeTranslationData(BluetoothDevice device, ByteBuffer buffer) {
-        float[] values = new float[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = getTranslationReadingFromShort(buffer.getShort());
+        @Override
+        public void onCompass(BluetoothDevice device, short x, short y, short z) {
+            CompassData data = new CompassData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getCompassScale());
+            mResult.add(data);
         }
 
-        return new TranslationData(device, values);
-    }
+        @Override
+        public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+            mResult.add(new EulerData(device, new float[] {roll, pitch, yaw}));
+        }
 
-    private RelativeXYData decodeXYData(BluetoothDevice device, ByteBuffer buffer) {
-        int[] values = new int[2];
-        for(int i = 0; i < 2; i++) {
-            values[i] = buffer.getShort();
+        @Override
+        public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+            mResult.add(new TranslationData(device, new float[] {x, y, z}));
         }
 
-        return new RelativeXYData(device, values);
-    }
+        @Override
+        public void onRelativeXY(BluetoothDevice device, int x, int y) {
+            mResult.add(new RelativeXYData(device, new int[] {x, y}));
+        }
 
-    private GestureData decodeGestureData(BluetoothDevice device, ByteBuffer buffer) {
-        byte value = buffer.get();
-        return new GestureData(device, GestureType.valueOf(value));
-    }
+        @Override
+        public void onGesture(BluetoothDevice device, GestureType gestureType) {
+            mResult.add(new GestureData(device, gestureType));
+        }
 
-    private SliderData decodeSliderData(BluetoothDevice device, ByteBuffer buffer) {
-        byte value = buffer.get();
-        return new SliderData(device, SliderType.valueOf(value));
-    }
+        @Override
+        public void onSlider(BluetoothDevice device, SliderType sliderType) {
+            mResult.add(new SliderData(device, sliderType));
+        }
 
-    private AnalogData decodeAnalogData(BluetoothDevice device, ByteBuffer buffer) {
-        int[] values = new int[3];
-        for(int i = 0; i < 3; i++) {
-            values[i] = buffer.getShort();
+        @Override
+        public void onAnalog(BluetoothDevice device, int value0, int value1, int value2) {
+            mResult.add(new AnalogData(device, new int[] {value0, value1, value2}));
         }
 
-        return new AnalogData(device, values);
+        @Override
+        public void onGroupEnd(BluetoothDevice device) {
+        }
     }
 }
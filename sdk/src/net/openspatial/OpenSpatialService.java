@@ -23,15 +23,23 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This service provides clients with OpenSpatialEvents that they are interested in. Clients bind
@@ -44,36 +52,54 @@ import java.util.*;
 @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class OpenSpatialService extends Service {
 
-    private OpenSpatialEventFactory mEventFactory = new OpenSpatialEventFactory();
+    private final DeviceRegistry mDeviceRegistry = new DeviceRegistry();
+
+    private OpenSpatialEventFactory mEventFactory = new OpenSpatialEventFactory(mDeviceRegistry);
 
     // BroadcastReceiver to receive intents from the emulator service/BLE service
     private final BroadcastReceiver mEventReceiver = new BroadcastReceiver() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-
-            if (action == null) {
-                Log.e(TAG, "Got null action");
-                return;
-            }
-
-            if (action.equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION) ||
-                    action.equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION)) {
-                Log.d(TAG, "Got device connected event");
-                processDeviceConnectionIntent(intent);
-            } else if (action.equals(
-                    OpenSpatialConstants.OPENSPATIAL_DEVICE_INFO_INTENT_ACTION)) {
-                processDeviceInfoReceipt(intent);
-            } else if (action.equals(OpenSpatialConstants.OPENSPATIAL_DATA_INTENT_ACTION)) {
-                processInboundData(intent);
-            } else if (action.equals(OpenSpatialConstants.OPENSPATIAL_RESPONSE_INTENT_ACTION)) {
-                processOpenSpatialControlResponse(intent);
+        public void onReceive(Context context, final Intent intent) {
+            Executor executor = mReceiveExecutor;
+            if (executor != null) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processEventReceiverIntent(intent);
+                    }
+                });
             } else {
-                processEventIntent(intent);
+                processEventReceiverIntent(intent);
             }
         }
     };
 
+    private void processEventReceiverIntent(Intent intent) {
+        String action = intent.getAction();
+
+        if (action == null) {
+            Log.e(TAG, "Got null action");
+            return;
+        }
+
+        if (action.equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION) ||
+                action.equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION)) {
+            Log.d(TAG, "Got device connected event");
+            processDeviceConnectionIntent(intent);
+        } else if (action.equals(
+                OpenSpatialConstants.OPENSPATIAL_DEVICE_INFO_INTENT_ACTION)) {
+            processDeviceInfoReceipt(intent);
+        } else if (action.equals(OpenSpatialConstants.OPENSPATIAL_DATA_INTENT_ACTION)) {
+            processInboundData(intent);
+        } else if (action.equals(OpenSpatialConstants.OPENSPATIAL_PACKET_RING_INTENT_ACTION)) {
+            processPacketRingWakeUp(intent);
+        } else if (action.equals(OpenSpatialConstants.OPENSPATIAL_RESPONSE_INTENT_ACTION)) {
+            processOpenSpatialControlResponse(intent);
+        } else {
+            processEventIntent(intent);
+        }
+    }
+
     private final BroadcastReceiver mResultReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -118,26 +144,87 @@ public class OpenSpatialService extends Service {
 
     private final OpenSpatialServiceBinder mBinder = new OpenSpatialServiceBinder();
 
-    private final HashMap<BluetoothDevice, EventCallbacks> mEventCallbacks =
-            new HashMap<BluetoothDevice, EventCallbacks>();
+    // Holds an immutable EventCallbacks snapshot for every device that connected or was
+    // registered for events. Writers replace snapshots while holding its lock; readers never lock.
+    private final HandleMap<EventCallbacks> mEventCallbacks = new HandleMap<EventCallbacks>();
 
     private String mIdentifier;
     private OpenSpatialServiceCallback mServiceCallback;
 
-    private OpenSpatialInterface mServiceInterface;
+    // The interface callbacks are made on. It wraps mClientInterface when a callback executor is
+    // set.
+    private volatile OpenSpatialInterface mServiceInterface;
+    private OpenSpatialInterface mClientInterface;
+    private volatile Executor mCallbackExecutor;
+
+    // Clients added with addClient(), guarded by this
+    private ClientFanout.Client[] mClients = new ClientFanout.Client[0];
+
+    // Data callbacks a client with its own thread may fall behind by before later data is dropped
+    private static final int CLIENT_QUEUE_CAPACITY = 256;
+    private static final String CLIENT_THREAD_NAME = "OpenSpatialClient";
+
+    private volatile OpenSpatialDataVisitor mDataVisitor;
+
+    private volatile OpenSpatialDataView.Listener mDataViewListener;
+
+    // Where intents are received and decoded. All null for the main thread.
+    private Handler mReceiveHandler;
+    private HandlerThread mReceiveThread;
+    private volatile Executor mReceiveExecutor;
+    private boolean mReceiversRegistered;
+
+    private static final String RECEIVE_THREAD_NAME = "OpenSpatialReceive";
+
+    private int mDataPoolCapacity = 0;
+    private final HandleMap<OpenSpatialDataPool> mDataPools = new HandleMap<OpenSpatialDataPool>();
+    // Bumped whenever mDataPools is cleared, so that every DataDispatcher drops the pool it holds
+    private volatile int mDataPoolGeneration;
+    private final DataDispatcher mDataDispatcher = new DataDispatcher();
+    private final InboundDecoder mInboundDecoder = new InboundDecoder();
+
+    private final StreamSubscriptions mStreams = new StreamSubscriptions();
+    private final CommandTracker mCommandTracker = new CommandTracker(mDeviceRegistry, mStreams);
+    private final ParameterCache mParameterCache = mEventFactory.getParameterCache();
+
+    private final HandleMap<PacketRing> mPacketRings = new HandleMap<PacketRing>();
+
+    // Devices whose connector announced it understands command batches
+    private final HandleMap<Boolean> mCommandBatching = new HandleMap<Boolean>();
+    // Packets read from a ring between checks of the visitor chain
+    private static final int PACKET_RING_BATCH_SIZE = 64;
+
+    private final DataListenerRegistry mDataListeners = new DataListenerRegistry(mDeviceRegistry);
+
+    private final DeliveryScheduler mDeliveryScheduler = new DeliveryScheduler(mDeviceRegistry);
+    private final DataDispatcher mPendingDataDispatcher = new DataDispatcher();
+
+    private volatile LaneDispatcher mLaneDispatcher;
+
+    private volatile SensorBatchCollector mSensorBatchCollector;
+
+    private volatile SensorFrameAssembler mSensorFrameAssembler;
+
+    private final LatencyStats mLatencyStats = new LatencyStats();
+    private volatile boolean mLatencyTrackingEnabled;
+
+    private final TrafficCounters mTraffic = mEventFactory.getTrafficCounters();
+    // The System.nanoTime() the counters of getStats() were last reset at
+    private volatile long mStatsResetTime = System.nanoTime();
 
     private static final String TAG = OpenSpatialService.class.getSimpleName();
 
+    // Must *ONLY* be called when map is synchronized
     @Deprecated
-    private void registerCallback(HashMap<BluetoothDevice, EventCallbacks> map,
+    private void registerCallback(HandleMap<EventCallbacks> map,
                                   BluetoothDevice device,
                                   OpenSpatialEvent.EventType eventType,
                                   OpenSpatialEvent.EventListener listener) throws OpenSpatialException {
-        EventCallbacks callbacks = map.get(device);
+        int handle = mDeviceRegistry.obtainHandle(device);
+        EventCallbacks callbacks = map.get(handle);
 
-        if (device != null && callbacks == null) {
-            callbacks = new EventCallbacks();
-            map.put(device, callbacks);
+        if (callbacks == null) {
+            callbacks = EventCallbacks.EMPTY;
         }
 
         if (callbacks.getCallback(eventType) != null) {
@@ -146,7 +233,7 @@ public class OpenSpatialService extends Service {
                             + ") already registered");
         }
 
-        callbacks.setCallback(eventType, listener);
+        map.put(handle, callbacks.withCallback(eventType, listener));
     }
 
     private void sendIntent(BluetoothDevice device, String action,
@@ -195,18 +282,19 @@ public class OpenSpatialService extends Service {
 
     // Must *ONLY* be called when map is synchronized
     @Deprecated
-    private void unRegisterCallback(HashMap<BluetoothDevice, EventCallbacks> map,
+    private void unRegisterCallback(HandleMap<EventCallbacks> map,
                                     BluetoothDevice device,
                                     OpenSpatialEvent.EventType eventType)
             throws OpenSpatialException {
-        EventCallbacks callbacks = map.get(device);
+        int handle = mDeviceRegistry.getHandle(device);
+        EventCallbacks callbacks = map.get(handle);
         if (callbacks == null || callbacks.getCallback(eventType) == null) {
             throw new OpenSpatialException(OpenSpatialException.ErrorCode.DEVICE_NOT_REGISTERED,
                     "Bluetooth device " + device.getName() + " (" + device.getAddress() +
                             ") is not registered");
         }
 
-        callbacks.setCallback(eventType, null);
+        map.put(handle, callbacks.withCallback(eventType, null));
     }
 
     /**
@@ -228,7 +316,7 @@ public class OpenSpatialService extends Service {
         mIdentifier = identifier;
         mServiceCallback = cb;
 
-        setupFilters();
+        registerReceivers();
     }
 
     /**
@@ -243,16 +331,214 @@ public class OpenSpatialService extends Service {
      */
     public void initialize(String identifier, OpenSpatialInterface openSpatialInterface) {
         mIdentifier = identifier;
-        mServiceInterface = openSpatialInterface;
+        mClientInterface = openSpatialInterface;
+        updateServiceInterface();
+
+        registerReceivers();
+    }
+
+    /**
+     * Receive and decode OpenSpatial data, command responses and device events on a dedicated
+     * background thread instead of the main thread, so that high rate sensor traffic does not
+     * compete with rendering and input. Unless a callback executor is set with
+     * {@link #setCallbackExecutor(Executor)}, {@link OpenSpatialInterface} callbacks and all
+     * data listeners are called on that thread too.
+     */
+    public void startReceiveThread() {
+        if (mReceiveThread != null) {
+            return;
+        }
+
+        HandlerThread thread = new HandlerThread(RECEIVE_THREAD_NAME,
+                Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+
+        setReceiveMode(new Handler(thread.getLooper()), thread, null);
+    }
+
+    /**
+     * Receive and decode OpenSpatial intents on the thread of {@code handler}.
+     * @param handler The {@link Handler} whose thread receives the intents, or null to receive
+     *                them on the main thread, which is the default.
+     */
+    public void setReceiveHandler(Handler handler) {
+        setReceiveMode(handler, null, null);
+    }
+
+    /**
+     * Decode OpenSpatial intents on {@code executor}. Intents are still received on the main
+     * thread but are handed to the executor straight away. The executor must run tasks one at a
+     * time and in order, for example one returned by
+     * {@link java.util.concurrent.Executors#newSingleThreadExecutor()}.
+     * @param executor The {@link Executor} that decodes the intents, or null to decode them on
+     *                 the main thread, which is the default.
+     */
+    public void setReceiveExecutor(Executor executor) {
+        setReceiveMode(null, null, executor);
+    }
+
+    /**
+     * Make {@link OpenSpatialInterface} callbacks on {@code executor} rather than on the thread
+     * the data was decoded on. The visitor, view, batch and frame listeners are always called on
+     * the decoding thread since their arguments are reused.
+     * @param executor The {@link Executor} to make callbacks on, or null to make them on the
+     *                 decoding thread.
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mCallbackExecutor = executor;
+        updateServiceInterface();
+    }
+
+    /**
+     * Add a client that receives the same callbacks as the {@link OpenSpatialInterface} passed to
+     * {@link #initialize(String, OpenSpatialInterface)}, but only the {@link OpenSpatialData} of
+     * the given {@link DataType}s. Every packet is decoded once no matter how many clients there
+     * are. Data that goes to more than one client or listener is not pooled, so that no recipient
+     * can release it while the others still use it.
+     *
+     * Each client is called on its own {@code executor}, so a slow client does not hold up the
+     * others. Pass null to give the client a dedicated thread; if it falls more than 256
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)} callbacks behind, further data
+     * is dropped until it catches up. Connection changes and command responses are never dropped.
+     * @param client The client to add. Adding a client again replaces its filter and executor.
+     * @param dataTypes The {@link DataType}s to pass to
+     *                  {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}.
+     * @param executor The {@link Executor} to call the client on, or null for a dedicated thread.
+     */
+    public void addClient(OpenSpatialInterface client, Set<DataType> dataTypes, Executor executor) {
+        if (client == null) {
+            throw new IllegalArgumentException("Null client!");
+        }
+        if (dataTypes == null) {
+            throw new IllegalArgumentException("Null dataTypes!");
+        }
+
+        ExecutorService ownedExecutor = null;
+        int maxPendingData = 0;
+        if (executor == null) {
+            // Unbounded, so that no control callback is lost; data is bounded by the interface
+            ownedExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, CLIENT_THREAD_NAME);
+                        }
+                    });
+            executor = ownedExecutor;
+            maxPendingData = CLIENT_QUEUE_CAPACITY;
+        }
+
+        ClientFanout.Client added = new ClientFanout.Client(client,
+                new ExecutorOpenSpatialInterface(client, executor, maxPendingData),
+                dataTypes,
+                ownedExecutor);
+
+        synchronized (this) {
+            removeClientLocked(client);
+
+            ClientFanout.Client[] clients = Arrays.copyOf(mClients, mClients.length + 1);
+            clients[mClients.length] = added;
+            mClients = clients;
+
+            updateServiceInterface();
+        }
+    }
+
+    /**
+     * Remove a client added with {@link #addClient(OpenSpatialInterface, Set, Executor)}.
+     * Callbacks already handed to its executor may still be made.
+     * @param client The client to remove.
+     * @return Whether {@code client} had been added.
+     */
+    public boolean removeClient(OpenSpatialInterface client) {
+        synchronized (this) {
+            if (!removeClientLocked(client)) {
+                return false;
+            }
+
+            updateServiceInterface();
+            return true;
+        }
+    }
+
+    private boolean removeClientLocked(OpenSpatialInterface client) {
+        for (int i = 0; i < mClients.length; i++) {
+            ClientFanout.Client c = mClients[i];
+            if (c.client == client) {
+                ClientFanout.Client[] clients = new ClientFanout.Client[mClients.length - 1];
+                System.arraycopy(mClients, 0, clients, 0, i);
+                System.arraycopy(mClients, i + 1, clients, i, mClients.length - i - 1);
+                mClients = clients;
+
+                if (c.ownedExecutor != null) {
+                    c.ownedExecutor.shutdown();
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
 
-        setupFilters();
+    private synchronized void updateServiceInterface() {
+        OpenSpatialInterface primary = mClientInterface;
+        if (primary != null && mCallbackExecutor != null) {
+            primary = new ExecutorOpenSpatialInterface(primary, mCallbackExecutor);
+        }
+
+        if (mClients.length > 0) {
+            mServiceInterface = new ClientFanout(primary, mClients);
+        } else {
+            mServiceInterface = primary;
+        }
+    }
+
+    private void setReceiveMode(Handler handler, HandlerThread thread, Executor executor) {
+        HandlerThread oldThread = mReceiveThread;
+
+        mReceiveHandler = handler;
+        mReceiveThread = thread;
+        mReceiveExecutor = executor;
+
+        if (mReceiversRegistered) {
+            unregisterReceivers();
+            registerReceivers();
+        }
+
+        if (oldThread != null && oldThread != thread) {
+            oldThread.quitSafely();
+        }
     }
 
-    private void setupFilters() {
+    /**
+     * Run {@code runnable} on the thread that decodes data, or right away when data is decoded
+     * on the main thread.
+     */
+    private void runOnReceiveThread(Runnable runnable) {
+        Handler handler = mReceiveHandler;
+        Executor executor = mReceiveExecutor;
+
+        if (handler != null) {
+            handler.post(runnable);
+        } else if (executor != null) {
+            executor.execute(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private void unregisterReceivers() {
+        unregisterReceiver(mEventReceiver);
+        unregisterReceiver(mResultReceiver);
+        mReceiversRegistered = false;
+    }
+
+    private void registerReceivers() {
         // Register for registration event results
         IntentFilter filter = new IntentFilter();
         filter.addAction(OpenSpatialConstants.OPENSPATIAL_REGISTRATION_CHANGE_ATTEMPT_EVENT_RESULT);
-        registerReceiver(mResultReceiver, filter);
+        registerReceiver(mResultReceiver, filter, null, mReceiveHandler);
 
         IntentFilter connectedDevicesfilter = new IntentFilter();
         connectedDevicesfilter.addAction(
@@ -263,11 +549,14 @@ public class OpenSpatialService extends Service {
                 OpenSpatialConstants.OPENSPATIAL_EVENT_INTENT_ACTION);
         connectedDevicesfilter.addAction(
                 OpenSpatialConstants.OPENSPATIAL_DATA_INTENT_ACTION);
+        connectedDevicesfilter.addAction(
+                OpenSpatialConstants.OPENSPATIAL_PACKET_RING_INTENT_ACTION);
         connectedDevicesfilter.addAction(
                 OpenSpatialConstants.OPENSPATIAL_RESPONSE_INTENT_ACTION);
         connectedDevicesfilter.addAction(
                 OpenSpatialConstants.OPENSPATIAL_DEVICE_INFO_INTENT_ACTION);
-        registerReceiver(mEventReceiver, connectedDevicesfilter);
+        registerReceiver(mEventReceiver, connectedDevicesfilter, null, mReceiveHandler);
+        mReceiversRegistered = true;
     }
 
     private void sendOpenSpatialControlCommand(BluetoothDevice device,
@@ -275,36 +564,627 @@ public class OpenSpatialService extends Service {
                                                byte dataType,
                                                byte index,
                                                int... arguments) {
+        byte[] dataPayload = new byte[CommandBatch.getCommandLength(arguments.length)];
+        CommandBatch.encode(dataPayload, 0, command, dataType, index, arguments);
+        sendOpenSpatialControlCommand(device, dataPayload);
+    }
+
+    private void sendOpenSpatialControlCommand(BluetoothDevice device, byte[] dataPayload) {
         Intent intent = new Intent();
         intent.setAction(OpenSpatialConstants.OPENSPATIAL_COMMAND_INTENT_ACTION);
 
         intent.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+        intent.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, dataPayload);
+
+        sendBroadcast(intent);
+    }
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(new byte[3 + 2 * arguments.length]);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Send every command of {@code batch} to {@code device}. The response to each command is
+     * passed to the same {@link OpenSpatialInterface} callback as if the command had been sent on
+     * its own. The commands go in a single intent if the connector announced it understands
+     * {@link OpenSpatialConstants#OPENSPATIAL_COMMAND_BATCH} when the device connected, otherwise
+     * each is sent in an intent of its own.
+     * @param device The device to send the commands to.
+     * @param batch The {@link CommandBatch} to send. It can be cleared and reused afterwards.
+     */
+    public void sendCommandBatch(BluetoothDevice device, CommandBatch batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("Null batch!");
+        }
 
-        byteBuffer.put(command);
-        byteBuffer.put(dataType);
-        byteBuffer.put(index);
+        if (batch.getCommandCount() == 0) {
+            return;
+        }
 
-        for (int arg : arguments) {
-            byteBuffer.putShort(Integer.valueOf(arg).shortValue());
+        byte[] frames = batch.toByteArray();
+        if (mCommandBatching.get(mDeviceRegistry.getHandle(device)) == null) {
+            int offset = 0;
+            while (offset < frames.length) {
+                int length = frames[offset++] & 0xff;
+                sendOpenSpatialControlCommand(device,
+                        Arrays.copyOfRange(frames, offset, offset + length));
+                offset += length;
+            }
+            return;
         }
 
-        byte[] dataPayload = byteBuffer.array();
-        intent.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, dataPayload);
+        Intent intent = new Intent();
+        intent.setAction(OpenSpatialConstants.OPENSPATIAL_COMMAND_INTENT_ACTION);
+
+        intent.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+        intent.putExtra(OpenSpatialConstants.OPENSPATIAL_COMMAND_BATCH, frames);
 
         sendBroadcast(intent);
     }
 
+    /**
+     * Decode inbound data straight in to {@code visitor} instead of delivering
+     * {@link OpenSpatialData} objects to
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}.
+     * No objects are allocated per sample while a visitor is set.
+     * @param visitor The {@link OpenSpatialDataVisitor} to receive decoded records, or null to go
+     *                back to delivering {@link OpenSpatialData} objects.
+     */
+    public void setDataVisitor(OpenSpatialDataVisitor visitor) {
+        mDataVisitor = visitor;
+    }
+
+    /**
+     * Deliver inbound data as lazy {@link OpenSpatialDataView}s over the received packet. Each view
+     * only decodes the values that are asked for and is valid until the next packet arrives; use
+     * {@link OpenSpatialDataView#copy()} to retain a record. While a view listener is set it
+     * receives every record instead of the visitor, the batch and frame listeners and
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}.
+     * @param listener The {@link OpenSpatialDataView.Listener} to receive the views, or null to go
+     *                 back to the other delivery modes.
+     */
+    public void setDataViewListener(OpenSpatialDataView.Listener listener) {
+        mDataViewListener = listener;
+    }
+
+    /**
+     * Opt in to pooled {@link OpenSpatialData}. While pooling is enabled the data passed to
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)} is taken from a bounded,
+     * per-device {@link OpenSpatialDataPool}. Clients should call
+     * {@link OpenSpatialData#release()} once they are done with each instance so that it can be
+     * reused; data that is never released is simply garbage collected. In debuggable apps
+     * released data is checked instead of reused, see
+     * {@link OpenSpatialDataPool#isDebugChecksEnabled()}.
+     * @param capacity The maximum number of free instances kept per device and
+     *                 {@link DataType}, or 0 to disable pooling.
+     */
+    public void setDataPoolCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative pool capacity!");
+        }
+
+        synchronized (mDataPools) {
+            mDataPoolCapacity = capacity;
+            mDataPools.clear();
+            mDataPoolGeneration++;
+        }
+    }
+
+    /**
+     * Get the handle of the specified {@code device}. Handles are small integers assigned in order
+     * starting at 0 when a device is first seen, and a device keeps its handle when it reconnects,
+     * so they can be used to index arrays of per-device state. Data delivered by the service
+     * carries the handle of its device, see {@link OpenSpatialData#getDeviceHandle()}.
+     * @param device The device of interest.
+     * @return The handle of {@code device}, or {@link OpenSpatialConstants#NO_DEVICE_HANDLE} if
+     * the service has not seen it yet.
+     */
+    public int getDeviceHandle(BluetoothDevice device) {
+        return mDeviceRegistry.getHandle(device);
+    }
+
+    /**
+     * Get the device with the specified {@code handle}.
+     * @param handle A handle returned by {@link #getDeviceHandle(BluetoothDevice)}.
+     * @return The device, or null if no device has {@code handle}.
+     */
+    public BluetoothDevice getDevice(int handle) {
+        return mDeviceRegistry.getDevice(handle);
+    }
+
+    /**
+     * Get the {@link UnitConverter} for the specified {@code device}. Visitors set through
+     * {@link #setDataVisitor(OpenSpatialDataVisitor)} receive raw sensor readings and can use it to
+     * convert them in to physical units.
+     * @param device The device of interest.
+     * @return The {@link UnitConverter} of {@code device}.
+     */
+    public UnitConverter getUnitConverter(BluetoothDevice device) {
+        return mEventFactory.getUnitConverter(device);
+    }
+
+    /**
+     * Get the counters of decoded and malformed packets and command responses. Malformed input is
+     * counted there instead of being logged.
+     * @return The {@link DecodeStats} of this service.
+     */
+    public DecodeStats getDecodeStats() {
+        return mEventFactory.getDecodeStats();
+    }
+
+    /**
+     * Record how long data takes from the device to the client in {@link LatencyStats}. This is
+     * off by default.
+     * @param enabled Whether latencies are recorded.
+     */
+    public void setLatencyTrackingEnabled(boolean enabled) {
+        mLatencyTrackingEnabled = enabled;
+    }
+
+    /**
+     * Get a snapshot of the latencies recorded since latency tracking was enabled or last reset.
+     * Data that waits in a {@link DispatchLane} or for {@link #deliverPendingData()} is only
+     * measured over {@link LatencyStats.Stage#DISPATCH_TO_CALLBACK_RETURN}.
+     * @return A {@link LatencyStats} that does not change any more.
+     * @see #setLatencyTrackingEnabled(boolean)
+     */
+    public LatencyStats getLatencyStats() {
+        return mLatencyStats.snapshot();
+    }
+
+    /**
+     * Clear every latency recorded so far.
+     */
+    public void resetLatencyStats() {
+        mLatencyStats.reset();
+    }
+
+    /**
+     * Get a snapshot of the throughput and health counters of this service: packets and records
+     * per device and {@link DataType}, decode time, malformed input, dropped and conflated
+     * records, and asynchronous command round trips.
+     * @return A {@link ServiceStats} that does not change any more.
+     */
+    public ServiceStats getStats() {
+        long dropped = 0;
+        LaneDispatcher laneDispatcher = mLaneDispatcher;
+        if (laneDispatcher != null) {
+            dropped = laneDispatcher.getPriorityLane().getDroppedCount()
+                    + laneDispatcher.getBulkLane().getDroppedCount();
+        }
+        dropped += mDeliveryScheduler.getDroppedCount();
+
+        return new ServiceStats(System.nanoTime() - mStatsResetTime,
+                mTraffic.snapshot(),
+                mEventFactory.getDecodeStats(),
+                dropped,
+                mDeliveryScheduler.getConflatedCount(),
+                mCommandTracker.getOutstandingCount(),
+                mCommandTracker.getTimedOutCount(),
+                mCommandTracker.getRoundTrips(),
+                mStreams.getSuppressedCommandCount());
+    }
+
+    /**
+     * Set the listener notified when records of a {@link DataType} arrive later than expected.
+     * Gaps are counted in {@link ServiceStats} whether a listener is set or not.
+     * @param listener The {@link StreamGapListener} to notify, or null to notify none.
+     */
+    public void setStreamGapListener(StreamGapListener listener) {
+        mTraffic.setGapListener(listener);
+    }
+
+    /**
+     * Reset the counters reported by {@link #getStats()}. This also resets the
+     * {@link DecodeStats} of the service and the counters of its {@link DispatchLane}s.
+     */
+    public void resetStats() {
+        mStatsResetTime = System.nanoTime();
+        mTraffic.reset();
+        mEventFactory.getDecodeStats().reset();
+        mDeliveryScheduler.resetConflatedCount();
+        mDeliveryScheduler.resetDroppedCount();
+        mCommandTracker.resetStats();
+        mStreams.resetSuppressedCommandCount();
+
+        LaneDispatcher laneDispatcher = mLaneDispatcher;
+        if (laneDispatcher != null) {
+            laneDispatcher.getPriorityLane().resetStats();
+            laneDispatcher.getBulkLane().resetStats();
+        }
+    }
+
+    /**
+     * Get the {@link OpenSpatialDataPool} used for the specified {@code device}. The pool's
+     * counters can be used to size it.
+     * @param device The device whose pool is requested.
+     * @return The pool for {@code device}, or null if pooling is disabled or no data has been
+     * received from {@code device} yet.
+     */
+    public OpenSpatialDataPool getDataPool(BluetoothDevice device) {
+        return mDataPools.get(mDeviceRegistry.getHandle(device));
+    }
+
+    private OpenSpatialDataPool obtainDataPool(int handle) {
+        OpenSpatialDataPool pool = mDataPools.get(handle);
+        if (pool != null) {
+            return pool;
+        }
+
+        synchronized (mDataPools) {
+            if (mDataPoolCapacity == 0) {
+                return null;
+            }
+
+            pool = mDataPools.get(handle);
+            if (pool == null) {
+                pool = new OpenSpatialDataPool(mDeviceRegistry.getDevice(handle),
+                        mDataPoolCapacity);
+                mDataPools.put(handle, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    /**
+     * Deliver {@link DataType#RAW_ACCELEROMETER}, {@link DataType#RAW_GYRO} and
+     * {@link DataType#RAW_COMPASS} samples in column oriented {@link SensorBatch}es instead of
+     * one {@link OpenSpatialData} per sample. A batch is delivered each time it fills up or when
+     * {@link #flushSensorBatches()} is called. All other data is delivered as before.
+     * @param capacity The number of samples per {@link SensorBatch}.
+     * @param listener The {@link SensorBatch.Listener} to receive the batches, or null to stop
+     *                 batching.
+     */
+    public void setSensorBatchListener(int capacity, SensorBatch.Listener listener) {
+        flushSensorBatches();
+
+        mSensorBatchCollector = listener != null
+                ? new SensorBatchCollector(capacity, listener, mDeviceRegistry)
+                : null;
+    }
+
+    /**
+     * Deliver every partially filled {@link SensorBatch} to the listener set with
+     * {@link #setSensorBatchListener(int, SensorBatch.Listener)}.
+     */
+    public void flushSensorBatches() {
+        final SensorBatchCollector batchCollector = mSensorBatchCollector;
+        if (batchCollector != null) {
+            runOnReceiveThread(new Runnable() {
+                @Override
+                public void run() {
+                    batchCollector.flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deliver continuous data as one {@link SensorFrame} per group of related records that a
+     * device sampled together, instead of one {@link OpenSpatialData} per record.
+     * {@link DataType#BUTTON}, {@link DataType#GESTURE} and {@link DataType#SLIDER} data is
+     * delivered as before. When sensor batching is enabled with
+     * {@link #setSensorBatchListener(int, SensorBatch.Listener)} raw sensor samples are batched
+     * rather than framed.
+     * @param listener The {@link SensorFrame.Listener} to receive the frames, or null to stop
+     *                 assembling frames.
+     */
+    public void setSensorFrameListener(SensorFrame.Listener listener) {
+        mSensorFrameAssembler = listener != null ? new SensorFrameAssembler(listener) : null;
+    }
+
+    /**
+     * Subscribe to typed data. Unlike {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)},
+     * each listener only receives the {@link DataType} it is declared for, and no
+     * {@link OpenSpatialData} objects are created for data types that have neither a listener nor
+     * an {@link OpenSpatialInterface}. Listeners are called on the same thread as
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}.
+     * @param device The device to receive data from, or null to receive data from every device.
+     * @param listener The listener to add. Adding a listener twice has no effect.
+     */
+    public void addEulerListener(BluetoothDevice device, EulerData.Listener listener) {
+        mDataListeners.add(device, DataType.EULER_ANGLES, listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addEulerListener(BluetoothDevice, EulerData.Listener)}.
+     * @param device The device the listener was added for, or null.
+     * @param listener The listener to remove.
+     * @return false if the listener was not registered for {@code device}.
+     */
+    public boolean removeEulerListener(BluetoothDevice device, EulerData.Listener listener) {
+        return mDataListeners.remove(device, DataType.EULER_ANGLES, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addAccelerometerListener(BluetoothDevice device,
+                                         AccelerometerData.Listener listener) {
+        mDataListeners.add(device, DataType.RAW_ACCELEROMETER, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeAccelerometerListener(BluetoothDevice device,
+                                               AccelerometerData.Listener listener) {
+        return mDataListeners.remove(device, DataType.RAW_ACCELEROMETER, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addGyroscopeListener(BluetoothDevice device, GyroscopeData.Listener listener) {
+        mDataListeners.add(device, DataType.RAW_GYRO, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeGyroscopeListener(BluetoothDevice device,
+                                           GyroscopeData.Listener listener) {
+        return mDataListeners.remove(device, DataType.RAW_GYRO, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addCompassListener(BluetoothDevice device, CompassData.Listener listener) {
+        mDataListeners.add(device, DataType.RAW_COMPASS, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeCompassListener(BluetoothDevice device, CompassData.Listener listener) {
+        return mDataListeners.remove(device, DataType.RAW_COMPASS, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addTranslationListener(BluetoothDevice device, TranslationData.Listener listener) {
+        mDataListeners.add(device, DataType.TRANSLATIONS, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeTranslationListener(BluetoothDevice device,
+                                             TranslationData.Listener listener) {
+        return mDataListeners.remove(device, DataType.TRANSLATIONS, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addRelativeXYListener(BluetoothDevice device, RelativeXYData.Listener listener) {
+        mDataListeners.add(device, DataType.RELATIVE_XY, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeRelativeXYListener(BluetoothDevice device,
+                                            RelativeXYData.Listener listener) {
+        return mDataListeners.remove(device, DataType.RELATIVE_XY, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addAnalogListener(BluetoothDevice device, AnalogData.Listener listener) {
+        mDataListeners.add(device, DataType.ANALOG, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeAnalogListener(BluetoothDevice device, AnalogData.Listener listener) {
+        return mDataListeners.remove(device, DataType.ANALOG, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addButtonListener(BluetoothDevice device, ButtonData.Listener listener) {
+        mDataListeners.add(device, DataType.BUTTON, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeButtonListener(BluetoothDevice device, ButtonData.Listener listener) {
+        return mDataListeners.remove(device, DataType.BUTTON, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addGestureListener(BluetoothDevice device, GestureData.Listener listener) {
+        mDataListeners.add(device, DataType.GESTURE, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeGestureListener(BluetoothDevice device, GestureData.Listener listener) {
+        return mDataListeners.remove(device, DataType.GESTURE, listener);
+    }
+
+    /**
+     * @see #addEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public void addSliderListener(BluetoothDevice device, SliderData.Listener listener) {
+        mDataListeners.add(device, DataType.SLIDER, listener);
+    }
+
+    /**
+     * @see #removeEulerListener(BluetoothDevice, EulerData.Listener)
+     */
+    public boolean removeSliderListener(BluetoothDevice device, SliderData.Listener listener) {
+        return mDataListeners.remove(device, DataType.SLIDER, listener);
+    }
+
+    /**
+     * Set how records of {@code dataType} are delivered to
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}. With
+     * {@link DeliveryPolicy#QUEUE} or {@link DeliveryPolicy#CONFLATE} records are held until
+     * {@link #deliverPendingData()} is called, so continuous data such as
+     * {@link DataType#EULER_ANGLES} can be delivered once per rendered frame instead of once per
+     * sample. At most 4096 {@link DeliveryPolicy#QUEUE}d records are held between two calls of
+     * {@link #deliverPendingData()}; later records are dropped and counted in
+     * {@link ServiceStats#getDroppedRecordCount()}.
+     * @param dataType The {@link DataType} to configure.
+     * @param policy The {@link DeliveryPolicy} to use for {@code dataType}.
+     * @throws IllegalArgumentException if {@code policy} is {@link DeliveryPolicy#CONFLATE} and
+     * {@code dataType} is a discrete type.
+     */
+    public void setDeliveryPolicy(DataType dataType, DeliveryPolicy policy) {
+        mDeliveryScheduler.setPolicy(dataType, policy);
+    }
+
+    /**
+     * @param dataType The {@link DataType} of interest.
+     * @return The {@link DeliveryPolicy} used for {@code dataType}.
+     */
+    public DeliveryPolicy getDeliveryPolicy(DataType dataType) {
+        return mDeliveryScheduler.getPolicy(dataType);
+    }
+
+    /**
+     * Deliver every record held back by a {@link DeliveryPolicy#QUEUE} or
+     * {@link DeliveryPolicy#CONFLATE} policy to
+     * {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}. Queued records are delivered
+     * first, in the order they were received, followed by the latest value of each conflated
+     * {@link DataType} per device. Call this once per tick, for example from a
+     * {@code Choreographer} frame callback, on the thread the data should be delivered on.
+     */
+    public void deliverPendingData() {
+        if (mServiceInterface == null && mDataListeners.isEmpty()) {
+            return;
+        }
+
+        synchronized (mPendingDataDispatcher) {
+            // Pools may have been replaced since the last tick
+            mPendingDataDispatcher.prepare(DeviceRegistry.NO_HANDLE);
+            mDeliveryScheduler.deliverPending(mPendingDataDispatcher);
+        }
+    }
+
+    /**
+     * Dispatch decoded data through two {@link DispatchLane}s on a dedicated dispatch thread, so
+     * that discrete input ({@link DataType#BUTTON}, {@link DataType#GESTURE} and
+     * {@link DataType#SLIDER}) is delivered before any continuous data still waiting to be
+     * delivered. Each lane's statistics show how long its records waited.
+     *
+     * Data delivered immediately to {@link OpenSpatialInterface#onDataReceived(OpenSpatialData)}
+     * and the typed data listeners then arrives on the dispatch thread, or on the executor set
+     * with {@link #setCallbackExecutor(Executor)}. Pass null for both lanes to dispatch on the
+     * receiving thread again; records still waiting are dropped.
+     * @param priorityLane The lane for discrete input.
+     * @param bulkLane The lane for every other {@link DataType}.
+     */
+    public void setDispatchLanes(DispatchLane priorityLane, DispatchLane bulkLane) {
+        if ((priorityLane == null) != (bulkLane == null)) {
+            throw new IllegalArgumentException("Both lanes must be set or null!");
+        }
+        if (priorityLane != null && priorityLane == bulkLane) {
+            throw new IllegalArgumentException("Lanes must be distinct!");
+        }
+
+        LaneDispatcher laneDispatcher = null;
+        if (priorityLane != null) {
+            laneDispatcher = new LaneDispatcher(priorityLane, bulkLane, new DataDispatcher());
+            laneDispatcher.start();
+        }
+
+        LaneDispatcher oldLaneDispatcher;
+        synchronized (this) {
+            oldLaneDispatcher = mLaneDispatcher;
+            mLaneDispatcher = laneDispatcher;
+        }
+
+        if (oldLaneDispatcher != null) {
+            oldLaneDispatcher.stop();
+        }
+    }
+
+    /**
+     * @return The lane used for discrete input, or null if dispatch lanes are not enabled.
+     */
+    public DispatchLane getPriorityDispatchLane() {
+        LaneDispatcher laneDispatcher = mLaneDispatcher;
+        return laneDispatcher != null ? laneDispatcher.getPriorityLane() : null;
+    }
+
+    /**
+     * @return The lane used for continuous data, or null if dispatch lanes are not enabled.
+     */
+    public DispatchLane getBulkDispatchLane() {
+        LaneDispatcher laneDispatcher = mLaneDispatcher;
+        return laneDispatcher != null ? laneDispatcher.getBulkLane() : null;
+    }
+
+    /**
+     * Receive the data packets of {@code device} through {@code ring} in addition to data
+     * intents. The producer writes packets in to the ring and only sends
+     * {@link OpenSpatialConstants#OPENSPATIAL_PACKET_RING_INTENT_ACTION} when
+     * {@link PacketRing#takeWakeUpRequest()} asks it to, so a busy stream costs no broadcasts.
+     * Packets are decoded on the receive thread, straight out of the ring.
+     * @param device The device whose packets are written in to the ring.
+     * @param ring The {@link PacketRing} this service consumes, or null to stop reading the ring
+     *             of {@code device}.
+     */
+    public void attachPacketRing(BluetoothDevice device, PacketRing ring) {
+        if (device == null) {
+            throw new IllegalArgumentException("Null device!");
+        }
+
+        int handle = mDeviceRegistry.obtainHandle(device);
+        if (ring == null) {
+            mPacketRings.remove(handle);
+            return;
+        }
+
+        mPacketRings.put(handle, ring);
+        // Read what is already waiting and ask for the first wake-up
+        wakeUpPacketRing(device);
+    }
+
+    /**
+     * Read the packets waiting in the {@link PacketRing} of {@code device} on the receive thread.
+     * For producers in the same process, such as a {@link LoopbackPacketProducer}; other
+     * producers send {@link OpenSpatialConstants#OPENSPATIAL_PACKET_RING_INTENT_ACTION}. When
+     * data is decoded on the main thread this must be called on the main thread.
+     * @param device The device whose ring to read.
+     */
+    public void wakeUpPacketRing(final BluetoothDevice device) {
+        if (device == null) {
+            throw new IllegalArgumentException("Null device!");
+        }
+
+        runOnReceiveThread(new Runnable() {
+            @Override
+            public void run() {
+                drainPacketRing(device);
+            }
+        });
+    }
+
     /**
      * Enable data reporting for {@link net.openspatial.OpenSpatialData} from the specified
-     * {@code device}.
+     * {@code device}. Nothing is sent if the device confirmed the stream is enabled already. The
+     * stream is enabled again whenever the device reconnects, until it is disabled. The streams
+     * of a device that reconnects are restored with a single {@link CommandBatch}.
      * @param device The device to listen for {@code OpenSpatialData} from. This is an instance of
      *               {@link BluetoothDevice}.
      * @param dataType The {@link net.openspatial.DataType} you want to receive.
      */
     public void enableData(BluetoothDevice device, DataType dataType) {
+        int handle = getCommandHandle(device);
+        if (handle != DeviceRegistry.NO_HANDLE && !mStreams.requestEnable(handle, dataType)) {
+            return;
+        }
+
         sendOpenSpatialControlCommand(device,
                 CommandType.ENABLE.getValue(),
                 dataType.getValue(),
@@ -312,28 +1192,113 @@ public class OpenSpatialService extends Service {
     }
 
     /**
-     * Disable data reporting for {@link net.openspatial.OpenSpatialData} from the specified
-     * {@code device}.
-     * @param device The device you no longer wish to receive {@link OpenSpatialData} from.
-     * @param dataType The {@link net.openspatial.DataType} you no longer wish to receive.
+     * Enable data reporting for several {@link DataType}s at once. The commands are sent as a
+     * single {@link CommandBatch} and each is answered with
+     * {@link OpenSpatialInterface#onDataEnabledResponse}. Streams the device confirmed are enabled
+     * already are left out.
+     * Connectors that do not understand command batches get one command per
+     * {@link DataType}, see {@link #sendCommandBatch(BluetoothDevice, CommandBatch)}.
+     * @param device The device to receive {@link OpenSpatialData} from.
+     * @param dataTypes The {@link DataType}s you want to receive.
+     */
+    public void enableData(BluetoothDevice device, EnumSet<DataType> dataTypes) {
+        int handle = getCommandHandle(device);
+
+        CommandBatch batch = new CommandBatch();
+        for (DataType dataType : dataTypes) {
+            if (handle == DeviceRegistry.NO_HANDLE || mStreams.requestEnable(handle, dataType)) {
+                batch.enableData(dataType);
+            }
+        }
+
+        sendCommandBatch(device, batch);
+    }
+
+    /**
+     * Disable data reporting for {@link net.openspatial.OpenSpatialData} from the specified
+     * {@code device}. Nothing is sent if the device confirmed the stream is disabled already.
+     * @param device The device you no longer wish to receive {@link OpenSpatialData} from.
+     * @param dataType The {@link net.openspatial.DataType} you no longer wish to receive.
+     */
+    public void disableData(BluetoothDevice device, DataType dataType) {
+        int handle = getCommandHandle(device);
+        if (handle != DeviceRegistry.NO_HANDLE && !mStreams.requestDisable(handle, dataType)) {
+            return;
+        }
+
+        sendOpenSpatialControlCommand(device,
+                CommandType.DISABLE.getValue(),
+                dataType.getValue(),
+                (byte) 0);
+    }
+
+    /**
+     * Disable data reporting for several {@link DataType}s at once. The commands are sent as a
+     * single {@link CommandBatch} and each is answered with
+     * {@link OpenSpatialInterface#onDataDisabledResponse}. Streams the device confirmed are
+     * disabled already are left out.
+     * Connectors that do not understand command batches get one command per
+     * {@link DataType}, see {@link #sendCommandBatch(BluetoothDevice, CommandBatch)}.
+     * @param device The device you no longer wish to receive {@link OpenSpatialData} from.
+     * @param dataTypes The {@link DataType}s you no longer wish to receive.
+     */
+    public void disableData(BluetoothDevice device, EnumSet<DataType> dataTypes) {
+        int handle = getCommandHandle(device);
+
+        CommandBatch batch = new CommandBatch();
+        for (DataType dataType : dataTypes) {
+            if (handle == DeviceRegistry.NO_HANDLE || mStreams.requestDisable(handle, dataType)) {
+                batch.disableData(dataType);
+            }
+        }
+
+        sendCommandBatch(device, batch);
+    }
+
+    /**
+     * @return The {@link DataType}s {@code device} confirmed it is reporting.
+     */
+    public EnumSet<DataType> getEnabledData(BluetoothDevice device) {
+        return mStreams.getEnabled(mDeviceRegistry.getHandle(device));
+    }
+
+    /**
+     * @return The handle commands to {@code device} are tracked under, or
+     *         {@link DeviceRegistry#NO_HANDLE} for the emulator.
      */
-    public void disableData(BluetoothDevice device, DataType dataType) {
-        sendOpenSpatialControlCommand(device,
-                CommandType.DISABLE.getValue(),
-                dataType.getValue(),
-                (byte) 0);
+    private int getCommandHandle(BluetoothDevice device) {
+        return device != null ? mDeviceRegistry.obtainHandle(device) : DeviceRegistry.NO_HANDLE;
+    }
+
+    // Package private because it is used in tests
+    StreamSubscriptions getStreamSubscriptions() {
+        return mStreams;
     }
 
     /**
-     * Request the current value of a {@link DeviceParameter} an OpenSpatial device holds.
+     * Request the current value of a {@link DeviceParameter} an OpenSpatial device holds. Values
+     * held in the {@link ParameterCache} are reported without querying the device.
      * @param device The device whose {@link DeviceParameter} will be queried.
      * @param dataType The {@link net.openspatial.DataType} whose related {@link DeviceParameter}
      *                 is of interest.
      * @param deviceParameter The {@link DeviceParameter} you wish to query.
      */
-    public void getParameter(BluetoothDevice device,
-                             DataType dataType,
-                             DeviceParameter deviceParameter) {
+    public void getParameter(final BluetoothDevice device,
+                             final DataType dataType,
+                             final DeviceParameter deviceParameter) {
+        final short[] values = mParameterCache.getParameter(
+                getCommandHandle(device), dataType, deviceParameter);
+        if (values != null) {
+            runOnReceiveThread(new Runnable() {
+                @Override
+                public void run() {
+                    getCachedResponseTarget().onGetParameterResponse(device, dataType,
+                            deviceParameter, ResponseCode.OK, values);
+                }
+            });
+            return;
+        }
+
         sendOpenSpatialControlCommand(device,
                 CommandType.GET_PARAMETER.getValue(),
                 dataType.getValue(),
@@ -352,6 +1317,9 @@ public class OpenSpatialService extends Service {
                              DataType dataType,
                              DeviceParameter deviceParameter,
                              int newValue) {
+        mParameterCache.invalidateParameter(getCommandHandle(device), dataType,
+                deviceParameter);
+
         sendOpenSpatialControlCommand(device,
                 CommandType.SET_PARAMETER.getValue(),
                 dataType.getValue(),
@@ -360,16 +1328,30 @@ public class OpenSpatialService extends Service {
     }
 
     /**
-     * Get the minimum and maximum values that a given {@link DeviceParameter} can hold.
+     * Get the minimum and maximum values that a given {@link DeviceParameter} can hold. Ranges
+     * held in the {@link ParameterCache} are reported without querying the device.
      * @param device The device to listen for {@code OpenSpatialData} from. This is an instance of
      *               {@link BluetoothDevice}.
      * @param dataType The {@link net.openspatial.DataType} whose related {@link DeviceParameter}
      *                 is of interest.
      * @param deviceParameter The {@link DeviceParameter} you wish to query.
      */
-    public void getParameterRange(BluetoothDevice device,
-                                  DataType dataType,
-                                  DeviceParameter deviceParameter) {
+    public void getParameterRange(final BluetoothDevice device,
+                                  final DataType dataType,
+                                  final DeviceParameter deviceParameter) {
+        final short[] range = mParameterCache.getParameterRange(
+                getCommandHandle(device), dataType, deviceParameter);
+        if (range != null) {
+            runOnReceiveThread(new Runnable() {
+                @Override
+                public void run() {
+                    getCachedResponseTarget().onGetParameterRangeResponse(device, dataType,
+                            deviceParameter, ResponseCode.OK, range[0], range[1]);
+                }
+            });
+            return;
+        }
+
         sendOpenSpatialControlCommand(device,
                 CommandType.GET_PARAMETER_RANGE.getValue(),
                 dataType.getValue(),
@@ -377,22 +1359,151 @@ public class OpenSpatialService extends Service {
     }
 
     /**
-     * Get the human readable identifier of a given sensor.
+     * Get the human readable identifier of a given sensor. Identifiers held in the
+     * {@link ParameterCache} are reported without querying the device.
      * @param device The device to listen for {@code OpenSpatialData} from. This is an instance of
      *               {@link BluetoothDevice}.
      * @param dataType The {@link net.openspatial.DataType} whose sensor of the given {@code index}
      *                 you wish to know the name of.
      * @param index The index of the sensor whose identifier will be reported.
      */
-    public void getIdentifier(BluetoothDevice device,
-                                  DataType dataType,
-                                  byte index) {
+    public void getIdentifier(final BluetoothDevice device,
+                                  final DataType dataType,
+                                  final byte index) {
+        final String identifier = mParameterCache.getIdentifier(
+                getCommandHandle(device), dataType, index);
+        if (identifier != null) {
+            runOnReceiveThread(new Runnable() {
+                @Override
+                public void run() {
+                    getCachedResponseTarget().onGetIdentifierResponse(device, dataType, index,
+                            ResponseCode.OK, identifier);
+                }
+            });
+            return;
+        }
+
         sendOpenSpatialControlCommand(device,
                 CommandType.GET_IDENTIFIER.getValue(),
                 dataType.getValue(),
                 index);
     }
 
+    /**
+     * Like {@link #getParameter(BluetoothDevice, DataType, DeviceParameter)}, but returns a
+     * {@link CommandFuture} that completes with the response. Commands for different
+     * {@link DataType}s and {@link DeviceParameter}s can be in flight at the same time.
+     * {@link OpenSpatialInterface#onGetParameterResponse} is still called.
+     * @return The {@link CommandFuture} of the response.
+     * @throws IllegalArgumentException if {@code device} is
+     * {@link OpenSpatialConstants#EMULATOR_DEVICE}, whose responses cannot be tracked.
+     */
+    public CommandFuture getParameterAsync(BluetoothDevice device,
+                                           DataType dataType,
+                                           DeviceParameter deviceParameter) {
+        CommandFuture future = trackCommand(device, CommandType.GET_PARAMETER, dataType,
+                deviceParameter.getValue());
+        getParameter(device, dataType, deviceParameter);
+        return future;
+    }
+
+    /**
+     * Like {@link #setParameter(BluetoothDevice, DataType, DeviceParameter, int)}, but returns a
+     * {@link CommandFuture} that completes with the response.
+     * @return The {@link CommandFuture} of the response.
+     * @throws IllegalArgumentException if {@code device} is
+     * {@link OpenSpatialConstants#EMULATOR_DEVICE}.
+     */
+    public CommandFuture setParameterAsync(BluetoothDevice device,
+                                           DataType dataType,
+                                           DeviceParameter deviceParameter,
+                                           int newValue) {
+        CommandFuture future = trackCommand(device, CommandType.SET_PARAMETER, dataType,
+                deviceParameter.getValue());
+        setParameter(device, dataType, deviceParameter, newValue);
+        return future;
+    }
+
+    /**
+     * Like {@link #getParameterRange(BluetoothDevice, DataType, DeviceParameter)}, but returns a
+     * {@link CommandFuture} that completes with the response. Its values are the minimum and the
+     * maximum.
+     * @return The {@link CommandFuture} of the response.
+     * @throws IllegalArgumentException if {@code device} is
+     * {@link OpenSpatialConstants#EMULATOR_DEVICE}.
+     */
+    public CommandFuture getParameterRangeAsync(BluetoothDevice device,
+                                                DataType dataType,
+                                                DeviceParameter deviceParameter) {
+        CommandFuture future = trackCommand(device, CommandType.GET_PARAMETER_RANGE, dataType,
+                deviceParameter.getValue());
+        getParameterRange(device, dataType, deviceParameter);
+        return future;
+    }
+
+    /**
+     * Like {@link #getIdentifier(BluetoothDevice, DataType, byte)}, but returns a
+     * {@link CommandFuture} that completes with the response.
+     * @return The {@link CommandFuture} of the response.
+     * @throws IllegalArgumentException if {@code device} is
+     * {@link OpenSpatialConstants#EMULATOR_DEVICE}.
+     */
+    public CommandFuture getIdentifierAsync(BluetoothDevice device,
+                                            DataType dataType,
+                                            byte index) {
+        CommandFuture future = trackCommand(device, CommandType.GET_IDENTIFIER, dataType, index);
+        getIdentifier(device, dataType, index);
+        return future;
+    }
+
+    /**
+     * @return Where responses served from the {@link ParameterCache} are passed to, on the
+     *         receive thread, so they reach both {@link CommandFuture}s and the interface.
+     */
+    private OpenSpatialInterface getCachedResponseTarget() {
+        mCommandTracker.setDownstream(mServiceInterface);
+        return mCommandTracker;
+    }
+
+    /**
+     * @return The {@link ParameterCache} that answers repeated parameter, range and identifier
+     *         queries.
+     */
+    public ParameterCache getParameterCache() {
+        return mParameterCache;
+    }
+
+    private CommandFuture trackCommand(BluetoothDevice device,
+                                       CommandType commandType,
+                                       DataType dataType,
+                                       byte parameter) {
+        if (device == null) {
+            throw new IllegalArgumentException("Null device!");
+        }
+
+        // Tracked before sending so that even an immediate response finds its future
+        return mCommandTracker.track(mDeviceRegistry.obtainHandle(device), commandType, dataType,
+                parameter);
+    }
+
+    /**
+     * Set how long the asynchronous command methods wait for a response before their
+     * {@link CommandFuture} fails with a {@link java.util.concurrent.TimeoutException}. The
+     * default is 2 seconds. Applies to commands sent afterwards. An enable or disable command that
+     * gets no response within the timeout no longer keeps the same command from being sent again.
+     * @param timeoutMillis The timeout in milliseconds.
+     */
+    public void setCommandTimeout(long timeoutMillis) {
+        mCommandTracker.setTimeout(timeoutMillis);
+    }
+
+    /**
+     * @return The number of asynchronous commands still waiting for a response.
+     */
+    public int getOutstandingCommandCount() {
+        return mCommandTracker.getOutstandingCount();
+    }
+
     /**
      * Register for {@link net.openspatial.OpenSpatialEvent}s from the specified {@code device}
      * @param device The device to listen for {@code OpenSpatialEvent}s from. This is an instance of
@@ -456,7 +1567,7 @@ public class OpenSpatialService extends Service {
     public void queryDeviceInfo(BluetoothDevice device, String infoType)
             throws OpenSpatialException {
 
-        if (!mEventCallbacks.containsKey(device)) {
+        if (mEventCallbacks.get(mDeviceRegistry.getHandle(device)) == null) {
             throw new OpenSpatialException(OpenSpatialException.ErrorCode.DEVICE_NOT_REGISTERED,
                     "Attempted to query info for a device that is not registered!");
         }
@@ -514,9 +1625,17 @@ public class OpenSpatialService extends Service {
     void processEventIntent(Intent i) {
         OpenSpatialEvent event = i.getParcelableExtra(OpenSpatialConstants.OPENSPATIAL_EVENT);
 
-        if (event != null && mEventCallbacks.get(event.device) != null) {
-            OpenSpatialEvent.EventListener listener
-                    = mEventCallbacks.get(event.device).getCallback(event.eventType);
+        EventCallbacks callbacks = event != null
+                ? mEventCallbacks.get(mDeviceRegistry.getHandle(event.device))
+                : null;
+
+        if (callbacks != null) {
+            long receiptNanos = i.getLongExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, 0);
+            if (receiptNanos != 0) {
+                event.setReceiptNanos(receiptNanos);
+            }
+
+            OpenSpatialEvent.EventListener listener = callbacks.getCallback(event.eventType);
 
             if (listener == null) {
                 Log.e(TAG, "No listener registered for event type " +
@@ -536,39 +1655,230 @@ public class OpenSpatialService extends Service {
             return;
         }
 
-        byte[] data = i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA);
+        // A data intent carries either a single packet or a DataEnvelope of many
+        byte[] envelope = i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA_ENVELOPE);
+        byte[] data = envelope == null
+                ? i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA)
+                : null;
+        if (envelope == null && data == null) {
+            Log.e(TAG, "Got null data!");
+            return;
+        }
 
-        List<OpenSpatialData> dataList = mEventFactory.decodeOpenSpatialDataPacket(device, data);
+        // Packets that arrive together were received together
+        long receiptNanos = i.getLongExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, 0);
+        if (receiptNanos == 0) {
+            receiptNanos = System.nanoTime();
+        }
 
-        if (mServiceInterface == null) {
+        InboundDecoder decoder = prepareInboundDecoder(device);
+        if (decoder == null) {
             return;
         }
 
-        for (OpenSpatialData d: dataList) {
-            mServiceInterface.onDataReceived(d);
+        try {
+            decoder.setReceiptTime(receiptNanos);
+            if (envelope != null) {
+                boolean wellFormed = DataEnvelope.read(envelope, decoder);
+                mEventFactory.getDecodeStats().onEnvelope(!wellFormed);
+            } else {
+                decoder.onPacket(data, 0, data.length, 0, 0);
+            }
+        } finally {
+            decoder.finish();
         }
     }
 
-    void processOpenSpatialControlResponse(Intent i) {
+    /**
+     * Read every packet waiting in the {@link PacketRing} of {@code device}, then ask its
+     * producer for a wake-up. Must be called on the receive thread.
+     */
+    private void drainPacketRing(BluetoothDevice device) {
+        PacketRing ring = mPacketRings.get(mDeviceRegistry.getHandle(device));
+        if (ring == null) {
+            return;
+        }
+
+        do {
+            InboundDecoder decoder = prepareInboundDecoder(device);
+            PacketRing.Reader reader = decoder != null ? decoder : DISCARDING_READER;
+
+            try {
+                while (ring.read(reader, PACKET_RING_BATCH_SIZE) > 0) {
+                    // Read until the ring is empty
+                }
+            } finally {
+                if (decoder != null) {
+                    decoder.finish();
+                }
+            }
+        } while (!ring.prepareToWait());
+    }
+
+    // Drops the packets of a ring nobody is listening to
+    private static final PacketRing.Reader DISCARDING_READER = new PacketRing.Reader() {
+        @Override
+        public void onPacket(byte[] data, int offset, int length, long timestamp,
+                             long captureNanos) {
+        }
+    };
+
+    /**
+     * Build the chain of visitors data from {@code device} is decoded in to.
+     * @return {@link #mInboundDecoder} set up for {@code device}, or null if nobody will receive
+     *         the data.
+     */
+    private InboundDecoder prepareInboundDecoder(BluetoothDevice device) {
+        // Every record is reported with the canonical instance of the device, so per-device state
+        // further down can be found by identity instead of by hashing the address.
+        int handle = mDeviceRegistry.obtainHandle(device);
+        device = mDeviceRegistry.getDevice(handle);
+
+        OpenSpatialDataView.Listener viewListener = mDataViewListener;
+        if (viewListener != null) {
+            return mInboundDecoder.set(device, mTraffic.getStripe(handle), viewListener, null);
+        }
+
+        OpenSpatialDataVisitor visitor = mDataVisitor;
+        if (visitor == null && (mServiceInterface != null || !mDataListeners.isEmpty())) {
+            LaneDispatcher laneDispatcher = mLaneDispatcher;
+            if (laneDispatcher != null) {
+                visitor = laneDispatcher;
+            } else {
+                mDataDispatcher.prepare(handle);
+                visitor = mDataDispatcher;
+            }
+
+            if (mDeliveryScheduler.isDeferring()) {
+                mDeliveryScheduler.setDownstream(visitor);
+                visitor = mDeliveryScheduler;
+            }
+        }
+
+        SensorFrameAssembler frameAssembler = mSensorFrameAssembler;
+        if (frameAssembler != null) {
+            frameAssembler.setDownstream(visitor);
+            visitor = frameAssembler;
+        }
+
+        SensorBatchCollector batchCollector = mSensorBatchCollector;
+        if (batchCollector != null) {
+            batchCollector.setDownstream(visitor);
+            visitor = batchCollector;
+        }
+
+        if (visitor == null) {
+            return null;
+        }
+
+        return mInboundDecoder.set(device, mTraffic.getStripe(handle), null, visitor);
+    }
+
+    /**
+     * Decodes inbound packets of one device, whether they came in an intent, a
+     * {@link DataEnvelope} or a {@link PacketRing}. Records are passed to the view listener if it
+     * is set and to the visitor chain otherwise. Data built directly by {@link #mDataDispatcher}
+     * is stamped with the capture time of its packet and, for packets that came in an intent, the
+     * receipt time the intent reported; data that is queued first keeps the times it was
+     * delivered at.
+     */
+    private class InboundDecoder implements PacketRing.Reader {
+        private BluetoothDevice mDevice;
+        private TrafficCounters.Stripe mStripe;
+        private OpenSpatialDataView.Listener mViewListener;
+        private OpenSpatialDataVisitor mVisitor;
+        private long mReceiptTime;
+
+        InboundDecoder set(BluetoothDevice device,
+                           TrafficCounters.Stripe stripe,
+                           OpenSpatialDataView.Listener viewListener,
+                           OpenSpatialDataVisitor visitor) {
+            mDevice = device;
+            mStripe = stripe;
+            mViewListener = viewListener;
+            mVisitor = visitor;
+            return this;
+        }
+
+        @Override
+        public void onPacket(byte[] data, int offset, int length, long timestamp,
+                             long captureNanos) {
+            long start = System.nanoTime();
+
+            // Packets are timed and stamped as close to the radio as is known: by their capture
+            // time, else by the time their intent was received. Only monotonic times are used,
+            // since the wall clock can jump.
+            long receiptTime = captureNanos;
+            if (receiptTime == 0) {
+                receiptTime = mReceiptTime != 0 ? mReceiptTime : start;
+            }
+            mStripe.setArrivalTime(receiptTime);
+            mDataDispatcher.setReceiptTime(receiptTime);
+
+            if (mViewListener != null) {
+                mEventFactory.decodeOpenSpatialDataPacket(
+                        mDevice, data, offset, length, mViewListener, mStripe);
+            } else {
+                mDataDispatcher.setCaptureTime(timestamp);
+                mDataDispatcher.setDecodeTime(mLatencyTrackingEnabled ? start : 0);
+                mEventFactory.decodeOpenSpatialDataPacket(
+                        mDevice, data, offset, length, mVisitor, mStripe);
+            }
+
+            mStripe.onPacket(System.nanoTime() - start);
+        }
+
+        void setReceiptTime(long receiptNanos) {
+            mReceiptTime = receiptNanos;
+            mDataDispatcher.setReceiptTime(receiptNanos);
+        }
+
+        void finish() {
+            mDataDispatcher.setCaptureTime(0);
+            mDataDispatcher.setReceiptTime(0);
+            mReceiptTime = 0;
+            mDataDispatcher.setDecodeTime(0);
+            set(null, null, null, null);
+        }
+    }
+
+    void processPacketRingWakeUp(Intent i) {
         BluetoothDevice device = i.getParcelableExtra(OpenSpatialConstants.BLUETOOTH_DEVICE);
         if (device == null) {
             Log.e(TAG, "Got null device!");
             return;
         }
 
-        byte[] data = i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA);
+        drainPacketRing(device);
+    }
 
-        if (data == null) {
-            Log.e(TAG, "Got null data!");
+    void processOpenSpatialControlResponse(Intent i) {
+        BluetoothDevice device = i.getParcelableExtra(OpenSpatialConstants.BLUETOOTH_DEVICE);
+        if (device == null) {
+            Log.e(TAG, "Got null device!");
             return;
         }
 
-        if (mServiceInterface == null) {
-            Log.e(TAG, "Got null interface!");
+        // A response intent carries either a single response or the framed responses to a
+        // CommandBatch
+        byte[] batch = i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_RESPONSE_BATCH);
+        byte[] data = batch == null
+                ? i.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA)
+                : null;
+
+        if (batch == null && data == null) {
+            Log.e(TAG, "Got null data!");
             return;
         }
 
-        mEventFactory.decodeOpenSpatialCommandResponse(device, data, mServiceInterface);
+        // Responses complete the futures of asynchronous commands and update the stream states
+        // on their way to the interface, so they are decoded even without one
+        mCommandTracker.setDownstream(mServiceInterface);
+        if (batch != null) {
+            mEventFactory.decodeOpenSpatialCommandResponses(device, batch, mCommandTracker);
+        } else {
+            mEventFactory.decodeOpenSpatialCommandResponse(device, data, mCommandTracker);
+        }
     }
 
     private void processDeviceInfoReceipt(Intent i) {
@@ -581,17 +1891,38 @@ public class OpenSpatialService extends Service {
         }
     }
 
-    private void processDeviceConnectionIntent(Intent intent) {
+    // Package private because it is used in tests
+    void processDeviceConnectionIntent(Intent intent) {
         BluetoothDevice device = intent.getParcelableExtra(OpenSpatialConstants.BLUETOOTH_DEVICE);
         if (device == null) {
             Log.e(TAG, "Got device connected intent with no device");
             return;
         }
 
+        // Keeps the handle of a device that reconnects
+        int handle = mDeviceRegistry.obtainHandle(device);
+        device = mDeviceRegistry.getDevice(handle);
+
         if (intent.getAction().equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION)) {
-            if (!mEventCallbacks.containsKey(device)) {
-                mEventCallbacks.put(device, null);
+            synchronized (mEventCallbacks) {
+                if (mEventCallbacks.get(handle) == null) {
+                    mEventCallbacks.put(handle, EventCallbacks.EMPTY);
+                }
+            }
+
+            if (intent.getBooleanExtra(
+                    OpenSpatialConstants.OPENSPATIAL_COMMAND_BATCH_SUPPORTED, false)) {
+                mCommandBatching.put(handle, Boolean.TRUE);
+            } else {
+                mCommandBatching.remove(handle);
+            }
+
+            // Restore the streams clients wanted before the device went away
+            CommandBatch restore = new CommandBatch();
+            for (DataType dataType : mStreams.onConnected(handle)) {
+                restore.enableData(dataType);
             }
+            sendCommandBatch(device, restore);
 
             if (mServiceCallback != null) {
                 mServiceCallback.deviceConnected(device);
@@ -601,9 +1932,10 @@ public class OpenSpatialService extends Service {
                 mServiceInterface.onDeviceConnected(device);
             }
         } else if (intent.getAction().equals(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION)) {
-            if (!mEventCallbacks.containsKey(device)) {
-                mEventCallbacks.remove(device);
-            }
+            // A device may be reconfigured before it comes back
+            mParameterCache.invalidate(handle);
+            mStreams.onDisconnected(handle);
+            mTraffic.onDisconnected(handle);
 
             if (mServiceCallback != null) {
                 mServiceCallback.deviceDisconnected(device);
@@ -615,6 +1947,255 @@ public class OpenSpatialService extends Service {
         }
     }
 
+    /**
+     * Builds {@link OpenSpatialData} straight from the decoder, taking it from {@link #mPool}
+     * when pooling is enabled and the data has a single recipient, and hands it to the registered
+     * {@link OpenSpatialInterface}.
+     */
+    private class DataDispatcher implements OpenSpatialDataVisitor {
+        private int mHandle = DeviceRegistry.NO_HANDLE;
+        private BluetoothDevice mDevice;
+        private OpenSpatialDataPool mPool;
+        // The mDataPoolGeneration mPool was taken in
+        private int mPoolGeneration;
+        // mPool if the record being built has a single recipient on the decoding thread. Data
+        // shared by several recipients is never pooled since any of them could release it, nor is
+        // data handed to the callback executor.
+        private OpenSpatialDataPool mRecordPool;
+        // The callback executor the record being built is dispatched with
+        private Executor mExecutor;
+        private UnitConverter mUnits;
+        private DataListenerRegistry.Entry mListeners;
+        // The capture time of the packet being decoded, or 0 to keep the time data is built at
+        private long mCaptureTime;
+
+        // The System.nanoTime() the packet being decoded was received at, or 0 to keep the time
+        // data is built at
+        private long mReceiptTime;
+        // The System.nanoTime() decoding the packet started at, or 0 if the data was queued
+        private long mDecodeTime;
+
+        void setCaptureTime(long captureTime) {
+            mCaptureTime = captureTime;
+        }
+
+        void setReceiptTime(long receiptTime) {
+            mReceiptTime = receiptTime;
+        }
+
+        void setDecodeTime(long decodeTime) {
+            mDecodeTime = decodeTime;
+        }
+
+        void prepare(int handle) {
+            boolean valid = handle != DeviceRegistry.NO_HANDLE;
+
+            mHandle = handle;
+            mDevice = valid ? mDeviceRegistry.getDevice(handle) : null;
+            mPoolGeneration = mDataPoolGeneration;
+            mPool = valid ? obtainDataPool(handle) : null;
+            mUnits = valid ? mEventFactory.getUnitConverter(handle) : null;
+            mListeners = valid ? mDataListeners.getEntry(handle) : null;
+        }
+
+        /**
+         * @return Whether anyone will receive data of {@code dataType} from {@code device}. If
+         * not, no {@link OpenSpatialData} is created for it.
+         */
+        private boolean isWanted(BluetoothDevice device, DataType dataType) {
+            if (device != mDevice || mPoolGeneration != mDataPoolGeneration) {
+                prepare(mDeviceRegistry.obtainHandle(device));
+            }
+
+            int listeners = mListeners.getListenerCount(dataType)
+                    + mDataListeners.getAnyDeviceEntry().getListenerCount(dataType);
+            int recipients = ClientFanout.countRecipients(mServiceInterface, dataType) + listeners;
+
+            mExecutor = mCallbackExecutor;
+            boolean pooled = recipients == 1 && (listeners == 0 || mExecutor == null);
+            mRecordPool = pooled ? mPool : null;
+            return recipients > 0;
+        }
+
+        private void deliver(final OpenSpatialData data) {
+            data.setDeviceHandle(mHandle);
+            if (mCaptureTime != 0) {
+                data.setTimestamp(mCaptureTime);
+            }
+            if (mReceiptTime != 0) {
+                data.setReceiptNanos(mReceiptTime);
+            }
+
+            // The data may be released by a callback, so everything recorded is read first
+            boolean trackLatency = mLatencyTrackingEnabled;
+            DataType dataType = data.dataType;
+            long dispatchTime = 0;
+            if (trackLatency) {
+                dispatchTime = System.nanoTime();
+                if (mDecodeTime != 0) {
+                    if (mReceiptTime != 0) {
+                        mLatencyStats.record(mHandle, dataType,
+                                LatencyStats.Stage.RECEIPT_TO_DECODE, mDecodeTime - mReceiptTime);
+                    }
+                    mLatencyStats.record(mHandle, dataType,
+                            LatencyStats.Stage.DECODE_TO_DISPATCH, dispatchTime - mDecodeTime);
+                }
+            }
+
+            final DataListenerRegistry.Entry listeners = mListeners;
+            final DataListenerRegistry.Entry anyDeviceListeners =
+                    mDataListeners.getAnyDeviceEntry();
+
+            if (listeners.hasListeners(data.dataType)
+                    || anyDeviceListeners.hasListeners(data.dataType)) {
+                Executor executor = mExecutor;
+                if (executor != null) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listeners.dispatch(data);
+                            anyDeviceListeners.dispatch(data);
+                        }
+                    });
+                } else {
+                    listeners.dispatch(data);
+                    anyDeviceListeners.dispatch(data);
+                }
+            }
+
+            OpenSpatialInterface serviceInterface = mServiceInterface;
+            if (serviceInterface != null) {
+                serviceInterface.onDataReceived(data);
+            }
+
+            if (trackLatency) {
+                mLatencyStats.record(mHandle, dataType,
+                        LatencyStats.Stage.DISPATCH_TO_CALLBACK_RETURN,
+                        System.nanoTime() - dispatchTime);
+            }
+        }
+
+        @Override
+        public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+            if (!isWanted(device, DataType.BUTTON)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainButtonData(buttonId, buttonState)
+                    : new ButtonData(device, buttonId, buttonState));
+        }
+
+        @Override
+        public void onAccel(BluetoothDevice device, short x, short y, short z) {
+            if (!isWanted(device, DataType.RAW_ACCELEROMETER)) {
+                return;
+            }
+
+            AccelerometerData data = mRecordPool != null
+                    ? mRecordPool.obtainAccelerometerData(x, y, z)
+                    : new AccelerometerData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getAccelScale());
+            deliver(data);
+        }
+
+        @Override
+        public void onGyro(BluetoothDevice device, short x, short y, short z) {
+            if (!isWanted(device, DataType.RAW_GYRO)) {
+                return;
+            }
+
+            GyroscopeData data = mRecordPool != null
+                    ? mRecordPool.obtainGyroscopeData(x, y, z)
+                    : new GyroscopeData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getGyroScale());
+            deliver(data);
+        }
+
+        @Override
+        public void onCompass(BluetoothDevice device, short x, short y, short z) {
+            if (!isWanted(device, DataType.RAW_COMPASS)) {
+                return;
+            }
+
+            CompassData data = mRecordPool != null
+                    ? mRecordPool.obtainCompassData(x, y, z)
+                    : new CompassData(device, new short[] {x, y, z});
+            data.setScale(mUnits.getCompassScale());
+            deliver(data);
+        }
+
+        @Override
+        public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+            if (!isWanted(device, DataType.EULER_ANGLES)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainEulerData(roll, pitch, yaw)
+                    : new EulerData(device, new float[] {roll, pitch, yaw}));
+        }
+
+        @Override
+        public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+            if (!isWanted(device, DataType.TRANSLATIONS)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainTranslationData(x, y, z)
+                    : new TranslationData(device, new float[] {x, y, z}));
+        }
+
+        @Override
+        public void onRelativeXY(BluetoothDevice device, int x, int y) {
+            if (!isWanted(device, DataType.RELATIVE_XY)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainRelativeXYData(x, y)
+                    : new RelativeXYData(device, new int[] {x, y}));
+        }
+
+        @Override
+        public void onGesture(BluetoothDevice device, GestureType gestureType) {
+            if (!isWanted(device, DataType.GESTURE)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainGestureData(gestureType)
+                    : new GestureData(device, gestureType));
+        }
+
+        @Override
+        public void onSlider(BluetoothDevice device, SliderType sliderType) {
+            if (!isWanted(device, DataType.SLIDER)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainSliderData(sliderType)
+                    : new SliderData(device, sliderType));
+        }
+
+        @Override
+        public void onAnalog(BluetoothDevice device, int value0, int value1, int value2) {
+            if (!isWanted(device, DataType.ANALOG)) {
+                return;
+            }
+
+            deliver(mRecordPool != null
+                    ? mRecordPool.obtainAnalogData(value0, value1, value2)
+                    : new AnalogData(device, new int[] {value0, value1, value2}));
+        }
+
+        @Override
+        public void onGroupEnd(BluetoothDevice device) {
+        }
+    }
+
     public class OpenSpatialServiceBinder extends Binder {
         public OpenSpatialService getService() {
             return OpenSpatialService.this;
@@ -636,15 +2217,20 @@ public class OpenSpatialService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+
+        // Catch pooled data used after release while the app is being developed
+        OpenSpatialDataPool.setDebugChecksEnabled(
+                (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
     }
 
     private void cleanup(Set<BluetoothDevice> devices, OpenSpatialEvent.EventType type) {
         for (BluetoothDevice device : devices) {
             try {
-                if(mEventCallbacks.get(device).getCallback(type) != null)
+                EventCallbacks callbacks = mEventCallbacks.get(mDeviceRegistry.getHandle(device));
+                if (callbacks != null && callbacks.getCallback(type) != null) {
                     Log.e(TAG, "Leaked " + type + " registration for " + device.getName());
-
                     unregisterForEvents(device, type);
+                }
             } catch (Exception e) {
                 Log.e(TAG, "Cleanup failed to unregister from " + type.name() + " events for " +
                         device.getName() + " with error: " + e.getMessage());
@@ -655,11 +2241,18 @@ public class OpenSpatialService extends Service {
     private void cleanup() {
         Set<BluetoothDevice> devices;
         synchronized (mEventCallbacks) {
-            devices = new HashSet<BluetoothDevice>(mEventCallbacks.keySet());
+            devices = new HashSet<BluetoothDevice>();
+            for (int handle = 0; handle < mEventCallbacks.size(); handle++) {
+                if (mEventCallbacks.get(handle) != null) {
+                    devices.add(mDeviceRegistry.getDevice(handle));
+                }
+            }
         }
 
+        // Only the streams this service enabled or was asked for are disabled, one command at a
+        // time since the connector may not understand command batches
         for (BluetoothDevice device : devices) {
-            for (DataType dataType : DataType.values()) {
+            for (DataType dataType : mStreams.getSubscribed(mDeviceRegistry.getHandle(device))) {
                 disableData(device, dataType);
             }
         }
@@ -673,8 +2266,25 @@ public class OpenSpatialService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
-        unregisterReceiver(mEventReceiver);
-        unregisterReceiver(mResultReceiver);
+        if (mReceiversRegistered) {
+            unregisterReceivers();
+        }
+
+        if (mReceiveThread != null) {
+            mReceiveThread.quitSafely();
+            mReceiveThread = null;
+        }
+
+        setDispatchLanes(null, null);
+        mPacketRings.clear();
+        mCommandTracker.shutdown();
+
+        synchronized (this) {
+            while (mClients.length > 0) {
+                removeClientLocked(mClients[0].client);
+            }
+            updateServiceInterface();
+        }
 
         // Cleanup any missing unregisters
         cleanup();
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Helpers for queues that hold decoded records as a {@link DataType} and three ints instead of
+ * {@link OpenSpatialData} objects.
+ *
+ * Floating point values are stored as their raw int bits, {@link ButtonData} as the button id and
+ * the {@link ButtonState} ordinal, and {@link GestureData} and {@link SliderData} as the ordinal
+ * of their type, or -1 if the type is not recognized.
+ */
+final class PackedRecords {
+
+    static final DataType[] DATA_TYPES = DataType.values();
+
+    private static final ButtonState[] BUTTON_STATES = ButtonState.values();
+    private static final GestureType[] GESTURE_TYPES = GestureType.values();
+    private static final SliderType[] SLIDER_TYPES = SliderType.values();
+
+    private PackedRecords() {
+    }
+
+    static int packFloat(float value) {
+        return Float.floatToRawIntBits(value);
+    }
+
+    static int packGesture(GestureType gestureType) {
+        return gestureType != null ? gestureType.ordinal() : -1;
+    }
+
+    static int packSlider(SliderType sliderType) {
+        return sliderType != null ? sliderType.ordinal() : -1;
+    }
+
+    /**
+     * Pass a packed record to {@code target}.
+     */
+    static void deliver(OpenSpatialDataVisitor target,
+                        BluetoothDevice device,
+                        DataType dataType,
+                        int value0,
+                        int value1,
+                        int value2) {
+        switch (dataType) {
+            case BUTTON:
+                target.onButton(device, value0, BUTTON_STATES[value1]);
+                break;
+            case GESTURE:
+                target.onGesture(device, value0 >= 0 ? GESTURE_TYPES[value0] : null);
+                break;
+            case SLIDER:
+                target.onSlider(device, value0 >= 0 ? SLIDER_TYPES[value0] : null);
+                break;
+            case RAW_ACCELEROMETER:
+                target.onAccel(device, (short) value0, (short) value1, (short) value2);
+                break;
+            case RAW_GYRO:
+                target.onGyro(device, (short) value0, (short) value1, (short) value2);
+                break;
+            case RAW_COMPASS:
+                target.onCompass(device, (short) value0, (short) value1, (short) value2);
+                break;
+            case EULER_ANGLES:
+                target.onEuler(device,
+                        Float.intBitsToFloat(value0),
+                        Float.intBitsToFloat(value1),
+                        Float.intBitsToFloat(value2));
+                break;
+            case TRANSLATIONS:
+                target.onTranslation(device,
+                        Float.intBitsToFloat(value0),
+                        Float.intBitsToFloat(value1),
+                        Float.intBitsToFloat(value2));
+                break;
+            case RELATIVE_XY:
+                target.onRelativeXY(device, value0, value1);
+                break;
+            case ANALOG:
+                target.onAnalog(device, value0, value1, value2);
+                break;
+        }
+    }
+}
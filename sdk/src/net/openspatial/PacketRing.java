@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single producer, single consumer ring of OpenSpatial data packets in a block of memory that
+ * can be shared between processes, such as a mapped ashmem region. The Bluetooth connector or
+ * emulator writes packets in to the ring and {@link OpenSpatialService} decodes them straight out
+ * of it, so only wake-ups have to go through Binder. See
+ * {@link OpenSpatialService#attachPacketRing(android.bluetooth.BluetoothDevice, PacketRing)}.
+ *
+ * The memory starts with a header holding the write index, the read index and a flag the
+ * consumer raises before it goes to sleep, each on its own cache line. It is followed by the
+ * packets, each stored as a little endian 32 bit length, the little endian 64 bit times it was
+ * captured at in the time bases of {@code System.currentTimeMillis()} and
+ * {@code System.nanoTime()}, and the packet bytes, padded to 4 bytes. A packet never wraps around
+ * the end of the ring; a length of -1 marks the unused space before the end.
+ *
+ * The indices only grow. Every read of an index is followed, and every write of an index is
+ * preceded and followed, by an atomic read-modify-write of a private counter. ART and the JVM
+ * compile that to a full hardware fence, which orders the plain accesses of the packets around
+ * it, and so also the accesses of the other process. A plain volatile read or lazy write would
+ * only be a one-way barrier and would not keep the packet bytes from being seen after the index.
+ * One {@code PacketRing} instance may be used by both sides when the producer is in process.
+ *
+ * The consumer does not trust the memory: an entry with an impossible length, or indices further
+ * apart than the ring is long, make it drop every packet published so far instead of reading
+ * out of bounds. See {@link #getCorruptionCount()}.
+ */
+public final class PacketRing {
+
+    /**
+     * Receives the packets read from a ring.
+     */
+    public interface Reader {
+        /**
+         * Called for every packet read. The packet is only valid until this method returns.
+         * @param data The bytes holding the packet.
+         * @param offset The offset of the packet in {@code data}.
+         * @param length The length of the packet.
+         * @param timestamp The time the packet was captured, in the time base of
+         *                  {@code System.currentTimeMillis()}, or 0 if unknown.
+         * @param captureNanos The time the packet was captured, in the time base of
+         *                     {@code System.nanoTime()}, or 0 if unknown.
+         */
+        void onPacket(byte[] data, int offset, int length, long timestamp, long captureNanos);
+    }
+
+    private static final int CACHE_LINE_SIZE = 64;
+    private static final int WRITE_INDEX = 0;
+    private static final int READ_INDEX = CACHE_LINE_SIZE;
+    private static final int CONSUMER_WAITING = 2 * CACHE_LINE_SIZE;
+
+    /**
+     * The size of the header in front of the packets.
+     */
+    public static final int HEADER_SIZE = 3 * CACHE_LINE_SIZE;
+
+    private static final int ENTRY_HEADER_SIZE = 4 + 8 + 8;
+    private static final int PADDING = -1;
+
+    private final ByteBuffer mMemory;
+    private final int mCapacity;
+    private final int mMask;
+
+    // Set when the memory is a Java array, so packets can be decoded in place
+    private final byte[] mArray;
+    private final int mArrayOffset;
+
+    // Used by the producer and the consumer respectively for bulk copies of direct memory
+    private final ByteBuffer mWriteBuffer;
+    private final ByteBuffer mReadBuffer;
+    private byte[] mScratch = new byte[0];
+
+    private final AtomicInteger mFence = new AtomicInteger();
+
+    // Written by the consumer only
+    private volatile long mCorruptionCount;
+
+    /**
+     * Create a ring in process memory, for a producer in the same process.
+     * @param capacity The number of bytes for packets. Must be a power of two.
+     */
+    public PacketRing(int capacity) {
+        this(ByteBuffer.allocate(getMemorySize(capacity)));
+    }
+
+    /**
+     * Use {@code memory} as a ring. A ring in new memory must be zeroed before either side uses
+     * it, which freshly allocated shared memory is.
+     * @param memory The memory of the ring, {@link #HEADER_SIZE} bytes followed by a power of two
+     *               number of bytes for packets.
+     */
+    public PacketRing(ByteBuffer memory) {
+        if (memory == null) {
+            throw new IllegalArgumentException("Null memory!");
+        }
+
+        int capacity = memory.capacity() - HEADER_SIZE;
+        checkCapacity(capacity);
+
+        mMemory = memory.duplicate();
+        mMemory.clear();
+        mMemory.order(ByteOrder.LITTLE_ENDIAN);
+        mCapacity = capacity;
+        mMask = capacity - 1;
+
+        if (memory.hasArray()) {
+            mArray = memory.array();
+            mArrayOffset = memory.arrayOffset();
+        } else {
+            mArray = null;
+            mArrayOffset = 0;
+        }
+
+        mWriteBuffer = mMemory.duplicate();
+        mReadBuffer = mMemory.duplicate();
+    }
+
+    /**
+     * @return The number of bytes of memory a ring with {@code capacity} bytes for packets needs.
+     */
+    public static int getMemorySize(int capacity) {
+        checkCapacity(capacity);
+        return HEADER_SIZE + capacity;
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity < ENTRY_HEADER_SIZE || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+    }
+
+    /**
+     * @return The number of bytes for packets.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return The number of bytes used by packets not read yet.
+     */
+    public int getUsedBytes() {
+        long read = mMemory.getLong(READ_INDEX);
+        long write = mMemory.getLong(WRITE_INDEX);
+        return (int) (write - read);
+    }
+
+    /**
+     * Write a packet in to the ring. Must only be called by the producer.
+     * @param packet The bytes holding the packet.
+     * @param offset The offset of the packet in {@code packet}.
+     * @param length The length of the packet.
+     * @param timestamp The time the packet was captured, in the time base of
+     *                  {@code System.currentTimeMillis()}, or 0 if unknown.
+     * @param captureNanos The time the packet was captured, in the time base of
+     *                     {@code System.nanoTime()}, or 0 if unknown.
+     * @return Whether the packet was written; false if the ring is full.
+     */
+    public boolean write(byte[] packet, int offset, int length, long timestamp,
+                         long captureNanos) {
+        if (packet == null) {
+            throw new IllegalArgumentException("Null packet!");
+        }
+        if (offset < 0 || length < 0 || offset + length > packet.length) {
+            throw new IllegalArgumentException("Invalid range " + offset + "+" + length);
+        }
+
+        int entrySize = align(ENTRY_HEADER_SIZE + length);
+        if (entrySize > mCapacity) {
+            throw new IllegalArgumentException("Packet too long: " + length);
+        }
+
+        long write = mMemory.getLong(WRITE_INDEX);
+        long read = mMemory.getLong(READ_INDEX);
+        fullFence();
+
+        int position = (int) (write & mMask);
+        int toEnd = mCapacity - position;
+        int required = entrySize <= toEnd ? entrySize : toEnd + entrySize;
+        if (read > write || write + required - read > mCapacity) {
+            return false;
+        }
+
+        if (entrySize > toEnd) {
+            mMemory.putInt(HEADER_SIZE + position, PADDING);
+            write += toEnd;
+            position = 0;
+        }
+
+        int start = HEADER_SIZE + position;
+        mMemory.putInt(start, length);
+        mMemory.putLong(start + 4, timestamp);
+        mMemory.putLong(start + 12, captureNanos);
+        if (mArray != null) {
+            System.arraycopy(packet, offset, mArray, mArrayOffset + start + ENTRY_HEADER_SIZE,
+                    length);
+        } else {
+            mWriteBuffer.position(start + ENTRY_HEADER_SIZE);
+            mWriteBuffer.put(packet, offset, length);
+        }
+
+        publishIndex(WRITE_INDEX, write + entrySize);
+        return true;
+    }
+
+    /**
+     * Check whether the consumer went to sleep waiting for packets, and take its request to be
+     * woken up. Must only be called by the producer, after {@link #write}.
+     * @return Whether the producer must now wake the consumer up, for example by sending
+     *         {@link OpenSpatialConstants#OPENSPATIAL_PACKET_RING_INTENT_ACTION}.
+     */
+    public boolean takeWakeUpRequest() {
+        fullFence();
+        if (mMemory.getInt(CONSUMER_WAITING) == 0) {
+            return false;
+        }
+
+        mMemory.putInt(CONSUMER_WAITING, 0);
+        return true;
+    }
+
+    /**
+     * Pass up to {@code maxPackets} packets to {@code reader}. Packets in array backed memory are
+     * passed in place; packets in direct memory are copied in to a reused array first. Must only
+     * be called by the consumer.
+     * @return The number of packets read.
+     */
+    public int read(Reader reader, int maxPackets) {
+        long read = mMemory.getLong(READ_INDEX);
+        long write = mMemory.getLong(WRITE_INDEX);
+        fullFence();
+
+        if (read > write || write - read > mCapacity || (read & 3) != 0) {
+            mCorruptionCount++;
+            publishIndex(READ_INDEX, write);
+            return 0;
+        }
+
+        int packets = 0;
+        try {
+            while (read != write && packets < maxPackets) {
+                int position = (int) (read & mMask);
+                int toEnd = mCapacity - position;
+                int start = HEADER_SIZE + position;
+                int length = mMemory.getInt(start);
+
+                if (length == PADDING && toEnd <= write - read) {
+                    read += toEnd;
+                    continue;
+                }
+
+                int entrySize = length >= 0 && length <= mCapacity
+                        ? align(ENTRY_HEADER_SIZE + length) : Integer.MAX_VALUE;
+                if (entrySize > toEnd || entrySize > write - read) {
+                    mCorruptionCount++;
+                    read = write;
+                    break;
+                }
+
+                long timestamp = mMemory.getLong(start + 4);
+                long captureNanos = mMemory.getLong(start + 12);
+                // The entry is only released once the reader is done with it
+                read += entrySize;
+                packets++;
+
+                if (mArray != null) {
+                    reader.onPacket(mArray, mArrayOffset + start + ENTRY_HEADER_SIZE, length,
+                            timestamp, captureNanos);
+                } else {
+                    if (mScratch.length < length) {
+                        mScratch = new byte[length];
+                    }
+                    mReadBuffer.position(start + ENTRY_HEADER_SIZE);
+                    mReadBuffer.get(mScratch, 0, length);
+                    reader.onPacket(mScratch, 0, length, timestamp, captureNanos);
+                }
+            }
+        } finally {
+            publishIndex(READ_INDEX, read);
+        }
+
+        return packets;
+    }
+
+    /**
+     * @return The number of times the consumer found the ring corrupt, and dropped the packets
+     *         published until then.
+     */
+    public long getCorruptionCount() {
+        return mCorruptionCount;
+    }
+
+    /**
+     * Ask the producer for a wake-up before going to sleep. Must only be called by the consumer,
+     * once {@link #read} found no packets.
+     * @return Whether the consumer may sleep; false if packets arrived in the meantime and must
+     *         be read first.
+     */
+    public boolean prepareToWait() {
+        mMemory.putInt(CONSUMER_WAITING, 1);
+        fullFence();
+
+        if (mMemory.getLong(WRITE_INDEX) != mMemory.getLong(READ_INDEX)) {
+            mMemory.putInt(CONSUMER_WAITING, 0);
+            return false;
+        }
+
+        return true;
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    // Makes the accesses before the write of an index visible before it, and the index visible
+    // before the accesses after it
+    private void publishIndex(int index, long value) {
+        fullFence();
+        mMemory.putLong(index, value);
+        fullFence();
+    }
+
+    private void fullFence() {
+        mFence.incrementAndGet();
+    }
+}
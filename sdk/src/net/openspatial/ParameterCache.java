@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.HashMap;
+
+/**
+ * Remembers the {@link DeviceParameter} values, parameter ranges and sensor identifiers devices
+ * reported, so that repeated queries are answered without a Bluetooth round trip. Values are
+ * learned from every successful response. A parameter is forgotten when it is set, and everything
+ * a device reported is forgotten when it disconnects.
+ *
+ * Served queries are answered through the usual {@link OpenSpatialInterface} callbacks and
+ * {@link CommandFuture}s.
+ */
+public class ParameterCache {
+    private static final int KIND_VALUE = 0;
+    private static final int KIND_RANGE = 1;
+    private static final int KIND_IDENTIFIER = 2;
+
+    private final DeviceRegistry mDevices;
+
+    // Guarded by this
+    private final HandleMap<HashMap<Integer, Object>> mEntries =
+            new HandleMap<HashMap<Integer, Object>>();
+    private long mHits;
+    private long mMisses;
+
+    ParameterCache(DeviceRegistry devices) {
+        mDevices = devices;
+    }
+
+    /**
+     * @return The number of queries answered from the cache.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return The number of queries that had to be sent to a device.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Reset the hit and miss counts.
+     */
+    public synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    /**
+     * Forget everything {@code device} reported, so that the next queries go to the device.
+     */
+    public void invalidate(BluetoothDevice device) {
+        invalidate(mDevices.getHandle(device));
+    }
+
+    /**
+     * Forget everything every device reported.
+     */
+    public synchronized void invalidateAll() {
+        mEntries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ParameterCache{hits=" + mHits + ", misses=" + mMisses + "}";
+    }
+
+    synchronized void invalidate(int handle) {
+        mEntries.remove(handle);
+    }
+
+    synchronized void invalidateParameter(int handle,
+                                          DataType dataType,
+                                          DeviceParameter deviceParameter) {
+        HashMap<Integer, Object> entry = mEntries.get(handle);
+        if (entry != null) {
+            entry.remove(getKey(KIND_VALUE, dataType, deviceParameter.getValue()));
+        }
+    }
+
+    /**
+     * @return A copy of the cached values of the parameter, or null if it is not cached.
+     */
+    short[] getParameter(int handle, DataType dataType, DeviceParameter deviceParameter) {
+        short[] values = (short[]) get(handle, KIND_VALUE, dataType, deviceParameter.getValue());
+        return values != null ? values.clone() : null;
+    }
+
+    /**
+     * @return The cached minimum and maximum of the parameter, or null if they are not cached.
+     */
+    short[] getParameterRange(int handle, DataType dataType, DeviceParameter deviceParameter) {
+        short[] range = (short[]) get(handle, KIND_RANGE, dataType, deviceParameter.getValue());
+        return range != null ? range.clone() : null;
+    }
+
+    /**
+     * @return The cached identifier of the sensor, or null if it is not cached.
+     */
+    String getIdentifier(int handle, DataType dataType, byte index) {
+        return (String) get(handle, KIND_IDENTIFIER, dataType, index);
+    }
+
+    void onParameterValue(int handle,
+                          DataType dataType,
+                          DeviceParameter deviceParameter,
+                          short[] values) {
+        put(handle, KIND_VALUE, dataType, deviceParameter.getValue(), values.clone());
+    }
+
+    void onParameterRange(int handle,
+                          DataType dataType,
+                          DeviceParameter deviceParameter,
+                          short low,
+                          short high) {
+        put(handle, KIND_RANGE, dataType, deviceParameter.getValue(), new short[] {low, high});
+    }
+
+    void onIdentifier(int handle, DataType dataType, byte index, String identifier) {
+        put(handle, KIND_IDENTIFIER, dataType, index, identifier);
+    }
+
+    private static int getKey(int kind, DataType dataType, byte parameter) {
+        return kind << 16 | (dataType.getValue() & 0xff) << 8 | (parameter & 0xff);
+    }
+
+    private synchronized Object get(int handle, int kind, DataType dataType, byte parameter) {
+        HashMap<Integer, Object> entry = mEntries.get(handle);
+        Object value = entry != null ? entry.get(getKey(kind, dataType, parameter)) : null;
+
+        if (value != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+
+        return value;
+    }
+
+    private synchronized void put(int handle,
+                                  int kind,
+                                  DataType dataType,
+                                  byte parameter,
+                                  Object value) {
+        if (handle == DeviceRegistry.NO_HANDLE) {
+            return;
+        }
+
+        HashMap<Integer, Object> entry = mEntries.get(handle);
+        if (entry == null) {
+            entry = new HashMap<Integer, Object>();
+            mEntries.put(handle, entry);
+        }
+
+        entry.put(getKey(kind, dataType, parameter), value);
+    }
+}
@@ -28,12 +28,25 @@ import java.util.Arrays;
  */
 public class RelativeXYData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code RelativeXYData} of the devices it is registered for with
+     * {@link OpenSpatialService#addRelativeXYListener(BluetoothDevice, RelativeXYData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code RelativeXYData} received.
+         * @param data The {@code RelativeXYData} received.
+         */
+        void onRelativeXYData(RelativeXYData data);
+    }
+
     private final int[] relativeXY;
 
     /**
      * @return The relative translation in the x axis
      */
     public int getX() {
+        checkNotReleased();
         return relativeXY[X];
     }
 
@@ -41,6 +54,7 @@ public class RelativeXYData extends OpenSpatialData {
      * @return the relative translation in the y axis
      */
     public int getY() {
+        checkNotReleased();
         return relativeXY[Y];
     }
 
@@ -54,6 +68,11 @@ public class RelativeXYData extends OpenSpatialData {
         this.relativeXY = relativeXY;
     }
 
+    void set(int x, int y) {
+        relativeXY[X] = x;
+        relativeXY[Y] = y;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -55,5 +55,24 @@ public enum ResponseCode {
      * The command has resulted in a parameter of an OpenSpatial device changing to a different
      * value than the one that was previously held.
      */
-    PARAMETER_VALUE_REPLACED
+    PARAMETER_VALUE_REPLACED;
+
+    // Indexed by the unsigned value of the response byte. Unlike values(), this is not cloned on
+    // every lookup.
+    private static final ResponseCode[] LOOKUP = new ResponseCode[256];
+
+    static {
+        for (ResponseCode code : ResponseCode.values()) {
+            LOOKUP[code.ordinal()] = code;
+        }
+    }
+
+    /**
+     * Returns the {@code ResponseCode} reported by the byte {@code id}.
+     * @param id The response byte reported by an OpenSpatial device.
+     * @return The {@code ResponseCode} for {@code id}, or null if there isn't one.
+     */
+    protected static ResponseCode valueOf(byte id) {
+        return LOOKUP[id & 0xff];
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * A reusable, column oriented batch of raw 3-axis sensor samples of a single {@link DataType}.
+ *
+ * Sample {@code i} of the batch is made up of {@code x[i]}, {@code y[i]}, {@code z[i]},
+ * {@code timestamps[i]} and {@code deviceHandles[i]}, for {@code i < size()}. The arrays are
+ * allocated once when the batch is created and are overwritten once the batch has been delivered,
+ * so consumers must copy any values they want to keep.
+ */
+public class SensorBatch {
+
+    /**
+     * Receives a {@link SensorBatch} each time one is filled or flushed.
+     */
+    public interface Listener {
+        /**
+         * Called with a batch holding at least one sample. The batch is cleared and reused once
+         * this method returns.
+         * @param batch The batch of samples.
+         */
+        void onSensorBatch(SensorBatch batch);
+    }
+
+    /**
+     * The type of the samples held in the batch. One of {@link DataType#RAW_ACCELEROMETER},
+     * {@link DataType#RAW_GYRO} or {@link DataType#RAW_COMPASS}.
+     */
+    public final DataType dataType;
+
+    /**
+     * Raw LSB readings about the x axis.
+     */
+    public final short[] x;
+
+    /**
+     * Raw LSB readings about the y axis.
+     */
+    public final short[] y;
+
+    /**
+     * Raw LSB readings about the z axis.
+     */
+    public final short[] z;
+
+    /**
+     * The time value returned by {@code System.currentTimeMillis()} when each sample was decoded.
+     */
+    public final long[] timestamps;
+
+    /**
+     * The handle of the device that reported each sample. Batches delivered by the
+     * {@link OpenSpatialService} hold the handles returned by
+     * {@link OpenSpatialService#getDeviceHandle(BluetoothDevice)}. Use {@link #getDevice(int)} to
+     * look up the {@link BluetoothDevice} for a handle.
+     */
+    public final int[] deviceHandles;
+
+    private final DeviceRegistry mDevices;
+    // The last device added and its handle, so that runs of samples from one device skip the
+    // registry lookup
+    private BluetoothDevice mLastDevice;
+    private int mLastHandle;
+
+    private int mSize = 0;
+
+    /**
+     * Create a new {@code SensorBatch}.
+     * @param dataType The raw sensor {@link DataType} the batch holds.
+     * @param capacity The maximum number of samples the batch holds.
+     */
+    public SensorBatch(DataType dataType, int capacity) {
+        this(dataType, capacity, new DeviceRegistry());
+    }
+
+    /**
+     * Create a new {@code SensorBatch} that takes its device handles from {@code devices}.
+     */
+    SensorBatch(DataType dataType, int capacity, DeviceRegistry devices) {
+        switch (dataType) {
+            case RAW_ACCELEROMETER:
+            case RAW_GYRO:
+            case RAW_COMPASS:
+                break;
+            default:
+                throw new IllegalArgumentException(dataType.name() + " cannot be batched!");
+        }
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Batch capacity must be positive!");
+        }
+
+        this.dataType = dataType;
+        x = new short[capacity];
+        y = new short[capacity];
+        z = new short[capacity];
+        timestamps = new long[capacity];
+        deviceHandles = new int[capacity];
+        mDevices = devices;
+    }
+
+    /**
+     * @return The number of samples in the batch.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The maximum number of samples the batch holds.
+     */
+    public int capacity() {
+        return x.length;
+    }
+
+    /**
+     * @return Whether the batch holds {@link #capacity()} samples.
+     */
+    public boolean isFull() {
+        return mSize == x.length;
+    }
+
+    /**
+     * @param deviceHandle A value from {@link #deviceHandles}.
+     * @return The {@link BluetoothDevice} the handle refers to.
+     */
+    public BluetoothDevice getDevice(int deviceHandle) {
+        return mDevices.getDevice(deviceHandle);
+    }
+
+    /**
+     * Remove all samples from the batch.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    void add(BluetoothDevice device, long timestamp, short x, short y, short z) {
+        int i = mSize++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        timestamps[i] = timestamp;
+        deviceHandles[i] = getDeviceHandle(device);
+    }
+
+    private int getDeviceHandle(BluetoothDevice device) {
+        if (device != mLastDevice) {
+            mLastHandle = mDevices.obtainHandle(device);
+            mLastDevice = device;
+        }
+
+        return mLastHandle;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * An {@link OpenSpatialDataVisitor} that collects {@link DataType#RAW_ACCELEROMETER},
+ * {@link DataType#RAW_GYRO} and {@link DataType#RAW_COMPASS} samples in to one
+ * {@link SensorBatch} per type and hands each batch to a {@link SensorBatch.Listener} once it is
+ * full. All other records are passed on to an optional downstream visitor.
+ *
+ * Use it with {@link OpenSpatialEventFactory#decodeOpenSpatialDataPacket(BluetoothDevice, byte[],
+ * OpenSpatialDataVisitor)} for every packet of a run, then call {@link #flush()} to deliver the
+ * partially filled batches.
+ */
+public class SensorBatchCollector implements OpenSpatialDataVisitor {
+
+    private final SensorBatch mAccelBatch;
+    private final SensorBatch mGyroBatch;
+    private final SensorBatch mCompassBatch;
+
+    private final SensorBatch.Listener mListener;
+
+    private OpenSpatialDataVisitor mDownstream;
+
+    /**
+     * Create a new {@code SensorBatchCollector}.
+     * @param capacity The number of samples per {@link SensorBatch}.
+     * @param listener The {@link SensorBatch.Listener} that will receive the batches.
+     */
+    public SensorBatchCollector(int capacity, SensorBatch.Listener listener) {
+        this(capacity, listener, new DeviceRegistry());
+    }
+
+    /**
+     * Create a new {@code SensorBatchCollector} whose batches take their device handles from
+     * {@code devices}.
+     */
+    SensorBatchCollector(int capacity, SensorBatch.Listener listener, DeviceRegistry devices) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener!");
+        }
+
+        mAccelBatch = new SensorBatch(DataType.RAW_ACCELEROMETER, capacity, devices);
+        mGyroBatch = new SensorBatch(DataType.RAW_GYRO, capacity, devices);
+        mCompassBatch = new SensorBatch(DataType.RAW_COMPASS, capacity, devices);
+        mListener = listener;
+    }
+
+    /**
+     * Set the visitor that receives every record that is not batched.
+     * @param downstream The visitor for other records, or null to drop them.
+     */
+    public void setDownstream(OpenSpatialDataVisitor downstream) {
+        mDownstream = downstream;
+    }
+
+    /**
+     * Deliver every batch that holds at least one sample.
+     */
+    public void flush() {
+        deliver(mAccelBatch);
+        deliver(mGyroBatch);
+        deliver(mCompassBatch);
+    }
+
+    private void add(SensorBatch batch, BluetoothDevice device, short x, short y, short z) {
+        batch.add(device, System.currentTimeMillis(), x, y, z);
+
+        if (batch.isFull()) {
+            deliver(batch);
+        }
+    }
+
+    private void deliver(SensorBatch batch) {
+        if (batch.size() == 0) {
+            return;
+        }
+
+        try {
+            mListener.onSensorBatch(batch);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void onAccel(BluetoothDevice device, short x, short y, short z) {
+        add(mAccelBatch, device, x, y, z);
+    }
+
+    @Override
+    public void onGyro(BluetoothDevice device, short x, short y, short z) {
+        add(mGyroBatch, device, x, y, z);
+    }
+
+    @Override
+    public void onCompass(BluetoothDevice device, short x, short y, short z) {
+        add(mCompassBatch, device, x, y, z);
+    }
+
+    @Override
+    public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+        if (mDownstream != null) {
+            mDownstream.onButton(device, buttonId, buttonState);
+        }
+    }
+
+    @Override
+    public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+        if (mDownstream != null) {
+            mDownstream.onEuler(device, roll, pitch, yaw);
+        }
+    }
+
+    @Override
+    public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+        if (mDownstream != null) {
+            mDownstream.onTranslation(device, x, y, z);
+        }
+    }
+
+    @Override
+    public void onRelativeXY(BluetoothDevice device, int x, int y) {
+        if (mDownstream != null) {
+            mDownstream.onRelativeXY(device, x, y);
+        }
+    }
+
+    @Override
+    public void onGesture(BluetoothDevice device, GestureType gestureType) {
+        if (mDownstream != null) {
+            mDownstream.onGesture(device, gestureType);
+        }
+    }
+
+    @Override
+    public void onSlider(BluetoothDevice device, SliderType sliderType) {
+        if (mDownstream != null) {
+            mDownstream.onSlider(device, sliderType);
+        }
+    }
+
+    @Override
+    public void onAnalog(BluetoothDevice device, int value0, int value1, int value2) {
+        if (mDownstream != null) {
+            mDownstream.onAnalog(device, value0, value1, value2);
+        }
+    }
+
+    @Override
+    public void onGroupEnd(BluetoothDevice device) {
+        if (mDownstream != null) {
+            mDownstream.onGroupEnd(device);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * A group of continuous OpenSpatial records that a device sampled together, such as
+ * accelerometer, gyroscope, compass and Euler values. Devices mark the end of such a group in the
+ * data stream and the {@link SensorFrameAssembler} delivers the whole group as one frame.
+ *
+ * Only the values of the {@link DataType}s for which {@link #contains(DataType)} returns true are
+ * valid. Frames are reused once they have been delivered, so consumers must copy any values they
+ * want to keep.
+ */
+public class SensorFrame {
+
+    /**
+     * Receives every assembled {@link SensorFrame}.
+     */
+    public interface Listener {
+        /**
+         * Called once per group of related records. The frame is reused once this method
+         * returns.
+         * @param frame The assembled frame.
+         */
+        void onSensorFrame(SensorFrame frame);
+    }
+
+    /**
+     * Raw accelerometer LSB readings in x, y, z order.
+     */
+    public final short[] accel = new short[3];
+
+    /**
+     * Raw gyroscope LSB readings in x, y, z order.
+     */
+    public final short[] gyro = new short[3];
+
+    /**
+     * Compass readings (in uT) in x, y, z order.
+     */
+    public final short[] compass = new short[3];
+
+    /**
+     * Roll, pitch and yaw in radians.
+     */
+    public final float[] euler = new float[3];
+
+    /**
+     * Translation readings in x, y, z order.
+     */
+    public final float[] translation = new float[3];
+
+    /**
+     * Relative x and y translation.
+     */
+    public final int[] relativeXY = new int[2];
+
+    /**
+     * Analog sensor values, indexed by sensor.
+     */
+    public final int[] analog = new int[3];
+
+    private BluetoothDevice mDevice;
+    private long mTimestamp;
+    private int mContents;
+
+    /**
+     * @return The device that reported the frame.
+     */
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return The time value returned by {@code System.currentTimeMillis()} when the first record
+     * of the frame was decoded.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @param dataType The {@link DataType} of interest.
+     * @return Whether the frame holds a value of {@code dataType}.
+     */
+    public boolean contains(DataType dataType) {
+        return (mContents & (1 << dataType.ordinal())) != 0;
+    }
+
+    /**
+     * @return Whether the frame holds no values at all.
+     */
+    public boolean isEmpty() {
+        return mContents == 0;
+    }
+
+    void setDevice(BluetoothDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Marks {@code dataType} as present.
+     * @return false if the frame already held a value of {@code dataType}, in which case nothing
+     * is changed.
+     */
+    boolean add(DataType dataType) {
+        int bit = 1 << dataType.ordinal();
+        if ((mContents & bit) != 0) {
+            return false;
+        }
+
+        if (mContents == 0) {
+            mTimestamp = System.currentTimeMillis();
+        }
+
+        mContents |= bit;
+        return true;
+    }
+
+    void clear() {
+        mContents = 0;
+    }
+}
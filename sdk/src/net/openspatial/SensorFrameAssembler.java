@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.HashMap;
+
+/**
+ * An {@link OpenSpatialDataVisitor} that assembles the continuous records of each related data
+ * group in to a single {@link SensorFrame}. A frame is delivered when the device marks the end of
+ * the group. If the boundary was lost and a {@link DataType} repeats within a group, the frame
+ * collected so far is delivered first so that no value is overwritten.
+ *
+ * Discrete records ({@link DataType#BUTTON}, {@link DataType#GESTURE} and
+ * {@link DataType#SLIDER}) are passed on to an optional downstream visitor immediately.
+ */
+public class SensorFrameAssembler implements OpenSpatialDataVisitor {
+
+    private final SensorFrame.Listener mListener;
+
+    // One frame per device since groups may span packets and packets from several devices may
+    // be interleaved.
+    private final HashMap<BluetoothDevice, SensorFrame> mFrames =
+            new HashMap<BluetoothDevice, SensorFrame>();
+
+    private BluetoothDevice mLastDevice;
+    private SensorFrame mLastFrame;
+
+    private OpenSpatialDataVisitor mDownstream;
+
+    /**
+     * Create a new {@code SensorFrameAssembler}.
+     * @param listener The {@link SensorFrame.Listener} that will receive the frames.
+     */
+    public SensorFrameAssembler(SensorFrame.Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Null listener!");
+        }
+
+        mListener = listener;
+    }
+
+    /**
+     * Set the visitor that receives every discrete record.
+     * @param downstream The visitor for discrete records, or null to drop them.
+     */
+    public void setDownstream(OpenSpatialDataVisitor downstream) {
+        mDownstream = downstream;
+    }
+
+    /**
+     * Deliver every frame that holds at least one value even though its group has not ended.
+     */
+    public void flush() {
+        for (SensorFrame frame : mFrames.values()) {
+            deliver(frame);
+        }
+    }
+
+    private SensorFrame getFrame(BluetoothDevice device) {
+        if (device == mLastDevice) {
+            return mLastFrame;
+        }
+
+        SensorFrame frame = mFrames.get(device);
+        if (frame == null) {
+            frame = new SensorFrame();
+            mFrames.put(device, frame);
+        }
+
+        // Keep the latest device instance so that the next record of the packet hits the cache
+        frame.setDevice(device);
+
+        mLastDevice = device;
+        mLastFrame = frame;
+        return frame;
+    }
+
+    private SensorFrame addToFrame(BluetoothDevice device, DataType dataType) {
+        SensorFrame frame = getFrame(device);
+
+        if (!frame.add(dataType)) {
+            deliver(frame);
+            frame.add(dataType);
+        }
+
+        return frame;
+    }
+
+    private void deliver(SensorFrame frame) {
+        if (frame.isEmpty()) {
+            return;
+        }
+
+        try {
+            mListener.onSensorFrame(frame);
+        } finally {
+            frame.clear();
+        }
+    }
+
+    @Override
+    public void onAccel(BluetoothDevice device, short x, short y, short z) {
+        short[] accel = addToFrame(device, DataType.RAW_ACCELEROMETER).accel;
+        accel[0] = x;
+        accel[1] = y;
+        accel[2] = z;
+    }
+
+    @Override
+    public void onGyro(BluetoothDevice device, short x, short y, short z) {
+        short[] gyro = addToFrame(device, DataType.RAW_GYRO).gyro;
+        gyro[0] = x;
+        gyro[1] = y;
+        gyro[2] = z;
+    }
+
+    @Override
+    public void onCompass(BluetoothDevice device, short x, short y, short z) {
+        short[] compass = addToFrame(device, DataType.RAW_COMPASS).compass;
+        compass[0] = x;
+        compass[1] = y;
+        compass[2] = z;
+    }
+
+    @Override
+    public void onEuler(BluetoothDevice device, float roll, float pitch, float yaw) {
+        float[] euler = addToFrame(device, DataType.EULER_ANGLES).euler;
+        euler[0] = roll;
+        euler[1] = pitch;
+        euler[2] = yaw;
+    }
+
+    @Override
+    public void onTranslation(BluetoothDevice device, float x, float y, float z) {
+        float[] translation = addToFrame(device, DataType.TRANSLATIONS).translation;
+        translation[0] = x;
+        translation[1] = y;
+        translation[2] = z;
+    }
+
+    @Override
+    public void onRelativeXY(BluetoothDevice device, int x, int y) {
+        int[] relativeXY = addToFrame(device, DataType.RELATIVE_XY).relativeXY;
+        relativeXY[0] = x;
+        relativeXY[1] = y;
+    }
+
+    @Override
+    public void onAnalog(BluetoothDevice device, int value0, int value1, int value2) {
+        int[] analog = addToFrame(device, DataType.ANALOG).analog;
+        analog[0] = value0;
+        analog[1] = value1;
+        analog[2] = value2;
+    }
+
+    @Override
+    public void onGroupEnd(BluetoothDevice device) {
+        deliver(getFrame(device));
+
+        if (mDownstream != null) {
+            mDownstream.onGroupEnd(device);
+        }
+    }
+
+    @Override
+    public void onButton(BluetoothDevice device, int buttonId, ButtonState buttonState) {
+        if (mDownstream != null) {
+            mDownstream.onButton(device, buttonId, buttonState);
+        }
+    }
+
+    @Override
+    public void onGesture(BluetoothDevice device, GestureType gestureType) {
+        if (mDownstream != null) {
+            mDownstream.onGesture(device, gestureType);
+        }
+    }
+
+    @Override
+    public void onSlider(BluetoothDevice device, SliderType sliderType) {
+        if (mDownstream != null) {
+            mDownstream.onSlider(device, sliderType);
+        }
+    }
+}
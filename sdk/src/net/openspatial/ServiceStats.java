@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openspatial;
+
+/**
+ * A snapshot of the throughput and health counters of an {@link OpenSpatialService}, taken with
+ * {@link OpenSpatialService#getStats()}. Counts cover the interval since the service was created
+ * or {@link OpenSpatialService#resetStats()} was last called; the interval estimates of each
+ * stream are not reset.
+ *
+ * Per-device values are looked up by device handle, see
+ * {@link OpenSpatialService#getDeviceHandle(android.bluetooth.BluetoothDevice)}.
+ */
+public final class ServiceStats {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final long mIntervalNanos;
+    private final long[][] mTraffic;
+    private final long mMalformedPackets;
+    private final long mUnknownDataTypes;
+    private final long mMalformedEnvelopes;
+    private final long mMalformedResponses;
+    private final long mDroppedRecords;
+    private final long mConflatedRecords;
+    private final int mOutstandingCommands;
+    private final long mTimedOutCommands;
+    private final LatencyHistogram mCommandRoundTrips;
+    private final long mSuppressedStreamCommands;
+
+    ServiceStats(long intervalNanos,
+                 long[][] traffic,
+                 DecodeStats decodeStats,
+                 long droppedRecords,
+                 long conflatedRecords,
+                 int outstandingCommands,
+                 long timedOutCommands,
+                 LatencyHistogram commandRoundTrips,
+                 long suppressedStreamCommands) {
+        mIntervalNanos = intervalNanos;
+        mTraffic = traffic;
+        synchronized (decodeStats) {
+            mMalformedPackets = decodeStats.getTruncatedRecordCount();
+            mUnknownDataTypes = decodeStats.getUnknownDataTypeCount();
+            mMalformedEnvelopes = decodeStats.getMalformedEnvelopeCount();
+            mMalformedResponses = decodeStats.getMalformedResponseCount();
+        }
+        mDroppedRecords = droppedRecords;
+        mConflatedRecords = conflatedRecords;
+        mOutstandingCommands = outstandingCommands;
+        mTimedOutCommands = timedOutCommands;
+        mCommandRoundTrips = commandRoundTrips;
+        mSuppressedStreamCommands = suppressedStreamCommands;
+    }
+
+    /**
+     * @return The length of the interval the counts cover, in nanoseconds.
+     */
+    public long getIntervalNanos() {
+        return mIntervalNanos;
+    }
+
+    /**
+     * @return One more than the largest device handle that may have counts. Use with the
+     *         per-device getters to walk every device.
+     */
+    public int getDeviceHandleLimit() {
+        return mTraffic.length;
+    }
+
+    /**
+     * @return The number of data packets decoded from the device with {@code deviceHandle}.
+     */
+    public long getPacketCount(int deviceHandle) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getPacketCount(counts) : 0;
+    }
+
+    /**
+     * @return The average number of data packets per second decoded from the device with
+     *         {@code deviceHandle}, over the interval of {@link #getIntervalNanos()}.
+     */
+    public double getPacketsPerSecond(int deviceHandle) {
+        return getRate(getPacketCount(deviceHandle));
+    }
+
+    /**
+     * @return The number of {@code dataType} records decoded from the device with
+     *         {@code deviceHandle}.
+     */
+    public long getRecordCount(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getRecordCount(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The average number of {@code dataType} records per second decoded from the device
+     *         with {@code deviceHandle}, over the interval of {@link #getIntervalNanos()}.
+     */
+    public double getRecordsPerSecond(int deviceHandle, DataType dataType) {
+        return getRate(getRecordCount(deviceHandle, dataType));
+    }
+
+    /**
+     * @return The time in nanoseconds spent decoding the packets of the device with
+     *         {@code deviceHandle}. Callbacks made while decoding, on the decoding thread, are
+     *         included.
+     */
+    public long getDecodeNanos(int deviceHandle) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getDecodeNanos(counts) : 0;
+    }
+
+    /**
+     * @return The average time in nanoseconds spent decoding a packet of the device with
+     *         {@code deviceHandle}, or 0 if none was decoded.
+     */
+    public long getAverageDecodeNanos(int deviceHandle) {
+        long packets = getPacketCount(deviceHandle);
+        return packets != 0 ? getDecodeNanos(deviceHandle) / packets : 0;
+    }
+
+    /**
+     * @return The number of gaps in the {@code dataType} records of the device with
+     *         {@code deviceHandle}, see {@link StreamGapListener}.
+     */
+    public long getGapCount(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getGapCount(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The estimated number of {@code dataType} records of the device with
+     *         {@code deviceHandle} lost in gaps.
+     */
+    public long getMissedRecordCount(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getMissedRecordCount(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The interval in nanoseconds between {@code dataType} records that follows from the
+     *         {@link DeviceParameter#SENSOR_REPORT_FREQUENCY} the device with {@code deviceHandle}
+     *         reported, or 0 if it did not report one.
+     */
+    public long getExpectedIntervalNanos(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getExpectedInterval(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The running mean of the interval in nanoseconds between {@code dataType} records of
+     *         the device with {@code deviceHandle}, or 0 if not known yet.
+     */
+    public long getMeanIntervalNanos(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getMeanInterval(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The running mean deviation in nanoseconds of the interval between
+     *         {@code dataType} records of the device with {@code deviceHandle} from the expected
+     *         interval, leaving out gaps.
+     */
+    public long getJitterNanos(int deviceHandle, DataType dataType) {
+        long[] counts = getTraffic(deviceHandle);
+        return counts != null ? TrafficCounters.getJitter(counts, dataType) : 0;
+    }
+
+    /**
+     * @return The number of packets whose last record was cut short. See
+     *         {@link DecodeStats#getTruncatedRecordCount()}.
+     */
+    public long getMalformedPacketCount() {
+        return mMalformedPackets;
+    }
+
+    /**
+     * @return The number of data type bytes that did not name a record.
+     */
+    public long getUnknownDataTypeCount() {
+        return mUnknownDataTypes;
+    }
+
+    public long getMalformedEnvelopeCount() {
+        return mMalformedEnvelopes;
+    }
+
+    public long getMalformedResponseCount() {
+        return mMalformedResponses;
+    }
+
+    /**
+     * @return The number of records dropped by the {@link DispatchLane}s of the service, or while
+     *         waiting for {@link OpenSpatialService#deliverPendingData()}, because they were full.
+     */
+    public long getDroppedRecordCount() {
+        return mDroppedRecords;
+    }
+
+    /**
+     * @return The number of records merged into a value still waiting to be delivered because
+     *         their {@link DataType} is {@link DeliveryPolicy#CONFLATE}d.
+     */
+    public long getConflatedRecordCount() {
+        return mConflatedRecords;
+    }
+
+    /**
+     * @return The number of asynchronous commands waiting for a response when the snapshot was
+     *         taken.
+     */
+    public int getOutstandingCommandCount() {
+        return mOutstandingCommands;
+    }
+
+    /**
+     * @return The number of asynchronous commands the device did not answer in time.
+     */
+    public long getTimedOutCommandCount() {
+        return mTimedOutCommands;
+    }
+
+    /**
+     * @return The times between sending an asynchronous command and handling its response, or
+     *         null if no response was handled.
+     */
+    public LatencyHistogram getCommandRoundTrips() {
+        return mCommandRoundTrips;
+    }
+
+    /**
+     * @return The number of enable and disable commands that were not sent because the device had
+     *         already confirmed the stream was in the requested state.
+     */
+    public long getSuppressedStreamCommandCount() {
+        return mSuppressedStreamCommands;
+    }
+
+    private long[] getTraffic(int deviceHandle) {
+        return deviceHandle >= 0 && deviceHandle < mTraffic.length ? mTraffic[deviceHandle] : null;
+    }
+
+    private double getRate(long count) {
+        return mIntervalNanos > 0 ? count * NANOS_PER_SECOND / mIntervalNanos : 0;
+    }
+}
@@ -23,12 +23,25 @@ import android.bluetooth.BluetoothDevice;
  */
 public class SliderData extends OpenSpatialData {
 
-    private final SliderType sliderType;
+    /**
+     * Receives the {@code SliderData} of the devices it is registered for with
+     * {@link OpenSpatialService#addSliderListener(BluetoothDevice, SliderData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code SliderData} received.
+         * @param data The {@code SliderData} received.
+         */
+        void onSliderData(SliderData data);
+    }
+
+    private SliderType sliderType;
 
     /**
      * @return The type of slider event that is being reported
      */
     public SliderType getSliderType() {
+        checkNotReleased();
         return sliderType;
     }
 
@@ -42,6 +55,10 @@ public class SliderData extends OpenSpatialData {
         this.sliderType = sliderType;
     }
 
+    void set(SliderType sliderType) {
+        this.sliderType = sliderType;
+    }
+
     @Override
     public String toString() {
         return super.toString() +  ", Slider: " + getSliderType().name();
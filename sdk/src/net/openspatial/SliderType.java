@@ -16,9 +16,6 @@
 
 package net.openspatial;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * An enumeration of the possible slider values an OpenSpatial device can report
  */
@@ -30,15 +27,16 @@ public enum SliderType {
     SliderType(int id) { this.id = (byte) id; }
     public byte getValue() { return id; }
 
-    private static Map<Byte, SliderType> map = new HashMap<Byte, SliderType>();
+    // Indexed by the unsigned value of the tag byte
+    private static final SliderType[] LOOKUP = new SliderType[256];
 
     static {
         for (SliderType type : SliderType.values()) {
-            map.put(type.id, type);
+            LOOKUP[type.id & 0xff] = type;
         }
     }
 
     public static SliderType valueOf(byte id) {
-        return map.get(id);
+        return LOOKUP[id & 0xff];
     }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Notified by the {@link OpenSpatialService} when records of a {@link DataType} arrive later than
+ * expected, which usually means notifications from the device were lost.
+ *
+ * @see OpenSpatialService#setStreamGapListener(StreamGapListener)
+ */
+public interface StreamGapListener {
+    /**
+     * Called on the thread data is decoded on, right after the record that ended the gap was
+     * decoded. Implementations must return quickly.
+     * @param device The device the records come from.
+     * @param dataType The {@link DataType} of the records.
+     * @param intervalNanos The time between the record that ended the gap and the one before.
+     * @param expectedIntervalNanos The time expected between two records.
+     * @param missedRecords The estimated number of records lost in the gap.
+     */
+    void onStreamGap(BluetoothDevice device,
+                     DataType dataType,
+                     long intervalNanos,
+                     long expectedIntervalNanos,
+                     long missedRecords);
+}
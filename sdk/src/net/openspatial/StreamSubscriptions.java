@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks, per device handle and {@link DataType}, whether a client wants the data stream and
+ * what the device last confirmed about it, so {@link OpenSpatialService} only sends enable and
+ * disable commands that change something and can restore the wanted streams when a device
+ * reconnects.
+ *
+ * A stream starts out {@link State#UNKNOWN}. Sending a command moves it to
+ * {@link State#ENABLING} or {@link State#DISABLING}, and the device's response moves it to
+ * {@link State#ENABLED} or {@link State#DISABLED}, or back to {@link State#UNKNOWN} if the
+ * command failed. A pending state that gets no response within the command timeout falls back to
+ * {@link State#UNKNOWN} too, since the response may have been lost or never be sent. A disconnect
+ * makes every stream of the device {@link State#UNKNOWN}.
+ *
+ * Only commands that would repeat a confirmed state are suppressed. A command repeating a pending
+ * one is sent again, so that a client can recover from a lost response.
+ */
+class StreamSubscriptions {
+
+    enum State {
+        UNKNOWN,
+        ENABLING,
+        ENABLED,
+        DISABLING,
+        DISABLED
+    }
+
+    private static final DataType[] DATA_TYPES = DataType.values();
+
+    private static class Entry {
+        final State[] states = new State[DATA_TYPES.length];
+        final boolean[] wanted = new boolean[DATA_TYPES.length];
+        // The System.nanoTime() a pending state times out at
+        final long[] deadlines = new long[DATA_TYPES.length];
+
+        Entry() {
+            Arrays.fill(states, State.UNKNOWN);
+        }
+    }
+
+    // Guarded by this
+    private final HandleMap<Entry> mEntries = new HandleMap<Entry>();
+    private long mSuppressedCommands;
+    private long mTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+            CommandTracker.DEFAULT_TIMEOUT_MILLIS);
+
+    /**
+     * Set how long an enable or disable command stays pending without a response.
+     */
+    synchronized void setTimeout(long timeoutNanos) {
+        mTimeoutNanos = timeoutNanos;
+    }
+
+    synchronized State getState(int handle, DataType dataType) {
+        Entry entry = mEntries.get(handle);
+        return entry != null ? getState(entry, dataType.ordinal()) : State.UNKNOWN;
+    }
+
+    // Must be called while holding the lock
+    private static State getState(Entry entry, int i) {
+        State state = entry.states[i];
+        if ((state == State.ENABLING || state == State.DISABLING)
+                && entry.deadlines[i] - System.nanoTime() <= 0) {
+            state = State.UNKNOWN;
+            entry.states[i] = state;
+        }
+
+        return state;
+    }
+
+    // Must be called while holding the lock
+    private void setPending(Entry entry, int i, State state) {
+        entry.states[i] = state;
+        entry.deadlines[i] = System.nanoTime() + mTimeoutNanos;
+    }
+
+    /**
+     * @return The streams the device confirmed are enabled.
+     */
+    synchronized EnumSet<DataType> getEnabled(int handle) {
+        return collect(handle, false);
+    }
+
+    /**
+     * @return The streams a client wants or that were enabled, which have to be disabled when
+     *         the service shuts down.
+     */
+    synchronized EnumSet<DataType> getSubscribed(int handle) {
+        return collect(handle, true);
+    }
+
+    /**
+     * @return The number of enable and disable commands that were not sent because they would not
+     *         have changed anything.
+     */
+    synchronized long getSuppressedCommandCount() {
+        return mSuppressedCommands;
+    }
+
+    synchronized void resetSuppressedCommandCount() {
+        mSuppressedCommands = 0;
+    }
+
+    /**
+     * Record that a client wants {@code dataType} enabled.
+     * @return Whether an enable command has to be sent.
+     */
+    synchronized boolean requestEnable(int handle, DataType dataType) {
+        Entry entry = obtainEntry(handle);
+        int i = dataType.ordinal();
+
+        entry.wanted[i] = true;
+        if (getState(entry, i) == State.ENABLED) {
+            mSuppressedCommands++;
+            return false;
+        }
+
+        setPending(entry, i, State.ENABLING);
+        return true;
+    }
+
+    /**
+     * Record that no client wants {@code dataType} any more.
+     * @return Whether a disable command has to be sent.
+     */
+    synchronized boolean requestDisable(int handle, DataType dataType) {
+        Entry entry = obtainEntry(handle);
+        int i = dataType.ordinal();
+
+        entry.wanted[i] = false;
+        if (getState(entry, i) == State.DISABLED) {
+            mSuppressedCommands++;
+            return false;
+        }
+
+        setPending(entry, i, State.DISABLING);
+        return true;
+    }
+
+    synchronized void onEnableResponse(int handle, DataType dataType, boolean succeeded) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            return;
+        }
+
+        int i = dataType.ordinal();
+        // A response to an older command does not override the one in flight
+        if (getState(entry, i) != State.DISABLING) {
+            entry.states[i] = succeeded ? State.ENABLED : State.UNKNOWN;
+        }
+    }
+
+    synchronized void onDisableResponse(int handle, DataType dataType, boolean succeeded) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            return;
+        }
+
+        int i = dataType.ordinal();
+        if (getState(entry, i) != State.ENABLING) {
+            entry.states[i] = succeeded ? State.DISABLED : State.UNKNOWN;
+        }
+    }
+
+    synchronized void onDisconnected(int handle) {
+        Entry entry = mEntries.get(handle);
+        if (entry != null) {
+            Arrays.fill(entry.states, State.UNKNOWN);
+        }
+    }
+
+    /**
+     * Mark the streams a client wants as being enabled again after the device connected.
+     * @return The streams to enable.
+     */
+    synchronized EnumSet<DataType> onConnected(int handle) {
+        EnumSet<DataType> restore = EnumSet.noneOf(DataType.class);
+
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            return restore;
+        }
+
+        for (int i = 0; i < DATA_TYPES.length; i++) {
+            State state = getState(entry, i);
+            if (entry.wanted[i] && state != State.ENABLED && state != State.ENABLING) {
+                setPending(entry, i, State.ENABLING);
+                restore.add(DATA_TYPES[i]);
+            }
+        }
+
+        return restore;
+    }
+
+    // Must be called while holding the lock
+    private EnumSet<DataType> collect(int handle, boolean includeWanted) {
+        EnumSet<DataType> result = EnumSet.noneOf(DataType.class);
+
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            return result;
+        }
+
+        for (int i = 0; i < DATA_TYPES.length; i++) {
+            State state = getState(entry, i);
+            if (state == State.ENABLED
+                    || (includeWanted && (entry.wanted[i] || state == State.ENABLING))) {
+                result.add(DATA_TYPES[i]);
+            }
+        }
+
+        return result;
+    }
+
+    // Must be called while holding the lock
+    private Entry obtainEntry(int handle) {
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(handle, entry);
+        }
+
+        return entry;
+    }
+}
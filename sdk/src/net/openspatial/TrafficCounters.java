@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openspatial;
+
+import android.bluetooth.BluetoothDevice;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the packets, records and decode time of every device for {@link ServiceStats}, and
+ * watches the time between records of each {@link DataType} for gaps and jitter.
+ *
+ * Each device has its own {@link Stripe} which is only written by the thread decoding the data and
+ * command responses of that device. Counting is then a plain read and an ordered write, without a
+ * lock or a contended atomic operation. Resetting never writes to a stripe; it records the current
+ * counts as a baseline that later snapshots are taken relative to.
+ *
+ * A record arriving later than 1.5 times the expected interval after the previous record of its
+ * {@link DataType} is a gap. The expected interval follows the
+ * {@link DeviceParameter#SENSOR_REPORT_FREQUENCY} the device reports, or the mean interval seen so
+ * far if it has not reported one. Jitter is the mean deviation from the expected interval,
+ * estimated like the interarrival jitter of RFC 3550.
+ */
+class TrafficCounters {
+    private static final int PACKETS = 0;
+    private static final int DECODE_NANOS = 1;
+    private static final int FIRST_STREAM = 2;
+
+    // The counters of each DataType, from FIRST_STREAM + ordinal * STREAM_COUNTERS
+    private static final int RECORDS = 0;
+    private static final int GAPS = 1;
+    private static final int MISSED_RECORDS = 2;
+    // Gauges, which are not reset
+    private static final int EXPECTED_INTERVAL = 3;
+    private static final int MEAN_INTERVAL = 4;
+    private static final int JITTER = 5;
+    private static final int STREAM_COUNTERS = 6;
+
+    private static final int DATA_TYPE_COUNT = DataType.values().length;
+    private static final int COUNTER_COUNT = FIRST_STREAM + DATA_TYPE_COUNT * STREAM_COUNTERS;
+
+    // Weight of a new interval in the running estimates, as a shift: 1/16
+    private static final int ESTIMATE_SHIFT = 4;
+
+    final class Stripe {
+        private final BluetoothDevice mDevice;
+        private final AtomicLongArray mCounts = new AtomicLongArray(COUNTER_COUNT);
+        // Guarded by the TrafficCounters
+        private final long[] mBaseline = new long[COUNTER_COUNT];
+
+        // Only used by the writing thread
+        private final long[] mLastArrivals = new long[DATA_TYPE_COUNT];
+        private long mArrivalTime;
+
+        private Stripe(BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        private void add(int counter, long value) {
+            mCounts.lazySet(counter, mCounts.get(counter) + value);
+        }
+
+        void onPacket(long decodeNanos) {
+            add(PACKETS, 1);
+            add(DECODE_NANOS, decodeNanos);
+        }
+
+        /**
+         * Set the time in the time base of {@code System.nanoTime()} the records counted next
+         * arrived at. 0 if unknown.
+         */
+        void setArrivalTime(long arrivalTime) {
+            mArrivalTime = arrivalTime;
+        }
+
+        void onRecord(DataType dataType) {
+            int base = getBase(dataType);
+            add(base + RECORDS, 1);
+
+            long arrival = mArrivalTime;
+            long last = mLastArrivals[dataType.ordinal()];
+            mLastArrivals[dataType.ordinal()] = arrival;
+
+            long interval = arrival - last;
+            if (arrival == 0 || last == 0 || interval <= 0) {
+                // Records of one packet arrive together
+                return;
+            }
+
+            long mean = mCounts.get(base + MEAN_INTERVAL);
+            long expected = mCounts.get(base + EXPECTED_INTERVAL);
+            if (expected == 0) {
+                expected = mean;
+            }
+
+            // The mean follows every interval, so it settles on a new rate without a reported one
+            mCounts.lazySet(base + MEAN_INTERVAL,
+                    mean != 0 ? mean + ((interval - mean) >> ESTIMATE_SHIFT) : interval);
+            if (expected == 0) {
+                return;
+            }
+
+            if (2 * interval > 3 * expected) {
+                long missed = Math.max(1, (interval + expected / 2) / expected - 1);
+                add(base + GAPS, 1);
+                add(base + MISSED_RECORDS, missed);
+
+                StreamGapListener listener = mGapListener;
+                if (listener != null) {
+                    listener.onStreamGap(mDevice, dataType, interval, expected, missed);
+                }
+            } else {
+                long jitter = mCounts.get(base + JITTER);
+                long deviation = Math.abs(interval - expected);
+                mCounts.lazySet(base + JITTER, jitter + ((deviation - jitter) >> ESTIMATE_SHIFT));
+            }
+        }
+
+        private void setExpectedInterval(DataType dataType, long expectedInterval) {
+            mCounts.lazySet(getBase(dataType) + EXPECTED_INTERVAL, expectedInterval);
+        }
+
+        private void onDisconnected() {
+            Arrays.fill(mLastArrivals, 0);
+            for (int i = 0; i < DATA_TYPE_COUNT; i++) {
+                mCounts.lazySet(FIRST_STREAM + i * STREAM_COUNTERS + EXPECTED_INTERVAL, 0);
+            }
+        }
+    }
+
+    private final DeviceRegistry mDevices;
+    private final HandleMap<Stripe> mStripes = new HandleMap<Stripe>();
+    private volatile StreamGapListener mGapListener;
+
+    TrafficCounters(DeviceRegistry devices) {
+        mDevices = devices;
+    }
+
+    void setGapListener(StreamGapListener listener) {
+        mGapListener = listener;
+    }
+
+    /**
+     * @return The stripe of the device with {@code handle}. Must only be written by the thread
+     *         decoding the data of the device.
+     */
+    Stripe getStripe(int handle) {
+        Stripe stripe = mStripes.get(handle);
+        if (stripe == null) {
+            synchronized (this) {
+                stripe = mStripes.get(handle);
+                if (stripe == null) {
+                    stripe = new Stripe(mDevices.getDevice(handle));
+                    mStripes.put(handle, stripe);
+                }
+            }
+        }
+
+        return stripe;
+    }
+
+    /**
+     * Take the expected interval between records from a parameter value reported by the device.
+     * Parameters other than {@link DeviceParameter#SENSOR_REPORT_FREQUENCY} are ignored.
+     */
+    void onParameterValue(int handle, DataType dataType, DeviceParameter deviceParameter, int value) {
+        if (deviceParameter == DeviceParameter.SENSOR_REPORT_FREQUENCY && value > 0) {
+            getStripe(handle).setExpectedInterval(dataType, TimeUnit.SECONDS.toNanos(1) / value);
+        }
+    }
+
+    /**
+     * Forget the arrival times and report frequencies of the device with {@code handle}, so
+     * reconnecting does not look like a gap.
+     */
+    void onDisconnected(int handle) {
+        Stripe stripe = mStripes.get(handle);
+        if (stripe != null) {
+            stripe.onDisconnected();
+        }
+    }
+
+    synchronized void reset() {
+        for (int handle = 0; handle < mStripes.size(); handle++) {
+            Stripe stripe = mStripes.get(handle);
+            if (stripe != null) {
+                for (int i = 0; i < COUNTER_COUNT; i++) {
+                    if (!isGauge(i)) {
+                        stripe.mBaseline[i] = stripe.mCounts.get(i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The counts since the last reset, indexed by device handle. Devices without a stripe
+     *         have a null entry.
+     */
+    synchronized long[][] snapshot() {
+        long[][] counts = new long[mStripes.size()][];
+
+        for (int handle = 0; handle < counts.length; handle++) {
+            Stripe stripe = mStripes.get(handle);
+            if (stripe != null) {
+                counts[handle] = new long[COUNTER_COUNT];
+                for (int i = 0; i < COUNTER_COUNT; i++) {
+                    counts[handle][i] = stripe.mCounts.get(i) - stripe.mBaseline[i];
+                }
+            }
+        }
+
+        return counts;
+    }
+
+    private static boolean isGauge(int counter) {
+        return counter >= FIRST_STREAM
+                && (counter - FIRST_STREAM) % STREAM_COUNTERS >= EXPECTED_INTERVAL;
+    }
+
+    private static int getBase(DataType dataType) {
+        return FIRST_STREAM + dataType.ordinal() * STREAM_COUNTERS;
+    }
+
+    static long getPacketCount(long[] counts) {
+        return counts[PACKETS];
+    }
+
+    static long getDecodeNanos(long[] counts) {
+        return counts[DECODE_NANOS];
+    }
+
+    static long getRecordCount(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + RECORDS];
+    }
+
+    static long getGapCount(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + GAPS];
+    }
+
+    static long getMissedRecordCount(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + MISSED_RECORDS];
+    }
+
+    static long getExpectedInterval(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + EXPECTED_INTERVAL];
+    }
+
+    static long getMeanInterval(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + MEAN_INTERVAL];
+    }
+
+    static long getJitter(long[] counts, DataType dataType) {
+        return counts[getBase(dataType) + JITTER];
+    }
+}
@@ -25,12 +25,25 @@ import java.util.Arrays;
  */
 public class TranslationData extends OpenSpatialData {
 
+    /**
+     * Receives the {@code TranslationData} of the devices it is registered for with
+     * {@link OpenSpatialService#addTranslationListener(BluetoothDevice, TranslationData.Listener)}.
+     */
+    public interface Listener {
+        /**
+         * Called for every {@code TranslationData} received.
+         * @param data The {@code TranslationData} received.
+         */
+        void onTranslationData(TranslationData data);
+    }
+
     private final float[] translationData;
 
     /**
      * @return A Translation reading in the x axis
      */
     public float getX() {
+        checkNotReleased();
         return translationData[X];
     }
 
@@ -38,6 +51,7 @@ public class TranslationData extends OpenSpatialData {
      * @return A Translation reading in the y axis
      */
     public float getY() {
+        checkNotReleased();
         return translationData[Y];
     }
 
@@ -45,6 +59,7 @@ public class TranslationData extends OpenSpatialData {
      * @return A Translation reading in the z axis
      */
     public float getZ() {
+        checkNotReleased();
         return translationData[Z];
     }
 
@@ -59,6 +74,12 @@ public class TranslationData extends OpenSpatialData {
         this.translationData = translationData;
     }
 
+    void set(float x, float y, float z) {
+        translationData[X] = x;
+        translationData[Y] = y;
+        translationData[Z] = z;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+/**
+ * Converts the raw int16 readings of a single OpenSpatial device in to physical units.
+ *
+ * Each conversion is a single multiplication by a scale factor that is computed once, when the
+ * device reports the full scale range (FSR) of its sensors through
+ * {@link DeviceParameter#DEVICE_ACCELEROMETER_FSR}, {@link DeviceParameter#DEVICE_GYROSCOPE_FSR},
+ * {@link DeviceParameter#DEVICE_COMPASS_FSR} or {@link DeviceParameter#SENSOR_FULL_SCALE_RANGE}.
+ * The accelerometer FSR is expected in G, the gyroscope FSR in degrees per second and the
+ * compass FSR in uT. Until a range is reported the defaults of +/-4 G and +/-2000 degrees per
+ * second are used and compass readings are taken to already be in uT.
+ */
+public class UnitConverter {
+
+    private static final float INT16_RANGE = 32768f;
+
+    static final float DEFAULT_ACCEL_SCALE = 1f / 8192;
+    static final float DEFAULT_GYRO_SCALE = (float) (Math.PI / 180 / 16.4);
+    static final float DEFAULT_COMPASS_SCALE = 1f;
+
+    // Euler angles are reported in Q13 fixed point radians
+    static final float EULER_SCALE = 1f / (1 << 13);
+
+    private volatile float mAccelScale = DEFAULT_ACCEL_SCALE;
+    private volatile float mGyroScale = DEFAULT_GYRO_SCALE;
+    private volatile float mCompassScale = DEFAULT_COMPASS_SCALE;
+
+    /**
+     * @return The number of G per accelerometer LSB.
+     */
+    public float getAccelScale() {
+        return mAccelScale;
+    }
+
+    /**
+     * @return The number of radians per second per gyroscope LSB.
+     */
+    public float getGyroScale() {
+        return mGyroScale;
+    }
+
+    /**
+     * @return The number of uT per compass LSB.
+     */
+    public float getCompassScale() {
+        return mCompassScale;
+    }
+
+    /**
+     * @param value A raw accelerometer reading.
+     * @return {@code value} in G.
+     */
+    public float accelToG(short value) {
+        return value * mAccelScale;
+    }
+
+    /**
+     * @param value A raw gyroscope reading.
+     * @return {@code value} in radians per second.
+     */
+    public float gyroToRadiansPerSecond(short value) {
+        return value * mGyroScale;
+    }
+
+    /**
+     * @param value A raw compass reading.
+     * @return {@code value} in uT.
+     */
+    public float compassToMicroTesla(short value) {
+        return value * mCompassScale;
+    }
+
+    /**
+     * @param value A fixed point Euler angle as sent by the device.
+     * @return {@code value} in radians.
+     */
+    public static float eulerToRadians(short value) {
+        return value * EULER_SCALE;
+    }
+
+    /**
+     * Set the accelerometer full scale range.
+     * @param fsr The largest magnitude the accelerometer reports, in G.
+     */
+    public void setAccelFullScaleRange(int fsr) {
+        if (fsr > 0) {
+            mAccelScale = fsr / INT16_RANGE;
+        }
+    }
+
+    /**
+     * Set the gyroscope full scale range.
+     * @param fsr The largest magnitude the gyroscope reports, in degrees per second.
+     */
+    public void setGyroFullScaleRange(int fsr) {
+        if (fsr > 0) {
+            mGyroScale = (float) (fsr / INT16_RANGE * Math.PI / 180);
+        }
+    }
+
+    /**
+     * Set the compass full scale range.
+     * @param fsr The largest magnitude the compass reports, in uT.
+     */
+    public void setCompassFullScaleRange(int fsr) {
+        if (fsr > 0) {
+            mCompassScale = fsr / INT16_RANGE;
+        }
+    }
+
+    /**
+     * Update the scale factors from a parameter value reported by the device. Parameters other
+     * than the full scale ranges are ignored.
+     * @param dataType The {@link DataType} the parameter is in reference to.
+     * @param deviceParameter The {@link DeviceParameter} reported.
+     * @param value The reported value.
+     */
+    void onParameterValue(DataType dataType, DeviceParameter deviceParameter, int value) {
+        switch (deviceParameter) {
+            case DEVICE_ACCELEROMETER_FSR:
+                setAccelFullScaleRange(value);
+                break;
+            case DEVICE_GYROSCOPE_FSR:
+                setGyroFullScaleRange(value);
+                break;
+            case DEVICE_COMPASS_FSR:
+                setCompassFullScaleRange(value);
+                break;
+            case SENSOR_FULL_SCALE_RANGE:
+                switch (dataType) {
+                    case RAW_ACCELEROMETER:
+                        setAccelFullScaleRange(value);
+                        break;
+                    case RAW_GYRO:
+                        setGyroFullScaleRange(value);
+                        break;
+                    case RAW_COMPASS:
+                        setCompassFullScaleRange(value);
+                        break;
+                }
+                break;
+        }
+    }
+}
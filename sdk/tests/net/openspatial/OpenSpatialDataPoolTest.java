@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+@Config(manifest = Config.NONE, emulateSdk = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class OpenSpatialDataPoolTest {
+    private OpenSpatialDataPool mPool;
+    private final BluetoothDevice mDevice = mock(BluetoothDevice.class);
+
+    @Before
+    public void setUp() {
+        mPool = new OpenSpatialDataPool(mDevice, 1);
+    }
+
+    @After
+    public void tearDown() {
+        OpenSpatialDataPool.setDebugChecksEnabled(false);
+        mPool = null;
+    }
+
+    @Test
+    public void testReuse() {
+        EulerData first = mPool.obtainEulerData(1f, 2f, 3f);
+        first.release();
+
+        EulerData second = mPool.obtainEulerData(4f, 5f, 6f);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(4f, second.getRoll(), 0f);
+        Assert.assertEquals(1, mPool.getHitCount(DataType.EULER_ANGLES));
+        Assert.assertEquals(1, mPool.getMissCount(DataType.EULER_ANGLES));
+        Assert.assertEquals(0, mPool.getMissCount(DataType.BUTTON));
+    }
+
+    @Test
+    public void testBoundedCapacity() {
+        ButtonData first = mPool.obtainButtonData(0, ButtonState.DOWN);
+        ButtonData second = mPool.obtainButtonData(1, ButtonState.UP);
+
+        first.release();
+        second.release();
+
+        Assert.assertEquals(2, mPool.getMissCount(DataType.BUTTON));
+        Assert.assertEquals(1, mPool.getDropCount(DataType.BUTTON));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterRelease() {
+        OpenSpatialDataPool.setDebugChecksEnabled(true);
+
+        AccelerometerData data = mPool.obtainAccelerometerData((short) 1, (short) 2, (short) 3);
+        data.release();
+        data.getX();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterReleaseAndReuse() {
+        OpenSpatialDataPool.setDebugChecksEnabled(true);
+
+        AccelerometerData data = mPool.obtainAccelerometerData((short) 1, (short) 2, (short) 3);
+        data.release();
+
+        // The next sample gets a new instance, so the stale reference is still caught
+        Assert.assertNotSame(data, mPool.obtainAccelerometerData((short) 4, (short) 5, (short) 6));
+        data.getX();
+    }
+
+    @Test
+    public void testConcurrentRelease() throws InterruptedException {
+        for (int n = 0; n < 100; n++) {
+            OpenSpatialDataPool pool = new OpenSpatialDataPool(mDevice, 2);
+            final ButtonData data = pool.obtainButtonData(0, ButtonState.DOWN);
+            final CountDownLatch start = new CountDownLatch(1);
+            Runnable release = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    data.release();
+                }
+            };
+
+            Thread first = new Thread(release);
+            Thread second = new Thread(release);
+            first.start();
+            second.start();
+            start.countDown();
+            first.join();
+            second.join();
+
+            // The instance is only returned to the pool once
+            Assert.assertNotSame(pool.obtainButtonData(1, ButtonState.UP),
+                    pool.obtainButtonData(2, ButtonState.UP));
+        }
+    }
+
+    @Test
+    public void testUseAfterReleaseUnchecked() {
+        AccelerometerData data = mPool.obtainAccelerometerData((short) 1, (short) 2, (short) 3);
+        data.release();
+
+        Assert.assertEquals(1, data.getX());
+    }
+}
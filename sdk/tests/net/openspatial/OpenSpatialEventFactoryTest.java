@@ -0,0 +1,344 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(RobolectricTestRunner.class)
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+@Config(manifest = Config.NONE, emulateSdk = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class OpenSpatialEventFactoryTest {
+    private static final float DELTA = 0.0001f;
+
+    // Euler angles (roll = 1.0, pitch = -0.5, yaw = 0.25) followed by a button 3 UP record, a
+    // relative XY record of (-2, 7) and zero padding.
+    private static final byte[] PACKET = new byte[] {
+            0x23, 0x00, 0x20, 0x00, (byte) 0xf0, 0x00, 0x08,
+            (byte) 0xa2, (byte) 0x83,
+            0x10, (byte) 0xfe, (byte) 0xff, 0x07, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+    };
+
+    private OpenSpatialEventFactory mFactory;
+    private final BluetoothDevice mDevice = mock(BluetoothDevice.class);
+
+    @Before
+    public void setUp() {
+        mFactory = new OpenSpatialEventFactory();
+    }
+
+    @After
+    public void tearDown() {
+        mFactory = null;
+    }
+
+    @Test
+    public void testVisitorDecoding() {
+        OpenSpatialDataVisitor visitor = mock(OpenSpatialDataVisitor.class);
+
+        mFactory.decodeOpenSpatialDataPacket(mDevice, PACKET, visitor);
+
+        verify(visitor).onEuler(eq(mDevice), floatNear(1.0f), floatNear(-0.5f), floatNear(0.25f));
+        verify(visitor).onButton(mDevice, 3, ButtonState.UP);
+        verify(visitor).onRelativeXY(mDevice, -2, 7);
+        verifyNoMoreInteractions(visitor);
+    }
+
+    @Test
+    public void testListDecoding() {
+        List<OpenSpatialData> dataList = mFactory.decodeOpenSpatialDataPacket(mDevice, PACKET);
+
+        Assert.assertEquals(3, dataList.size());
+
+        EulerData euler = (EulerData) dataList.get(0);
+        Assert.assertEquals(1.0f, euler.getRoll(), DELTA);
+        Assert.assertEquals(-0.5f, euler.getPitch(), DELTA);
+        Assert.assertEquals(0.25f, euler.getYaw(), DELTA);
+
+        ButtonData button = (ButtonData) dataList.get(1);
+        Assert.assertEquals(3, button.getButtonId());
+        Assert.assertEquals(ButtonState.UP, button.getButtonState());
+
+        RelativeXYData xy = (RelativeXYData) dataList.get(2);
+        Assert.assertEquals(-2, xy.getX());
+        Assert.assertEquals(7, xy.getY());
+    }
+
+    @Test
+    public void testTruncatedRecord() {
+        OpenSpatialDataVisitor visitor = mock(OpenSpatialDataVisitor.class);
+
+        // A button record followed by an accelerometer record that is missing its z axis
+        byte[] packet = new byte[] {(byte) 0xa2, 0x01, 0x20, 0x01, 0x00, 0x02, 0x00};
+        mFactory.decodeOpenSpatialDataPacket(mDevice, packet, visitor);
+
+        verify(visitor).onButton(mDevice, 1, ButtonState.DOWN);
+        verifyNoMoreInteractions(visitor);
+
+        DecodeStats stats = mFactory.getDecodeStats();
+        Assert.assertEquals(1, stats.getPacketCount());
+        Assert.assertEquals(1, stats.getRecordCount());
+        Assert.assertEquals(1, stats.getTruncatedRecordCount());
+    }
+
+    @Test
+    public void testMalformedInput() {
+        OpenSpatialDataVisitor visitor = mock(OpenSpatialDataVisitor.class);
+
+        // An unknown type byte followed by a gesture record
+        mFactory.decodeOpenSpatialDataPacket(mDevice, new byte[] {0x7f, (byte) 0xa0, 0x01}, visitor);
+        verify(visitor).onGesture(mDevice, GestureType.valueOf((byte) 0x01));
+
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+
+        // Responses cut short before their response code
+        mFactory.decodeOpenSpatialCommandResponse(mDevice, new byte[] {0x00, 0x20, 0x01}, iface);
+        mFactory.decodeOpenSpatialCommandResponse(mDevice, new byte[] {0x04, 0x20}, iface);
+        mFactory.decodeOpenSpatialCommandResponse(mDevice, new byte[0], iface);
+        verifyZeroInteractions(iface);
+
+        // GET_IDENTIFIER response: GENERAL_DEVICE_INFORMATION index 0 OK "nod"
+        mFactory.decodeOpenSpatialCommandResponse(mDevice,
+                new byte[] {0x02, (byte) 0xff, 0x00, 0x00, 'n', 'o', 'd'}, iface);
+        verify(iface).onGetIdentifierResponse(mDevice, DataType.GENERAL_DEVICE_INFORMATION,
+                (byte) 0, ResponseCode.OK, "nod");
+
+        // An identifier response for an unknown data type is reported and counted
+        mFactory.decodeOpenSpatialCommandResponse(mDevice,
+                new byte[] {0x02, 0x7f, 0x00, 0x00, 'n', 'o', 'd'}, iface);
+        verify(iface).onGetIdentifierResponse(mDevice, null, (byte) 0, ResponseCode.OK, "nod");
+
+        DecodeStats stats = mFactory.getDecodeStats();
+        Assert.assertEquals(2, stats.getUnknownDataTypeCount());
+        Assert.assertEquals(1, stats.getRecordCount());
+        Assert.assertEquals(5, stats.getResponseCount());
+        Assert.assertEquals(3, stats.getMalformedResponseCount());
+
+        stats.reset();
+        Assert.assertEquals(0, stats.getPacketCount());
+    }
+
+    @Test
+    public void testSensorBatchDecoding() {
+        final List<SensorBatch> batches = new ArrayList<SensorBatch>();
+        final List<Short> xValues = new ArrayList<Short>();
+        SensorBatchCollector collector = new SensorBatchCollector(2, new SensorBatch.Listener() {
+            @Override
+            public void onSensorBatch(SensorBatch batch) {
+                batches.add(batch);
+                for (int i = 0; i < batch.size(); i++) {
+                    xValues.add(batch.x[i]);
+                }
+            }
+        });
+        OpenSpatialDataVisitor downstream = mock(OpenSpatialDataVisitor.class);
+        collector.setDownstream(downstream);
+
+        // Accelerometer, gyroscope and button records
+        byte[] packet = new byte[] {
+                0x20, 0x01, 0x00, 0x02, 0x00, 0x03, 0x00,
+                0x21, 0x04, 0x00, 0x05, 0x00, 0x06, 0x00,
+                (byte) 0xa2, 0x02
+        };
+
+        mFactory.decodeOpenSpatialDataPacket(mDevice, packet, collector);
+        mFactory.decodeOpenSpatialDataPacket(mDevice, packet, collector);
+        Assert.assertEquals(2, batches.size());
+
+        collector.flush();
+        Assert.assertEquals(2, batches.size());
+
+        SensorBatch accel = batches.get(0);
+        Assert.assertEquals(DataType.RAW_ACCELEROMETER, accel.dataType);
+        Assert.assertEquals(0, accel.size());
+        Assert.assertSame(mDevice, accel.getDevice(accel.deviceHandles[0]));
+        Assert.assertEquals(DataType.RAW_GYRO, batches.get(1).dataType);
+        Assert.assertEquals(Arrays.asList((short) 1, (short) 1, (short) 4, (short) 4), xValues);
+
+        verify(downstream, times(2)).onButton(mDevice, 2, ButtonState.DOWN);
+        verifyNoMoreInteractions(downstream);
+    }
+
+    @Test
+    public void testSensorFrameAssembly() {
+        final List<String> frames = new ArrayList<String>();
+        SensorFrameAssembler assembler = new SensorFrameAssembler(new SensorFrame.Listener() {
+            @Override
+            public void onSensorFrame(SensorFrame frame) {
+                frames.add(frame.contains(DataType.RAW_ACCELEROMETER) + ":" + frame.accel[0]
+                        + "," + frame.contains(DataType.EULER_ANGLES) + ":" + frame.euler[0]);
+            }
+        });
+        OpenSpatialDataVisitor downstream = mock(OpenSpatialDataVisitor.class);
+        assembler.setDownstream(downstream);
+
+        // A group split across two packets: accelerometer and button, then Euler angles and the
+        // boundary tag.
+        mFactory.decodeOpenSpatialDataPacket(mDevice, new byte[] {
+                0x20, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xa2, 0x01}, assembler);
+        Assert.assertTrue(frames.isEmpty());
+        verify(downstream).onButton(mDevice, 1, ButtonState.DOWN);
+
+        mFactory.decodeOpenSpatialDataPacket(mDevice, new byte[] {
+                0x23, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00, (byte) 0x9d}, assembler);
+        Assert.assertEquals(Arrays.asList("true:5,true:1.0"), frames);
+
+        // A repeated type without a boundary in between starts a new frame
+        mFactory.decodeOpenSpatialDataPacket(mDevice, new byte[] {
+                0x20, 0x06, 0x00, 0x00, 0x00, 0x00, 0x00,
+                0x20, 0x07, 0x00, 0x00, 0x00, 0x00, 0x00}, assembler);
+        assembler.flush();
+        Assert.assertEquals(Arrays.asList("true:5,true:1.0", "true:6,false:1.0", "true:7,false:1.0"),
+                frames);
+    }
+
+    @Test
+    public void testUnitScaling() {
+        // An accelerometer record of (8192, -4096, 0)
+        byte[] packet = new byte[] {0x20, 0x00, 0x20, 0x00, (byte) 0xf0, 0x00, 0x00};
+
+        AccelerometerData accel =
+                (AccelerometerData) mFactory.decodeOpenSpatialDataPacket(mDevice, packet).get(0);
+        Assert.assertEquals(1.0f, accel.getXInG(), DELTA);
+        Assert.assertEquals(-0.5f, accel.getYInG(), DELTA);
+        Assert.assertEquals(0.0f, accel.getZInG(), DELTA);
+
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+
+        // GET_PARAMETER response: RAW_ACCELEROMETER SENSOR_FULL_SCALE_RANGE OK 8 G
+        mFactory.decodeOpenSpatialCommandResponse(mDevice,
+                new byte[] {0x00, 0x20, 0x01, 0x00, 0x08, 0x00}, iface);
+        // GET_PARAMETER response: GENERAL_DEVICE_INFORMATION DEVICE_GYROSCOPE_FSR OK 2000 dps
+        mFactory.decodeOpenSpatialCommandResponse(mDevice,
+                new byte[] {0x00, (byte) 0xff, 0x02, 0x00, (byte) 0xd0, 0x07}, iface);
+
+        accel = (AccelerometerData) mFactory.decodeOpenSpatialDataPacket(mDevice, packet).get(0);
+        Assert.assertEquals(2.0f, accel.getXInG(), DELTA);
+        Assert.assertEquals(-1.0f, accel.getYInG(), DELTA);
+
+        UnitConverter units = mFactory.getUnitConverter(mDevice);
+        Assert.assertEquals(-2000 * Math.PI / 180, units.gyroToRadiansPerSecond((short) -32768),
+                DELTA);
+        Assert.assertEquals(0.25f, UnitConverter.eulerToRadians((short) 0x800), DELTA);
+    }
+
+    @Test
+    public void testCommandBatch() {
+        CommandBatch batch = new CommandBatch();
+        batch.enableData(DataType.RAW_ACCELEROMETER);
+        batch.enableData(DataType.EULER_ANGLES);
+        batch.setParameter(DataType.RAW_ACCELEROMETER, DeviceParameter.SENSOR_FULL_SCALE_RANGE, 8);
+        Assert.assertEquals(3, batch.getCommandCount());
+        Assert.assertTrue(Arrays.equals(new byte[] {
+                3, 0x04, 0x20, 0x00,
+                3, 0x04, 0x23, 0x00,
+                5, 0x01, 0x20, 0x01, 0x08, 0x00}, batch.toByteArray()));
+
+        batch.clear();
+        Assert.assertEquals(0, batch.getCommandCount());
+        Assert.assertEquals(0, batch.toByteArray().length);
+
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+
+        // ENABLE RAW_ACCELEROMETER OK, ENABLE EULER_ANGLES OK, SET_PARAMETER RAW_ACCELEROMETER
+        // SENSOR_FULL_SCALE_RANGE OK 8 G and a truncated frame
+        mFactory.decodeOpenSpatialCommandResponses(mDevice, new byte[] {
+                4, 0x04, 0x20, 0x00, 0x00,
+                4, 0x04, 0x23, 0x00, 0x00,
+                6, 0x01, 0x20, 0x01, 0x00, 0x08, 0x00,
+                4, 0x05}, iface);
+
+        verify(iface).onDataEnabledResponse(mDevice, DataType.RAW_ACCELEROMETER, ResponseCode.OK);
+        verify(iface).onDataEnabledResponse(mDevice, DataType.EULER_ANGLES, ResponseCode.OK);
+        verify(iface).onSetParameterResponse(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE, ResponseCode.OK, new short[] {8});
+        verifyNoMoreInteractions(iface);
+
+        DecodeStats stats = mFactory.getDecodeStats();
+        Assert.assertEquals(4, stats.getResponseCount());
+        Assert.assertEquals(1, stats.getMalformedResponseCount());
+    }
+
+    @Test
+    public void testViewDecoding() {
+        final List<OpenSpatialDataView> views = new ArrayList<OpenSpatialDataView>();
+
+        mFactory.decodeOpenSpatialDataPacket(mDevice, PACKET, new OpenSpatialDataView.Listener() {
+            @Override
+            public void onDataView(OpenSpatialDataView view) {
+                views.add(view);
+            }
+        });
+
+        // Views stay valid until the next packet
+        Assert.assertEquals(3, views.size());
+
+        OpenSpatialDataView euler = views.get(0);
+        Assert.assertEquals(DataType.EULER_ANGLES, euler.getDataType());
+        Assert.assertEquals(1.0f, euler.getRoll(), DELTA);
+        Assert.assertEquals(-0.5f, euler.getPitch(), DELTA);
+        Assert.assertEquals(0.25f, euler.getYaw(), DELTA);
+
+        OpenSpatialDataView button = views.get(1);
+        Assert.assertEquals(DataType.BUTTON, button.getDataType());
+        Assert.assertEquals(3, button.getButtonId());
+        Assert.assertEquals(ButtonState.UP, button.getButtonState());
+
+        OpenSpatialDataView relativeXY = views.get(2);
+        Assert.assertEquals(-2, relativeXY.getX());
+        Assert.assertEquals(7, relativeXY.getY());
+
+        try {
+            relativeXY.getZ();
+            Assert.fail("RELATIVE_XY has no z value");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        EulerData copy = (EulerData) euler.copy();
+        Assert.assertEquals(mDevice, copy.device);
+        Assert.assertEquals(-0.5f, copy.getPitch(), DELTA);
+
+        RelativeXYData xyCopy = (RelativeXYData) relativeXY.copy();
+        Assert.assertEquals(7, xyCopy.getY());
+    }
+
+    private static float floatNear(final float expected) {
+        return floatThat(new org.mockito.ArgumentMatcher<Float>() {
+            @Override
+            public boolean matches(Object o) {
+                return Math.abs((Float) o - expected) < DELTA;
+            }
+        });
+    }
+}
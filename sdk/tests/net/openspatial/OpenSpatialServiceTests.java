@@ -23,10 +23,30 @@ import android.os.Build;
 import junit.framework.Assert;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.mockito.Mockito.*;
 
 @RunWith(RobolectricTestRunner.class)
@@ -41,6 +61,8 @@ public class OpenSpatialServiceTests {
     public void setUp() {
         mService = new OpenSpatialService();
         mService.onCreate();
+        // Pooling is tested whether or not the test app is debuggable
+        OpenSpatialDataPool.setDebugChecksEnabled(false);
     }
 
     @After
@@ -247,4 +269,1293 @@ public class OpenSpatialServiceTests {
             }
         }));
     }
+
+    @Test
+    public void testCallbackExecutor() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                tasks.add(runnable);
+            }
+        });
+
+        // A button 1 DOWN record
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {(byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        verifyZeroInteractions(iface);
+        Assert.assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        verify(iface).onDataReceived(any(ButtonData.class));
+    }
+
+    @Test
+    public void testDataEnvelope() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+
+        // Relative XY (1, 2) captured at 1000 and button 1 DOWN captured at 2000
+        DataEnvelope.Writer writer = new DataEnvelope.Writer(0);
+        byte[] packets = new byte[] {0x10, 0x01, 0x00, 0x02, 0x00, (byte) 0xa2, 0x01};
+        writer.add(packets, 0, 5, 1000, 0);
+        writer.add(packets, 5, 2, 2000, 0);
+        Assert.assertEquals(2, writer.getPacketCount());
+
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA_ENVELOPE, writer.toByteArray());
+        mService.processInboundData(i);
+
+        ArgumentCaptor<OpenSpatialData> captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface, times(2)).onDataReceived(captor.capture());
+
+        RelativeXYData relativeXY = (RelativeXYData) captor.getAllValues().get(0);
+        Assert.assertEquals(1, relativeXY.getX());
+        Assert.assertEquals(2, relativeXY.getY());
+        Assert.assertEquals(1000, relativeXY.getTimestamp());
+
+        ButtonData button = (ButtonData) captor.getAllValues().get(1);
+        Assert.assertEquals(1, button.getButtonId());
+        Assert.assertEquals(2000, button.getTimestamp());
+
+        DecodeStats stats = mService.getDecodeStats();
+        Assert.assertEquals(2, stats.getPacketCount());
+        Assert.assertEquals(1, stats.getEnvelopeCount());
+        Assert.assertEquals(0, stats.getMalformedEnvelopeCount());
+
+        // A truncated last entry is dropped, the packet before it is still decoded
+        writer.reset();
+        writer.add(packets, 5, 2, 3000, 0);
+        writer.add(packets, 0, 5, 4000, 0);
+        byte[] envelope = writer.toByteArray();
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA_ENVELOPE,
+                Arrays.copyOf(envelope, envelope.length - 1));
+        mService.processInboundData(i);
+
+        verify(iface, times(2)).onDataReceived(isA(ButtonData.class));
+        verify(iface, times(1)).onDataReceived(isA(RelativeXYData.class));
+        Assert.assertEquals(3, stats.getPacketCount());
+        Assert.assertEquals(2, stats.getEnvelopeCount());
+        Assert.assertEquals(1, stats.getMalformedEnvelopeCount());
+
+        // Single packet intents still work and are stamped when they are decoded
+        long before = System.currentTimeMillis();
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {(byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface, times(4)).onDataReceived(captor.capture());
+        Assert.assertTrue(captor.getValue().getTimestamp() >= before);
+        Assert.assertEquals(2, stats.getEnvelopeCount());
+    }
+
+    @Test
+    public void testPacketRing() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+
+        PacketRing ring = new PacketRing(64);
+        LoopbackPacketProducer producer = new LoopbackPacketProducer(ring, new Runnable() {
+            @Override
+            public void run() {
+                mService.wakeUpPacketRing(mDevice);
+            }
+        });
+        mService.attachPacketRing(mDevice, ring);
+        mService.setLatencyTrackingEnabled(true);
+
+        // Button 1 DOWN, then relative XY (1, 2)
+        Assert.assertTrue(producer.send(new byte[] {(byte) 0xa2, 0x01}, 0, 2, 1000, 1L));
+        Assert.assertTrue(producer.send(new byte[] {0x10, 0x01, 0x00, 0x02, 0x00}, 0, 5, 2000, 2L));
+
+        ArgumentCaptor<OpenSpatialData> captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface, times(2)).onDataReceived(captor.capture());
+        Assert.assertEquals(1000, captor.getAllValues().get(0).getTimestamp());
+        Assert.assertEquals(1L, captor.getAllValues().get(0).getReceiptNanos());
+        Assert.assertEquals(2, ((RelativeXYData) captor.getAllValues().get(1)).getY());
+        Assert.assertEquals(2000, captor.getAllValues().get(1).getTimestamp());
+        Assert.assertEquals(2L, captor.getAllValues().get(1).getReceiptNanos());
+        LatencyStats latency = mService.getLatencyStats();
+        Assert.assertEquals(1, latency.getHistogram(mService.getDeviceHandle(mDevice),
+                DataType.BUTTON, LatencyStats.Stage.RECEIPT_TO_DECODE).getCount());
+        Assert.assertEquals(2, producer.getWakeUpCount());
+        Assert.assertEquals(0, ring.getUsedBytes());
+
+        // Detached rings are no longer read
+        mService.attachPacketRing(mDevice, null);
+        Assert.assertTrue(producer.send(new byte[] {(byte) 0xa2, 0x01}));
+        verify(iface, times(2)).onDataReceived(isA(OpenSpatialData.class));
+    }
+
+    @Test
+    public void testReceiptTime() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+
+        // Relative XY (1, 2), received at the time the connector reported
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x10, 0x01, 0x00, 0x02, 0x00});
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, 12345L);
+        mService.processInboundData(i);
+
+        // Without a reported time the data is stamped when the service handles it
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x10, 0x01, 0x00, 0x02, 0x00});
+        long before = System.nanoTime();
+        mService.processInboundData(i);
+        long after = System.nanoTime();
+
+        ArgumentCaptor<OpenSpatialData> captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface, times(2)).onDataReceived(captor.capture());
+        Assert.assertEquals(12345L, captor.getAllValues().get(0).getReceiptNanos());
+        long receiptNanos = captor.getAllValues().get(1).getReceiptNanos();
+        Assert.assertTrue(receiptNanos >= before && receiptNanos <= after);
+    }
+
+    @Test
+    public void testLatencyStats() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setLatencyTrackingEnabled(true);
+
+        // Relative XY (1, 2) and button 1 DOWN, received 5 ms before the service handles them
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x10, 0x01, 0x00, 0x02, 0x00, (byte) 0xa2, 0x01});
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, System.nanoTime() - 5000000L);
+        mService.processInboundData(i);
+
+        LatencyStats stats = mService.getLatencyStats();
+        int handle = mService.getDeviceHandle(mDevice);
+        for (LatencyStats.Stage stage : LatencyStats.Stage.values()) {
+            Assert.assertEquals(1,
+                    stats.getHistogram(handle, DataType.RELATIVE_XY, stage).getCount());
+            Assert.assertEquals(1, stats.getHistogram(handle, DataType.BUTTON, stage).getCount());
+        }
+        Assert.assertNull(stats.getHistogram(handle, DataType.RAW_GYRO,
+                LatencyStats.Stage.RECEIPT_TO_DECODE));
+
+        LatencyHistogram receipt = stats.getHistogram(handle, DataType.RELATIVE_XY,
+                LatencyStats.Stage.RECEIPT_TO_DECODE);
+        Assert.assertTrue(receipt.getMaxNanos() >= 5000000L);
+        Assert.assertEquals(receipt.getMaxNanos(), receipt.getPercentileNanos(0.5));
+        Assert.assertEquals(0, receipt.getCount(0));
+
+        // Snapshots do not change and reset clears every histogram
+        mService.resetLatencyStats();
+        Assert.assertEquals(1, receipt.getCount());
+        Assert.assertEquals(0, mService.getLatencyStats().getDeviceHandleLimit());
+
+        mService.setLatencyTrackingEnabled(false);
+        mService.processInboundData(i);
+        Assert.assertEquals(0, mService.getLatencyStats().getDeviceHandleLimit());
+    }
+
+    @Test
+    public void testServiceStats() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+
+        // Relative XY (1, 2) and button 1 DOWN, then relative XY cut short
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x10, 0x01, 0x00, 0x02, 0x00, (byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x10, 0x01});
+        mService.processInboundData(i);
+
+        // GET_PARAMETER RAW_ACCELEROMETER SENSOR_FULL_SCALE_RANGE OK 8
+        mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        mService.getParameterAsync(mDevice, DataType.RAW_GYRO,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x00, 0x20, 0x01, 0x00, 0x08, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+
+        ServiceStats stats = mService.getStats();
+        int handle = mService.getDeviceHandle(mDevice);
+        Assert.assertEquals(2, stats.getPacketCount(handle));
+        Assert.assertEquals(1, stats.getRecordCount(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(1, stats.getRecordCount(handle, DataType.BUTTON));
+        Assert.assertEquals(0, stats.getRecordCount(handle, DataType.RAW_GYRO));
+        Assert.assertTrue(stats.getRecordsPerSecond(handle, DataType.BUTTON) > 0);
+        Assert.assertEquals(1, stats.getMalformedPacketCount());
+        Assert.assertEquals(1, stats.getOutstandingCommandCount());
+        Assert.assertEquals(1, stats.getCommandRoundTrips().getCount());
+        Assert.assertEquals(0, stats.getPacketCount(handle + 1));
+
+        mService.resetStats();
+        stats = mService.getStats();
+        Assert.assertEquals(0, stats.getPacketCount(handle));
+        Assert.assertEquals(0, stats.getRecordCount(handle, DataType.BUTTON));
+        Assert.assertEquals(0, stats.getMalformedPacketCount());
+        Assert.assertNull(stats.getCommandRoundTrips());
+    }
+
+    @Test
+    public void testStreamGaps() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        StreamGapListener listener = mock(StreamGapListener.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setStreamGapListener(listener);
+
+        // GET_PARAMETER RELATIVE_XY SENSOR_REPORT_FREQUENCY OK 100 Hz
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x00, 0x10, 0x00, 0x00, 0x64, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+
+        // Relative XY every 10 ms, except for the 30 ms between the third and fourth
+        long[] receiptTimes = {1000000000L, 1010000000L, 1020000000L, 1050000000L, 1060000000L};
+        for (long receiptTime : receiptTimes) {
+            i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                    new byte[] {0x10, 0x01, 0x00, 0x02, 0x00});
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, receiptTime);
+            mService.processInboundData(i);
+        }
+
+        verify(listener).onStreamGap(mDevice, DataType.RELATIVE_XY, 30000000L, 10000000L, 2);
+        verifyNoMoreInteractions(listener);
+
+        ServiceStats stats = mService.getStats();
+        int handle = mService.getDeviceHandle(mDevice);
+        Assert.assertEquals(5, stats.getRecordCount(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(1, stats.getGapCount(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(2, stats.getMissedRecordCount(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(10000000L, stats.getExpectedIntervalNanos(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(0, stats.getJitterNanos(handle, DataType.RELATIVE_XY));
+        Assert.assertTrue(stats.getMeanIntervalNanos(handle, DataType.RELATIVE_XY) > 10000000L);
+
+        // Reconnecting is not a gap
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        mService.processDeviceConnectionIntent(i);
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x10, 0x01, 0x00, 0x02, 0x00});
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_RECEIPT_NANOS, 2000000000L);
+        mService.processInboundData(i);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void testStreamGapsWithClockJump() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        StreamGapListener listener = mock(StreamGapListener.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setStreamGapListener(listener);
+
+        // GET_PARAMETER RELATIVE_XY SENSOR_REPORT_FREQUENCY OK 100 Hz
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x00, 0x10, 0x00, 0x00, 0x64, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+
+        // Relative XY every 10 ms, while the wall clock jumps a minute ahead
+        DataEnvelope.Writer writer = new DataEnvelope.Writer(0);
+        byte[] packet = new byte[] {0x10, 0x01, 0x00, 0x02, 0x00};
+        long[] timestamps = {1000, 1010, 61020, 61030};
+        for (int n = 0; n < timestamps.length; n++) {
+            writer.add(packet, 0, packet.length, timestamps[n], 1000000000L + n * 10000000L);
+        }
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA_ENVELOPE, writer.toByteArray());
+        mService.processInboundData(i);
+
+        verify(iface, times(4)).onDataReceived(isA(RelativeXYData.class));
+        verifyNoMoreInteractions(listener);
+
+        ServiceStats stats = mService.getStats();
+        int handle = mService.getDeviceHandle(mDevice);
+        Assert.assertEquals(0, stats.getGapCount(handle, DataType.RELATIVE_XY));
+        Assert.assertEquals(0, stats.getJitterNanos(handle, DataType.RELATIVE_XY));
+    }
+
+    @Test
+    public void testPacketRingWrapAround() {
+        PacketRing ring = new PacketRing(
+                ByteBuffer.allocateDirect(PacketRing.getMemorySize(128)));
+        final List<Long> timestamps = new ArrayList<Long>();
+        final List<Byte> firstBytes = new ArrayList<Byte>();
+        PacketRing.Reader reader = new PacketRing.Reader() {
+            @Override
+            public void onPacket(byte[] data, int offset, int length, long timestamp,
+                                 long captureNanos) {
+                Assert.assertEquals(timestamp, captureNanos);
+                Assert.assertEquals(5, length);
+                timestamps.add(timestamp);
+                firstBytes.add(data[offset]);
+            }
+        };
+
+        // Every entry takes 28 bytes, so the fifth does not fit before the end
+        byte[] packet = new byte[5];
+        for (int i = 0; i < 4; i++) {
+            packet[0] = (byte) i;
+            Assert.assertTrue(ring.write(packet, 0, 5, i, i));
+        }
+        Assert.assertFalse(ring.write(packet, 0, 5, 4, 4));
+        Assert.assertEquals(4, ring.read(reader, 2) + ring.read(reader, 2));
+        Assert.assertTrue(ring.prepareToWait());
+
+        packet[0] = 4;
+        Assert.assertTrue(ring.write(packet, 0, 5, 4, 4));
+        Assert.assertTrue(ring.takeWakeUpRequest());
+        Assert.assertFalse(ring.takeWakeUpRequest());
+        Assert.assertFalse(ring.prepareToWait());
+        Assert.assertEquals(1, ring.read(reader, 10));
+        Assert.assertEquals(0, ring.read(reader, 10));
+
+        Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), timestamps);
+        Assert.assertEquals(Arrays.asList((byte) 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4),
+                firstBytes);
+    }
+
+    @Test
+    public void testCorruptPacketRing() {
+        ByteBuffer memory = ByteBuffer.allocate(PacketRing.getMemorySize(64));
+        PacketRing ring = new PacketRing(memory);
+        PacketRing.Reader reader = mock(PacketRing.Reader.class);
+        byte[] packet = new byte[5];
+
+        // A length longer than the ring
+        Assert.assertTrue(ring.write(packet, 0, 5, 0, 0));
+        memory.order(ByteOrder.LITTLE_ENDIAN).putInt(PacketRing.HEADER_SIZE, 1 << 20);
+        Assert.assertEquals(0, ring.read(reader, 10));
+        Assert.assertEquals(1, ring.getCorruptionCount());
+        Assert.assertEquals(0, ring.getUsedBytes());
+
+        // A negative length that is not padding
+        Assert.assertTrue(ring.write(packet, 0, 5, 0, 0));
+        memory.putInt(PacketRing.HEADER_SIZE + 28, -7);
+        Assert.assertEquals(0, ring.read(reader, 10));
+        Assert.assertEquals(2, ring.getCorruptionCount());
+
+        // The ring is usable again afterwards
+        Assert.assertTrue(ring.write(packet, 0, 5, 0, 0));
+        Assert.assertEquals(1, ring.read(reader, 10));
+        verify(reader).onPacket(isA(byte[].class), anyInt(), eq(5), eq(0L), eq(0L));
+    }
+
+    @Test
+    public void testCommandFutures() throws Exception {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setCommandTimeout(50);
+
+        CommandFuture.Listener listener = mock(CommandFuture.Listener.class);
+        CommandFuture fullScale = mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        fullScale.setListener(listener);
+        CommandFuture identifier = mService.getIdentifierAsync(mDevice,
+                DataType.GENERAL_DEVICE_INFORMATION, (byte) 0);
+        CommandFuture unanswered = mService.getParameterAsync(mDevice, DataType.RAW_GYRO,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        CommandFuture cancelled = mService.getParameterAsync(mDevice, DataType.RAW_COMPASS,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        Assert.assertEquals(4, mService.getOutstandingCommandCount());
+
+        Assert.assertTrue(cancelled.cancel(false));
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals(3, mService.getOutstandingCommandCount());
+
+        // Answered out of order: GET_IDENTIFIER GENERAL_DEVICE_INFORMATION index 0 OK "nod", then
+        // GET_PARAMETER RAW_ACCELEROMETER SENSOR_FULL_SCALE_RANGE OK 8
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x02, (byte) 0xff, 0x00, 0x00, 'n', 'o', 'd'});
+        mService.processOpenSpatialControlResponse(i);
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x00, 0x20, 0x01, 0x00, 0x08, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+
+        Assert.assertEquals("nod", identifier.get(0, TimeUnit.MILLISECONDS).getIdentifier());
+        CommandResponse response = fullScale.get(0, TimeUnit.MILLISECONDS);
+        Assert.assertEquals(ResponseCode.OK, response.getResponseCode());
+        Assert.assertEquals(8, response.getValues()[0]);
+        verify(listener).onCommandComplete(fullScale);
+        // The interface is still called
+        verify(iface).onGetParameterResponse(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE, ResponseCode.OK, new short[] {8});
+
+        try {
+            unanswered.get(5, TimeUnit.SECONDS);
+            Assert.fail("Command did not time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(unanswered.isTimedOut());
+        Assert.assertEquals(0, mService.getOutstandingCommandCount());
+    }
+
+    @Test
+    public void testLateCommandResponse() throws Exception {
+        mService.initialize(OpenSpatialServiceTests.class.getName(),
+                mock(OpenSpatialInterface.class));
+        mService.setCommandTimeout(50);
+
+        CommandFuture timedOut = mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        try {
+            timedOut.get(5, TimeUnit.SECONDS);
+            Assert.fail("Command did not time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(timedOut.isTimedOut());
+        }
+
+        CommandFuture next = mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+
+        // The late answer to the first command (4), then the answer to the second one (8)
+        for (byte value : new byte[] {0x04, 0x08}) {
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                    new byte[] {0x00, 0x20, 0x01, 0x00, value, 0x00});
+            mService.processOpenSpatialControlResponse(i);
+
+            if (value == 0x04) {
+                Assert.assertFalse(next.isDone());
+            }
+        }
+
+        Assert.assertEquals(8, next.get(0, TimeUnit.MILLISECONDS).getValues()[0]);
+        Assert.assertEquals(0, mService.getOutstandingCommandCount());
+    }
+
+    @Test
+    public void testEmulatorCommands() {
+        BluetoothDevice emulator = OpenSpatialConstants.EMULATOR_DEVICE;
+
+        // The emulator has no device handle, so nothing is cached or tracked for it
+        mService.getParameter(emulator, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        mService.setParameter(emulator, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE, 8);
+        mService.getParameterRange(emulator, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        mService.getIdentifier(emulator, DataType.GENERAL_DEVICE_INFORMATION, (byte) 0);
+        mService.enableData(emulator, DataType.EULER_ANGLES);
+        mService.disableData(emulator, DataType.EULER_ANGLES);
+
+        Assert.assertEquals(0, mService.getOutstandingCommandCount());
+        Assert.assertEquals(DeviceRegistry.NO_HANDLE, mService.getDeviceHandle(emulator));
+    }
+
+    @Test
+    public void testParameterCache() throws Exception {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        ParameterCache cache = mService.getParameterCache();
+
+        CommandFuture first = mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // GET_PARAMETER RAW_ACCELEROMETER SENSOR_FULL_SCALE_RANGE OK 8
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x00, 0x20, 0x01, 0x00, 0x08, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+        Assert.assertTrue(first.isDone());
+
+        // Served from the cache, without a command in flight
+        CommandFuture second = mService.getParameterAsync(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        Assert.assertEquals(8, second.get(0, TimeUnit.MILLISECONDS).getValues()[0]);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(0, mService.getOutstandingCommandCount());
+        verify(iface, times(2)).onGetParameterResponse(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE, ResponseCode.OK, new short[] {8});
+
+        // GET_IDENTIFIER GENERAL_DEVICE_INFORMATION index 0 OK "nod"
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA,
+                new byte[] {0x02, (byte) 0xff, 0x00, 0x00, 'n', 'o', 'd'});
+        mService.processOpenSpatialControlResponse(i);
+
+        mService.getIdentifier(mDevice, DataType.GENERAL_DEVICE_INFORMATION, (byte) 0);
+        Assert.assertEquals(2, cache.getHitCount());
+        verify(iface, times(2)).onGetIdentifierResponse(mDevice,
+                DataType.GENERAL_DEVICE_INFORMATION, (byte) 0, ResponseCode.OK, "nod");
+
+        // Setting a parameter invalidates it
+        mService.setParameter(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE, 4);
+        mService.getParameter(mDevice, DataType.RAW_ACCELEROMETER,
+                DeviceParameter.SENSOR_FULL_SCALE_RANGE);
+        Assert.assertEquals(2, cache.getMissCount());
+
+        // Disconnecting invalidates everything of the device
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        mService.processDeviceConnectionIntent(i);
+        mService.getIdentifier(mDevice, DataType.GENERAL_DEVICE_INFORMATION, (byte) 0);
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testStreamSubscriptions() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        StreamSubscriptions streams = mService.getStreamSubscriptions();
+
+        // A pending command doesn't suppress the next one, only a confirmed state does
+        mService.enableData(mDevice, DataType.RAW_ACCELEROMETER);
+        mService.enableData(mDevice, DataType.RAW_ACCELEROMETER);
+        Assert.assertEquals(0, streams.getSuppressedCommandCount());
+        Assert.assertTrue(mService.getEnabledData(mDevice).isEmpty());
+
+        // ENABLE RAW_ACCELEROMETER OK
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x04, 0x20, 0x00, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+        Assert.assertEquals(EnumSet.of(DataType.RAW_ACCELEROMETER),
+                mService.getEnabledData(mDevice));
+        verify(iface).onDataEnabledResponse(mDevice, DataType.RAW_ACCELEROMETER, ResponseCode.OK);
+
+        mService.enableData(mDevice, EnumSet.of(DataType.RAW_ACCELEROMETER, DataType.RAW_GYRO));
+        Assert.assertEquals(1, streams.getSuppressedCommandCount());
+
+        // The wanted streams are enabled again when the device comes back
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        mService.processDeviceConnectionIntent(i);
+        Assert.assertTrue(mService.getEnabledData(mDevice).isEmpty());
+
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        mService.processDeviceConnectionIntent(i);
+        // The only device of the service gets the first handle
+        int handle = 0;
+        Assert.assertEquals(StreamSubscriptions.State.ENABLING,
+                streams.getState(handle, DataType.RAW_ACCELEROMETER));
+        Assert.assertEquals(StreamSubscriptions.State.ENABLING,
+                streams.getState(handle, DataType.RAW_GYRO));
+        Assert.assertEquals(StreamSubscriptions.State.UNKNOWN,
+                streams.getState(handle, DataType.RAW_COMPASS));
+
+        // DISABLE RAW_ACCELEROMETER OK
+        mService.disableData(mDevice, DataType.RAW_ACCELEROMETER);
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x05, 0x20, 0x00, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+        Assert.assertEquals(StreamSubscriptions.State.DISABLED,
+                streams.getState(handle, DataType.RAW_ACCELEROMETER));
+        Assert.assertEquals(EnumSet.of(DataType.RAW_GYRO), streams.getSubscribed(handle));
+
+        mService.disableData(mDevice, DataType.RAW_ACCELEROMETER);
+        Assert.assertEquals(2, streams.getSuppressedCommandCount());
+    }
+
+    @Test
+    public void testCommandBatchFallback() {
+        OpenSpatialService service = spy(mService);
+        service.initialize(OpenSpatialServiceTests.class.getName(),
+                mock(OpenSpatialInterface.class));
+
+        // A connector that does not announce batch support gets one command per intent
+        Intent i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        service.processDeviceConnectionIntent(i);
+
+        service.enableData(mDevice, EnumSet.of(DataType.RAW_ACCELEROMETER, DataType.RAW_GYRO));
+        ArgumentCaptor<Intent> captor = ArgumentCaptor.forClass(Intent.class);
+        verify(service, times(2)).sendBroadcast(captor.capture());
+        byte enable = CommandType.ENABLE.getValue();
+        for (int n = 0; n < 2; n++) {
+            Intent command = captor.getAllValues().get(n);
+            Assert.assertFalse(command.hasExtra(OpenSpatialConstants.OPENSPATIAL_COMMAND_BATCH));
+            Assert.assertTrue(Arrays.equals(new byte[] {enable, (n == 0 ?
+                    DataType.RAW_ACCELEROMETER : DataType.RAW_GYRO).getValue(), 0},
+                    command.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_DATA)));
+        }
+
+        // One that does gets them all in one intent, also when the streams are restored
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        service.processDeviceConnectionIntent(i);
+
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_COMMAND_BATCH_SUPPORTED, true);
+        service.processDeviceConnectionIntent(i);
+
+        service.disableData(mDevice, EnumSet.of(DataType.RAW_ACCELEROMETER, DataType.RAW_GYRO));
+        captor = ArgumentCaptor.forClass(Intent.class);
+        verify(service, times(4)).sendBroadcast(captor.capture());
+        for (int n = 2; n < 4; n++) {
+            Intent batch = captor.getAllValues().get(n);
+            Assert.assertFalse(batch.hasExtra(OpenSpatialConstants.OPENSPATIAL_DATA));
+            byte[] frames = batch.getByteArrayExtra(OpenSpatialConstants.OPENSPATIAL_COMMAND_BATCH);
+            Assert.assertEquals(8, frames.length);
+            Assert.assertEquals(n == 2 ? enable : CommandType.DISABLE.getValue(), frames[1]);
+        }
+    }
+
+    @Test
+    public void testPendingStreamTimeout() throws InterruptedException {
+        mService.initialize(OpenSpatialServiceTests.class.getName(),
+                mock(OpenSpatialInterface.class));
+        mService.setCommandTimeout(20);
+        StreamSubscriptions streams = mService.getStreamSubscriptions();
+
+        // No response ever comes
+        mService.enableData(mDevice, DataType.EULER_ANGLES);
+        int handle = mService.getDeviceHandle(mDevice);
+        Assert.assertEquals(StreamSubscriptions.State.ENABLING,
+                streams.getState(handle, DataType.EULER_ANGLES));
+
+        Thread.sleep(50);
+        Assert.assertEquals(StreamSubscriptions.State.UNKNOWN,
+                streams.getState(handle, DataType.EULER_ANGLES));
+
+        // Once the disable command timed out, an enable response is no longer ignored as the
+        // answer to an older command: ENABLE EULER_ANGLES OK
+        mService.disableData(mDevice, DataType.EULER_ANGLES);
+        Thread.sleep(50);
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {0x04, 0x23, 0x00, 0x00});
+        mService.processOpenSpatialControlResponse(i);
+        Assert.assertEquals(StreamSubscriptions.State.ENABLED,
+                streams.getState(handle, DataType.EULER_ANGLES));
+        Assert.assertEquals(0, streams.getSuppressedCommandCount());
+    }
+
+    @Test
+    public void testDeliveryPolicies() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setDeliveryPolicy(DataType.EULER_ANGLES, DeliveryPolicy.CONFLATE);
+        mService.setDeliveryPolicy(DataType.RELATIVE_XY, DeliveryPolicy.CONFLATE);
+        mService.setDeliveryPolicy(DataType.BUTTON, DeliveryPolicy.QUEUE);
+
+        // Relative XY (1, 2), Euler angles (0.5, 0, 0) and button 1 DOWN followed by relative XY
+        // (3, 4), Euler angles (1.0, 0, 0) and button 1 UP
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                0x10, 0x01, 0x00, 0x02, 0x00,
+                0x23, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+                (byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                0x10, 0x03, 0x00, 0x04, 0x00,
+                0x23, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00,
+                (byte) 0xa2, (byte) 0x81});
+        mService.processInboundData(i);
+
+        verifyZeroInteractions(iface);
+
+        mService.deliverPendingData();
+
+        ArgumentCaptor<OpenSpatialData> captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface, times(4)).onDataReceived(captor.capture());
+        List<OpenSpatialData> delivered = captor.getAllValues();
+
+        Assert.assertEquals(ButtonState.DOWN, ((ButtonData) delivered.get(0)).getButtonState());
+        Assert.assertEquals(ButtonState.UP, ((ButtonData) delivered.get(1)).getButtonState());
+        Assert.assertEquals(1.0f, ((EulerData) delivered.get(2)).getRoll(), 0.0001f);
+
+        RelativeXYData relativeXY = (RelativeXYData) delivered.get(3);
+        Assert.assertEquals(4, relativeXY.getX());
+        Assert.assertEquals(6, relativeXY.getY());
+
+        mService.deliverPendingData();
+        verifyNoMoreInteractions(iface);
+    }
+
+    @Test
+    public void testDeliveryQueueBound() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setDeliveryPolicy(DataType.BUTTON, DeliveryPolicy.QUEUE);
+
+        int records = DeliveryScheduler.MAX_QUEUED_RECORDS + 4;
+        byte[] data = new byte[records * 2];
+        for (int r = 0; r < records; r++) {
+            data[2 * r] = (byte) 0xa2;
+            data[2 * r + 1] = 0x01;
+        }
+
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, data);
+        mService.processInboundData(i);
+
+        Assert.assertEquals(4, mService.getStats().getDroppedRecordCount());
+
+        mService.deliverPendingData();
+        verify(iface, times(DeliveryScheduler.MAX_QUEUED_RECORDS))
+                .onDataReceived(isA(ButtonData.class));
+
+        mService.resetStats();
+        Assert.assertEquals(0, mService.getStats().getDroppedRecordCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflateDiscreteData() {
+        mService.setDeliveryPolicy(DataType.BUTTON, DeliveryPolicy.CONFLATE);
+    }
+
+    @Test
+    public void testDispatchLanes() throws InterruptedException {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<DataType> delivered = new ArrayList<DataType>();
+
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                OpenSpatialData data = (OpenSpatialData) invocation.getArguments()[0];
+                synchronized (delivered) {
+                    delivered.add(data.dataType);
+                }
+
+                // Hold the dispatch thread on the first record so the others queue up
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(iface).onDataReceived(any(OpenSpatialData.class));
+
+        DispatchLane priorityLane = new DispatchLane(4, DispatchLane.DropPolicy.DROP_NEWEST);
+        DispatchLane bulkLane = new DispatchLane(2, DispatchLane.DropPolicy.DROP_OLDEST);
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setDispatchLanes(priorityLane, bulkLane);
+        Assert.assertSame(priorityLane, mService.getPriorityDispatchLane());
+        Assert.assertSame(bulkLane, mService.getBulkDispatchLane());
+
+        try {
+            // Euler angles (0.5, 0, 0)
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                    0x23, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00});
+            mService.processInboundData(i);
+
+            verify(iface, timeout(5000)).onDataReceived(any(OpenSpatialData.class));
+
+            // Three more Euler angles followed by button 1 DOWN
+            i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                    0x23, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00,
+                    0x23, 0x00, 0x30, 0x00, 0x00, 0x00, 0x00,
+                    0x23, 0x00, 0x40, 0x00, 0x00, 0x00, 0x00,
+                    (byte) 0xa2, 0x01});
+            mService.processInboundData(i);
+
+            Assert.assertEquals(2, bulkLane.getDepth());
+            Assert.assertEquals(1, bulkLane.getDroppedCount());
+            Assert.assertEquals(1, priorityLane.getDepth());
+
+            release.countDown();
+            verify(iface, timeout(5000).times(4)).onDataReceived(any(OpenSpatialData.class));
+
+            synchronized (delivered) {
+                Assert.assertEquals(DataType.EULER_ANGLES, delivered.get(0));
+                Assert.assertEquals(DataType.BUTTON, delivered.get(1));
+                Assert.assertEquals(DataType.EULER_ANGLES, delivered.get(2));
+                Assert.assertEquals(DataType.EULER_ANGLES, delivered.get(3));
+            }
+
+            Assert.assertEquals(1, priorityLane.getDispatchedCount());
+            Assert.assertEquals(4, bulkLane.getEnqueuedCount());
+            Assert.assertEquals(3, bulkLane.getDispatchedCount());
+            Assert.assertTrue(priorityLane.getMaxWaitNanos() > 0);
+            Assert.assertTrue(bulkLane.getMaxWaitNanos() >= priorityLane.getMaxWaitNanos());
+        } finally {
+            release.countDown();
+            mService.setDispatchLanes(null, null);
+        }
+
+        Assert.assertNull(mService.getPriorityDispatchLane());
+    }
+
+    @Test
+    public void testDispatchLanePoolCapacity() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        mService.setDataPoolCapacity(4);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        mService.setDispatchLanes(new DispatchLane(4, DispatchLane.DropPolicy.DROP_NEWEST),
+                new DispatchLane(4, DispatchLane.DropPolicy.DROP_OLDEST));
+
+        try {
+            // Euler angles (0.5, 0, 0)
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                    0x23, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00});
+            mService.processInboundData(i);
+
+            ArgumentCaptor<OpenSpatialData> captor =
+                    ArgumentCaptor.forClass(OpenSpatialData.class);
+            verify(iface, timeout(5000)).onDataReceived(captor.capture());
+            Assert.assertNotNull(captor.getValue().getPool());
+
+            // The lanes stop taking data from the pool once pooling is turned off
+            mService.setDataPoolCapacity(0);
+            mService.processInboundData(i);
+
+            captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+            verify(iface, timeout(5000).times(2)).onDataReceived(captor.capture());
+            Assert.assertNull(captor.getValue().getPool());
+            Assert.assertNull(mService.getDataPool(mDevice));
+        } finally {
+            mService.setDispatchLanes(null, null);
+        }
+    }
+
+    @Test
+    public void testDeviceHandles() {
+        OpenSpatialInterface iface = mock(OpenSpatialInterface.class);
+        BluetoothDevice device = mock(BluetoothDevice.class);
+        BluetoothDevice reconnected = mock(BluetoothDevice.class);
+        BluetoothDevice other = mock(BluetoothDevice.class);
+        when(device.getAddress()).thenReturn("00:11:22:33:44:55");
+        when(reconnected.getAddress()).thenReturn("00:11:22:33:44:55");
+        when(other.getAddress()).thenReturn("66:77:88:99:AA:BB");
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(), iface);
+        Assert.assertEquals(OpenSpatialConstants.NO_DEVICE_HANDLE,
+                mService.getDeviceHandle(device));
+
+        Intent i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+        mService.processDeviceConnectionIntent(i);
+
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, other);
+        mService.processDeviceConnectionIntent(i);
+
+        Assert.assertEquals(0, mService.getDeviceHandle(device));
+        Assert.assertEquals(1, mService.getDeviceHandle(other));
+        Assert.assertSame(other, mService.getDevice(1));
+        Assert.assertNull(mService.getDevice(2));
+
+        // The same address keeps its handle and its canonical device after reconnecting
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+        mService.processDeviceConnectionIntent(i);
+
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, reconnected);
+        mService.processDeviceConnectionIntent(i);
+
+        Assert.assertEquals(0, mService.getDeviceHandle(reconnected));
+        verify(iface, times(2)).onDeviceConnected(device);
+
+        // A button 1 DOWN record
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, reconnected);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {(byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        ArgumentCaptor<OpenSpatialData> captor = ArgumentCaptor.forClass(OpenSpatialData.class);
+        verify(iface).onDataReceived(captor.capture());
+        Assert.assertEquals(0, captor.getValue().getDeviceHandle());
+        Assert.assertSame(device, captor.getValue().device);
+    }
+
+    @Test
+    public void testConcurrentEventCallbacks() throws Throwable {
+        final int deviceCount = 4;
+        final int connectCount = 50;
+        final int iterations = 500;
+
+        final BluetoothDevice[] devices = new BluetoothDevice[deviceCount];
+        final AtomicInteger[] received = new AtomicInteger[deviceCount];
+        final OpenSpatialEvent.EventListener[] listeners =
+                new OpenSpatialEvent.EventListener[deviceCount];
+        for (int d = 0; d < deviceCount; d++) {
+            final AtomicInteger count = new AtomicInteger();
+            devices[d] = mock(BluetoothDevice.class);
+            when(devices[d].getAddress()).thenReturn("00:00:00:00:00:0" + d);
+            received[d] = count;
+            listeners[d] = new OpenSpatialEvent.EventListener() {
+                @Override
+                public void onEventReceived(OpenSpatialEvent event) {
+                    count.incrementAndGet();
+                }
+            };
+        }
+
+        final BluetoothDevice[] connecting = new BluetoothDevice[connectCount];
+        for (int c = 0; c < connectCount; c++) {
+            connecting[c] = mock(BluetoothDevice.class);
+            when(connecting[c].getAddress()).thenReturn(String.format("11:11:11:11:11:%02d", c));
+        }
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger writersLeft = new AtomicInteger(deviceCount + 1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        // One writer per device registering and unregistering its listener
+        for (int d = 0; d < deviceCount; d++) {
+            final int device = d;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int n = 0; n < iterations; n++) {
+                            mService.registerForEvents(devices[device],
+                                    OpenSpatialEvent.EventType.EVENT_BUTTON, listeners[device]);
+                            mService.unregisterForEvents(devices[device],
+                                    OpenSpatialEvent.EventType.EVENT_BUTTON);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        writersLeft.decrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        // Devices connecting while the callbacks change
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (BluetoothDevice device : connecting) {
+                        Intent i = new Intent(
+                                OpenSpatialConstants.OPENSPATIAL_DEVICE_CONNECTED_INTENT_ACTION);
+                        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+                        mService.processDeviceConnectionIntent(i);
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                } finally {
+                    writersLeft.decrementAndGet();
+                }
+            }
+        }));
+
+        // Readers dispatching events until every writer is done
+        for (int r = 0; r < 2; r++) {
+            final Random random = new Random(r);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (writersLeft.get() > 0) {
+                            BluetoothDevice device = devices[random.nextInt(deviceCount)];
+                            Intent i = new Intent();
+                            i.putExtra(OpenSpatialConstants.OPENSPATIAL_EVENT,
+                                    new ButtonEvent(device,
+                                            ButtonEvent.ButtonEventType.TOUCH0_DOWN));
+                            mService.processEventIntent(i);
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+
+        // Every connected device got its own handle
+        Set<Integer> handles = new HashSet<Integer>();
+        for (BluetoothDevice device : connecting) {
+            handles.add(mService.getDeviceHandle(device));
+        }
+        Assert.assertEquals(connectCount, handles.size());
+        Assert.assertFalse(handles.contains(OpenSpatialConstants.NO_DEVICE_HANDLE));
+
+        // Every device ends up with no listener, and a new registration is seen right away
+        for (int d = 0; d < deviceCount; d++) {
+            int before = received[d].get();
+
+            mService.registerForEvents(devices[d],
+                    OpenSpatialEvent.EventType.EVENT_BUTTON, listeners[d]);
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_EVENT,
+                    new ButtonEvent(devices[d], ButtonEvent.ButtonEventType.TOUCH0_DOWN));
+            mService.processEventIntent(i);
+
+            Assert.assertEquals(before + 1, received[d].get());
+        }
+    }
+
+    @Test
+    public void testMultipleClients() {
+        OpenSpatialInterface primary = mock(OpenSpatialInterface.class);
+        OpenSpatialInterface buttonClient = mock(OpenSpatialInterface.class);
+        OpenSpatialInterface slowClient = mock(OpenSpatialInterface.class);
+        final List<Runnable> slowTasks = new ArrayList<Runnable>();
+
+        mService.setDataPoolCapacity(4);
+        mService.initialize(OpenSpatialServiceTests.class.getName(), primary);
+        mService.addClient(buttonClient, EnumSet.of(DataType.BUTTON), new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        // Never runs its callbacks
+        mService.addClient(slowClient, EnumSet.of(DataType.BUTTON, DataType.EULER_ANGLES),
+                new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        slowTasks.add(runnable);
+                    }
+                });
+
+        // Euler angles (0.5, 0, 0) followed by button 1 DOWN
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                0x23, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00,
+                (byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+
+        verify(primary).onDataReceived(isA(EulerData.class));
+        verify(primary).onDataReceived(isA(ButtonData.class));
+        verify(buttonClient).onDataReceived(isA(ButtonData.class));
+        verifyNoMoreInteractions(buttonClient);
+        verifyZeroInteractions(slowClient);
+        Assert.assertEquals(2, slowTasks.size());
+
+        // Shared data is not pooled
+        OpenSpatialDataPool pool = mService.getDataPool(mDevice);
+        Assert.assertEquals(0, pool.getMissCount(DataType.EULER_ANGLES));
+        Assert.assertEquals(0, pool.getMissCount(DataType.BUTTON));
+
+        Assert.assertTrue(mService.removeClient(slowClient));
+        Assert.assertFalse(mService.removeClient(slowClient));
+
+        // Euler angles now only go to the primary interface, from the pool
+        i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                0x23, 0x00, 0x10, 0x00, 0x00, 0x00, 0x00});
+        mService.processInboundData(i);
+
+        verify(primary, times(2)).onDataReceived(isA(EulerData.class));
+        Assert.assertEquals(1, pool.getMissCount(DataType.EULER_ANGLES));
+        Assert.assertEquals(2, slowTasks.size());
+    }
+
+    @Test
+    public void testSlowClientKeepsControlCallbacks() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger();
+        OpenSpatialInterface client = mock(OpenSpatialInterface.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                blocked.countDown();
+                unblock.await();
+                received.incrementAndGet();
+                return null;
+            }
+        }).when(client).onDataReceived(isA(OpenSpatialData.class));
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(),
+                mock(OpenSpatialInterface.class));
+        mService.addClient(client, EnumSet.of(DataType.BUTTON), null);
+
+        // Button 1 DOWN until the client falls far behind, then the device goes away
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {(byte) 0xa2, 0x01});
+        mService.processInboundData(i);
+        Assert.assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        for (int n = 0; n < 400; n++) {
+            mService.processInboundData(i);
+        }
+
+        i = new Intent(OpenSpatialConstants.OPENSPATIAL_DEVICE_DISCONNECTED_INTENT_ACTION);
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        mService.processDeviceConnectionIntent(i);
+        unblock.countDown();
+
+        // Data beyond the running callback and the 256 waiting ones is dropped, the
+        // disconnection is not
+        verify(client, timeout(1000)).onDeviceDisconnected(mDevice);
+        Assert.assertEquals(257, received.get());
+    }
+
+    @Test
+    public void testTypedDataListeners() {
+        EulerData.Listener eulerListener = mock(EulerData.Listener.class);
+        ButtonData.Listener buttonListener = mock(ButtonData.Listener.class);
+        EulerData.Listener otherDeviceListener = mock(EulerData.Listener.class);
+
+        mService.setDataPoolCapacity(4);
+        mService.addEulerListener(mDevice, eulerListener);
+        mService.addButtonListener(null, buttonListener);
+        mService.addEulerListener(mock(BluetoothDevice.class), otherDeviceListener);
+
+        // Euler angles (1.0, 0, 0), button 3 UP and relative XY (-2, 7)
+        Intent i = new Intent();
+        i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+        i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                0x23, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00,
+                (byte) 0xa2, (byte) 0x83,
+                0x10, (byte) 0xfe, (byte) 0xff, 0x07, 0x00});
+        mService.processInboundData(i);
+
+        verify(eulerListener).onEulerData(any(EulerData.class));
+        verify(buttonListener).onButtonData(any(ButtonData.class));
+        verifyZeroInteractions(otherDeviceListener);
+
+        // Nobody subscribed to relative XY data so none was created
+        OpenSpatialDataPool pool = mService.getDataPool(mDevice);
+        Assert.assertEquals(1, pool.getMissCount(DataType.EULER_ANGLES));
+        Assert.assertEquals(0, pool.getMissCount(DataType.RELATIVE_XY));
+
+        Assert.assertTrue(mService.removeEulerListener(mDevice, eulerListener));
+        Assert.assertFalse(mService.removeEulerListener(mDevice, eulerListener));
+
+        mService.processInboundData(i);
+        verifyNoMoreInteractions(eulerListener);
+        verify(buttonListener, times(2)).onButtonData(any(ButtonData.class));
+    }
+
+    @Test
+    public void testPooledDataWithSeveralListeners() {
+        Answer<Void> release = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((OpenSpatialData) invocation.getArguments()[0]).release();
+                return null;
+            }
+        };
+        EulerData.Listener first = mock(EulerData.Listener.class);
+        EulerData.Listener second = mock(EulerData.Listener.class);
+        doAnswer(release).when(first).onEulerData(isA(EulerData.class));
+        doAnswer(release).when(second).onEulerData(isA(EulerData.class));
+
+        OpenSpatialDataPool.setDebugChecksEnabled(true);
+        try {
+            mService.setDataPoolCapacity(4);
+            mService.addEulerListener(mDevice, first);
+            mService.addEulerListener(mDevice, second);
+
+            // Euler angles (1.0, 0, 0)
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, mDevice);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, new byte[] {
+                    0x23, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00});
+            mService.processInboundData(i);
+
+            verify(first).onEulerData(isA(EulerData.class));
+            verify(second).onEulerData(isA(EulerData.class));
+
+            // Both listeners released the data, so it must not have come from the pool
+            OpenSpatialDataPool pool = mService.getDataPool(mDevice);
+            Assert.assertEquals(0, pool.getMissCount(DataType.EULER_ANGLES));
+
+            // A single listener behind the callback executor doesn't get pooled data either
+            final List<Runnable> callbacks = new ArrayList<Runnable>();
+            mService.removeEulerListener(mDevice, second);
+            mService.setCallbackExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    callbacks.add(command);
+                }
+            });
+            mService.processInboundData(i);
+
+            Assert.assertEquals(1, callbacks.size());
+            Assert.assertEquals(0, pool.getMissCount(DataType.EULER_ANGLES));
+            callbacks.get(0).run();
+            verify(first, times(2)).onEulerData(isA(EulerData.class));
+        } finally {
+            OpenSpatialDataPool.setDebugChecksEnabled(false);
+        }
+    }
+
+    @Test
+    public void testSensorBatchDeviceHandles() {
+        final List<Integer> handles = new ArrayList<Integer>();
+        final List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>();
+        BluetoothDevice otherDevice = mock(BluetoothDevice.class);
+
+        mService.initialize(OpenSpatialServiceTests.class.getName(),
+                mock(OpenSpatialInterface.class));
+        mService.setSensorBatchListener(1, new SensorBatch.Listener() {
+            @Override
+            public void onSensorBatch(SensorBatch batch) {
+                handles.add(batch.deviceHandles[0]);
+                devices.add(batch.getDevice(batch.deviceHandles[0]));
+            }
+        });
+
+        // Accelerometer (1, 2, 3) from another device first, so that the handles differ
+        byte[] accel = new byte[] {0x20, 0x01, 0x00, 0x02, 0x00, 0x03, 0x00};
+        for (BluetoothDevice device : new BluetoothDevice[] {otherDevice, mDevice}) {
+            Intent i = new Intent();
+            i.putExtra(OpenSpatialConstants.BLUETOOTH_DEVICE, device);
+            i.putExtra(OpenSpatialConstants.OPENSPATIAL_DATA, accel);
+            mService.processInboundData(i);
+        }
+
+        Assert.assertEquals(Arrays.asList(mService.getDeviceHandle(otherDevice),
+                mService.getDeviceHandle(mDevice)), handles);
+        Assert.assertEquals(1, mService.getDeviceHandle(mDevice));
+        Assert.assertEquals(Arrays.asList(otherDevice, mDevice), devices);
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015, Nod Labs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openspatial;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the per-record cost of resolving protocol tag bytes through the 256 entry lookup
+ * tables against the {@code HashMap<Byte, ...>} lookups they replaced. The timings are printed
+ * rather than asserted on since they depend on the machine running the tests, and the benchmark
+ * is ignored so it does not slow down every test run. Remove {@code @Ignore} to run it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+@Config(manifest = Config.NONE, emulateSdk = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class ProtocolLookupBenchmark {
+    private static final int RECORDS = 1 << 16;
+    private static final int ROUNDS = 50;
+
+    private final Map<Byte, DataType> mDataTypeMap = new HashMap<Byte, DataType>();
+    private final Map<Byte, GestureType> mGestureTypeMap = new HashMap<Byte, GestureType>();
+    private final byte[] mTags = new byte[RECORDS];
+
+    @Before
+    public void setUp() {
+        for (DataType type : DataType.values()) {
+            mDataTypeMap.put(type.getValue(), type);
+        }
+
+        for (GestureType type : GestureType.values()) {
+            mGestureTypeMap.put(type.getValue(), type);
+        }
+
+        // A typical stream of records with the occasional unknown tag
+        DataType[] types = DataType.values();
+        for (int i = 0; i < RECORDS; i++) {
+            mTags[i] = i % 17 == 0 ? (byte) 0x7f : types[i % types.length].getValue();
+        }
+    }
+
+    @Test
+    public void testLookupTablesMatchMaps() {
+        for (int i = 0; i < 256; i++) {
+            byte id = (byte) i;
+            Assert.assertEquals(mDataTypeMap.get(id), DataType.valueOf(id));
+            Assert.assertEquals(mGestureTypeMap.get(id), GestureType.valueOf(id));
+        }
+
+        for (ResponseCode code : ResponseCode.values()) {
+            Assert.assertEquals(code, ResponseCode.valueOf((byte) code.ordinal()));
+        }
+        Assert.assertNull(ResponseCode.valueOf((byte) -1));
+
+        Assert.assertEquals(DeviceParameter.SENSOR_FULL_SCALE_RANGE,
+                DeviceParameter.valueOf(DataType.RAW_GYRO, (byte) 0x1));
+        Assert.assertEquals(DeviceParameter.DEVICE_ACCELEROMETER_FSR,
+                DeviceParameter.valueOf(DataType.GENERAL_DEVICE_INFORMATION, (byte) 0x1));
+        Assert.assertEquals(DeviceParameter.GENERIC_INDEX_1,
+                DeviceParameter.valueOf(DataType.HAPTIC, (byte) 0x1));
+    }
+
+    @Test
+    @Ignore("Benchmark, run by hand")
+    public void benchmarkDataTypeDispatch() {
+        long mapChecksum = 0;
+        long tableChecksum = 0;
+        long mapNanos = Long.MAX_VALUE;
+        long tableNanos = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            mapChecksum += dispatchWithMap();
+            mapNanos = Math.min(mapNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            tableChecksum += dispatchWithTable();
+            tableNanos = Math.min(tableNanos, System.nanoTime() - start);
+        }
+
+        Assert.assertEquals(mapChecksum, tableChecksum);
+
+        System.out.println(String.format("DataType dispatch: HashMap %.2f ns/record, " +
+                "lookup table %.2f ns/record",
+                (double) mapNanos / RECORDS, (double) tableNanos / RECORDS));
+    }
+
+    private long dispatchWithMap() {
+        long checksum = 0;
+        for (byte tag : mTags) {
+            DataType type = mDataTypeMap.get(tag);
+            checksum += type == null ? -1 : type.ordinal();
+        }
+        return checksum;
+    }
+
+    private long dispatchWithTable() {
+        long checksum = 0;
+        for (byte tag : mTags) {
+            DataType type = DataType.valueOf(tag);
+            checksum += type == null ? -1 : type.ordinal();
+        }
+        return checksum;
+    }
+}